@@ -0,0 +1,37 @@
+package ca.bcit.comp7005.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks with the standard JMH command-line options.
+ * The GC profiler is always added, so every benchmark reports its allocation rate
+ * (gc.alloc.rate.norm is the number of bytes allocated per operation) next to its throughput.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()
+                || commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats()) {
+            // Let JMH print the help or the lists
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        final Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                // Only the errors of the receiver are logged while measuring
+                .jvmArgsAppend("-Dlogback.configurationFile=logback-benchmarks.xml")
+                .build();
+        new Runner(options).run();
+    }
+}
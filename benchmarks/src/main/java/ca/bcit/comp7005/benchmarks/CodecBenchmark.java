@@ -0,0 +1,131 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.AZRP;
+import ca.bcit.comp7005.AZRPCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encoding, decoding and validating a single packet, and generating the SYN-ACK and ACK packets,
+ * with both the AZRP packet class and the flyweight AZRPCodec.
+ * The received packets are read from direct buffers, like the buffers of the NIO transport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"64", "512", "1024", "1400"})
+    public int payloadSize;
+
+    // The data packet as an object, serialized and in a receive buffer
+    private AZRP dataPacket;
+    private byte[] dataBytes;
+    private ByteBuffer dataBuffer;
+
+    // The SYN packet as an object and in a receive buffer
+    private AZRP synPacket;
+    private ByteBuffer synBuffer;
+
+    private final AZRPCodec codec = new AZRPCodec();
+    private final ByteBuffer controlBuffer = AZRPCodec.allocateControlBuffer();
+
+    @Setup
+    public void createPackets() {
+        final byte[] payload = new byte[this.payloadSize];
+        new Random(7005).nextBytes(payload);
+        this.dataPacket = AZRP.data(payload, 7005, payload.length);
+        this.dataBytes = this.dataPacket.toBytes();
+        this.dataBuffer = toReceiveBuffer(this.dataBytes);
+
+        final byte[] fileType = new byte[AZRP.FILE_EXTENSION_LENGTH];
+        fileType[0] = 'x';
+        this.synPacket = new AZRP(fileType, 7005, this.payloadSize, new boolean[]{true, false});
+        this.synBuffer = toReceiveBuffer(this.synPacket.toBytes());
+    }
+
+    private static ByteBuffer toReceiveBuffer(byte[] packet) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES);
+        buffer.put(packet).flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return this.dataPacket.toBytes();
+    }
+
+    @Benchmark
+    public AZRP decode() {
+        return AZRP.fromBytes(this.dataBytes);
+    }
+
+    @Benchmark
+    public int decodeFlyweight() {
+        this.codec.wrap(this.dataBuffer);
+        return this.codec.getSequenceNumber() + this.codec.getPayloadLength() + this.codec.getCheckSum();
+    }
+
+    @Benchmark
+    public boolean validateChecksum() {
+        return this.dataPacket.isValidData();
+    }
+
+    @Benchmark
+    public boolean validateChecksumFlyweight() {
+        return this.codec.wrap(this.dataBuffer).isValidData();
+    }
+
+    @Benchmark
+    public byte[] synAck() {
+        return AZRP.generateSynAckPacket(this.synPacket).toBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer synAckFlyweight() {
+        return this.codec.wrap(this.synBuffer).encodeSynAck(this.controlBuffer);
+    }
+
+    @Benchmark
+    public byte[] ack() {
+        // The ACK packet as it was built before the flyweight codec
+        final AZRP ack = new AZRP(new byte[0], this.dataPacket.getSequenceNumber() + this.payloadSize,
+                this.payloadSize, this.dataPacket.getCheckSum(), new boolean[]{false, true});
+        return ack.toBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer ackFlyweight() {
+        this.codec.wrap(this.dataBuffer);
+        return AZRPCodec.encodeAck(this.controlBuffer, this.codec.getSequenceNumber() + this.payloadSize,
+                this.payloadSize, this.codec.getCheckSum());
+    }
+
+    @Benchmark
+    public ByteBuffer cumulativeAckWithSack() {
+        AZRPCodec.beginControlPacket(this.controlBuffer, AZRP.ACK_FLAG, 7005, 0);
+        final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_SACK);
+        for (int i = 1; i <= 8; i++) {
+            this.controlBuffer.putInt(7005 + i * 2 * this.payloadSize);
+            this.controlBuffer.putInt(7005 + (i * 2 + 1) * this.payloadSize);
+        }
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        return this.codec.finishControlPacket(this.controlBuffer);
+    }
+}
@@ -0,0 +1,90 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.Datagram;
+import ca.bcit.comp7005.Transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A transport that receives the datagrams delivered by the benchmark instead of a socket,
+ * and counts the datagrams sent by the receiver instead of sending them.
+ * The queue is bounded and preallocated, so the transport itself doesn't allocate per datagram.
+ */
+public class InMemoryTransport implements Transport {
+
+    private final BlockingQueue<Datagram> received;
+
+    // The datagram that wakes the listener up when the transport is closed
+    private final Datagram closing = new Datagram(ByteBuffer.allocate(0), null, null);
+    private volatile boolean closed;
+
+    private final LongAdder sentDatagrams = new LongAdder();
+
+    /**
+     * @param capacity - the maximum number of delivered datagrams waiting to be received.
+     */
+    public InMemoryTransport(int capacity) {
+        this.received = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Delivers a datagram to the receiver. Waits if the receiver is behind by more than the capacity.
+     *
+     * @param datagram - the datagram positioned at the start of the packet.
+     * @throws InterruptedException - if the thread is interrupted while waiting.
+     */
+    public void deliver(Datagram datagram) throws InterruptedException {
+        this.received.put(datagram);
+    }
+
+    @Override
+    public Datagram receive() throws IOException {
+        final Datagram datagram;
+        try {
+            datagram = this.received.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while receiving", e);
+        }
+        if (datagram == this.closing) {
+            throw new IOException("The transport is closed");
+        }
+        return datagram;
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress receiver) {
+        this.sentDatagrams.increment();
+    }
+
+    @Override
+    public int setReceiveBufferSize(int size) {
+        return size; // The queue has no socket buffer
+    }
+
+    @Override
+    public int getLocalPort() {
+        return 0;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        this.received.clear();
+        this.received.offer(this.closing);
+    }
+
+    public long getSentDatagrams() {
+        return sentDatagrams.sum();
+    }
+}
@@ -0,0 +1,369 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.CompletedTransfer;
+import ca.bcit.comp7005.FileReassemblyTarget;
+import ca.bcit.comp7005.HeapReassemblyTarget;
+import ca.bcit.comp7005.Histogram;
+import ca.bcit.comp7005.Receiver;
+import ca.bcit.comp7005.ReceiverConfig;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * A soak test of the receiver: runs a receiver in this process, optionally behind a lossy proxy,
+ * and sends messages to it from many concurrent simulated senders. Each delivered message is checked against
+ * the message that was sent. At the end it reports the goodput, the percentiles of the completion latency,
+ * the counters of the receiver and the proxy, and the CPU and heap used by the process.
+ * The CPU and heap include the senders and the proxy, which run in the same process as the receiver.
+ */
+public class LoadGenerator {
+
+    // The defaults of the load
+    private static final int DEFAULT_SENDERS = 16;
+    private static final int DEFAULT_TRANSFERS = 10;
+    private static final int DEFAULT_MESSAGE_LENGTH = 1024 * 1024;
+    private static final int DEFAULT_PAYLOAD_SIZE = 1400;
+    private static final int DEFAULT_IN_FLIGHT = 64;
+    private static final int DEFAULT_PORT = 7005;
+    private static final int TRANSFER_TIMEOUT_MILLISECONDS = 60_000;
+
+    // The time a session of the receiver waits for the next packet
+    private static final int READ_DATA_TIMEOUT_MILLISECONDS = 10_000;
+
+    // How often the heap used by the process is sampled
+    private static final long HEAP_SAMPLE_INTERVAL_MILLISECONDS = 100;
+
+    // The files are not saved, so any file type reassembled in memory will do
+    private static final String MIME_TYPE = "application/pdf";
+
+    private static final String RECEIVER_METRICS = "ca.bcit.comp7005:type=Transfers,name=all";
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new Options();
+        options.addOption("c", "senders", true, "number of concurrent senders");
+        options.addOption("t", "transfers", true, "number of messages sent by each sender one after another");
+        options.addOption("l", "length", true, "length of each message in bytes");
+        options.addOption(null, "payload", true, "length of the data in a data packet");
+        options.addOption(null, "in-flight", true, "maximum number of data packets a sender has not had acknowledged");
+        options.addOption("p", "port", true, "port of the receiver; the proxy listens on the next port");
+        options.addOption(null, "ack-every", true, "acknowledge every n data packets with one cumulative ACK packet");
+        options.addOption(null, "shards", true, "number of shards of the receiver");
+        options.addOption(null, "memory-budget", true, "megabytes the receiver may hold for the messages in memory");
+        options.addOption(null, "placement-workers", true, "number of threads of the receiver that validate and write the data packets");
+        options.addOption(null, "nio", false, "receive with a DatagramChannel and pooled direct buffers");
+        options.addOption(null, "fec", true, "send a parity packet after every n data packets");
+        options.addOption(null, "timestamps", false, "measure the round-trip time with timestamps echoed by the receiver");
+        options.addOption(null, "persistent", false, "send the messages of each sender over one persistent stream");
+        options.addOption(null, "chunk-size", true, "send a manifest of the hashes of the chunks of this size before each message");
+        options.addOption(null, "silent-corrupt", true, "probability that a data packet is corrupted before its checksum is calculated");
+        NetworkConditions.addOptions(options);
+
+        final CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Usage: [options]: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        final int senders = Integer.parseInt(commandLine.getOptionValue("senders", String.valueOf(DEFAULT_SENDERS)));
+        final int transfers = Integer.parseInt(commandLine.getOptionValue("transfers", String.valueOf(DEFAULT_TRANSFERS)));
+        final int messageLength = Integer.parseInt(commandLine.getOptionValue("length", String.valueOf(DEFAULT_MESSAGE_LENGTH)));
+        final int payloadSize = Integer.parseInt(commandLine.getOptionValue("payload", String.valueOf(DEFAULT_PAYLOAD_SIZE)));
+        final int inFlight = Integer.parseInt(commandLine.getOptionValue("in-flight", String.valueOf(DEFAULT_IN_FLIGHT)));
+        final int port = Integer.parseInt(commandLine.getOptionValue("port", String.valueOf(DEFAULT_PORT)));
+        final int fecGroupSize = Integer.parseInt(commandLine.getOptionValue("fec", "0"));
+        final boolean timestamps = commandLine.hasOption("timestamps");
+        final boolean stream = commandLine.hasOption("persistent");
+        final int chunkSize = Integer.parseInt(commandLine.getOptionValue("chunk-size", "0"));
+        final double silentCorruption = Double.parseDouble(commandLine.getOptionValue("silent-corrupt", "0"));
+        final NetworkConditions conditions = NetworkConditions.fromCommandLine(commandLine);
+
+        final ReceiverConfig config = new ReceiverConfig();
+        config.setAckEvery(Integer.parseInt(commandLine.getOptionValue("ack-every", "1")));
+        config.setShards(Integer.parseInt(commandLine.getOptionValue("shards", "1")));
+        if (commandLine.hasOption("memory-budget")) {
+            config.setMemoryBudget(Long.parseLong(commandLine.getOptionValue("memory-budget")) * 1024 * 1024);
+        }
+        config.setPlacementWorkers(Integer.parseInt(commandLine.getOptionValue("placement-workers", "0")));
+        config.setNio(commandLine.hasOption("nio"));
+
+        new LoadGenerator(config, conditions).run(port, senders, transfers, messageLength, payloadSize, inFlight, fecGroupSize,
+                timestamps, stream, chunkSize, silentCorruption);
+    }
+
+    private final ReceiverConfig config;
+    private final NetworkConditions conditions;
+
+    // The checksum of each message sent, by its initial sequence number or the sequence number of its frame in a stream,
+    // checked against the delivered message
+    private final Map<Integer, Long> expectedChecksums = new ConcurrentHashMap<>();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+
+    private final Histogram latencyMicros = new Histogram(Runtime.getRuntime().availableProcessors());
+    private final LongAdder completedTransfers = new LongAdder();
+    private final LongAdder failedTransfers = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final LongAdder parityPackets = new LongAdder();
+    private final LongAdder spuriousRetransmissions = new LongAdder();
+    private final LongAdder refusals = new LongAdder();
+    private final LongAdder silentCorruptions = new LongAdder();
+
+    private final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param config     - the settings of the receiver.
+     * @param conditions - the impairments of the network between the senders and the receiver.
+     */
+    public LoadGenerator(ReceiverConfig config, NetworkConditions conditions) {
+        this.config = config;
+        this.conditions = conditions;
+    }
+
+    /**
+     * Runs the receiver and the senders until every sender has sent all its messages, and prints the report.
+     *
+     * @param port          - the port of the receiver.
+     * @param senders       - the number of concurrent senders.
+     * @param transfers     - the number of messages each sender sends one after another.
+     * @param messageLength - the length of each message.
+     * @param payloadSize   - the length of the data in a data packet.
+     * @param inFlight      - the maximum number of data packets a sender has not had acknowledged.
+     * @param fecGroupSize  - the number of data packets protected by a parity packet; 0 for no parity packets.
+     * @param timestamps    - whether the senders measure the round-trip time with timestamps.
+     * @param stream        - whether each sender sends its messages over one persistent stream.
+     * @param chunkSize     - the size of the chunks of the manifest sent before each message; 0 for no manifest.
+     * @param silentCorruption - the probability that a data packet is corrupted before its checksum is calculated.
+     */
+    public void run(int port, int senders, int transfers, int messageLength, int payloadSize, int inFlight, int fecGroupSize,
+                    boolean timestamps, boolean stream, int chunkSize, double silentCorruption)
+            throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("azrp-load");
+        this.config.setMetricsFile(directory.resolve("metrics.txt").toString());
+        final Receiver receiver = new Receiver(directory.toString(), this.config, this::verify);
+        final Thread receiverThread = Thread.ofPlatform().name("receiver").start(() -> {
+            try {
+                receiver.run(port, READ_DATA_TIMEOUT_MILLISECONDS);
+            } catch (IOException e) {
+                System.err.println("Receiver error: " + e.getMessage());
+            }
+        });
+
+        final InetSocketAddress receiverAddress = new InetSocketAddress("127.0.0.1", port);
+        final LossyProxy proxy = this.conditions.isImpaired() ? new LossyProxy(port + 1, receiverAddress, this.conditions) : null;
+        final InetSocketAddress target = proxy != null ? new InetSocketAddress("127.0.0.1", proxy.getLocalPort()) : receiverAddress;
+
+        System.out.println("Load: " + senders + " senders x " + transfers + " messages of " + messageLength + " bytes"
+                + (stream ? " over streams" : "") + (proxy != null ? " through a proxy with " + this.conditions : " without a proxy"));
+
+        final Thread heapSampler = Thread.ofPlatform().daemon().name("heap-sampler").start(this::sampleHeap);
+        final long cpuStartNanos = getProcessCpuNanos();
+        final long gcStart = getGcCount();
+        final long startNanos = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < senders; i++) {
+                final long seed = i;
+                executor.execute(() -> this.runSender(target, seed, transfers, messageLength, payloadSize, inFlight,
+                        fecGroupSize, timestamps, stream, chunkSize, silentCorruption));
+            }
+        }
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long cpuNanos = getProcessCpuNanos() - cpuStartNanos;
+        final long gcCount = getGcCount() - gcStart;
+        heapSampler.interrupt();
+
+        // The counters of the receiver are read before it stops and unregisters them
+        final String receiverCounters = getReceiverCounters();
+        if (proxy != null) {
+            proxy.close();
+        }
+        receiver.stop();
+        receiverThread.join();
+
+        this.report(elapsedNanos, cpuNanos, gcCount, messageLength, receiverCounters, proxy);
+    }
+
+    /**
+     * Sends the messages of one sender one after another, each with a new initial sequence number,
+     * or all of them over one stream.
+     */
+    private void runSender(InetSocketAddress target, long seed, int transfers, int messageLength, int payloadSize, int inFlight,
+                           int fecGroupSize, boolean timestamps, boolean stream, int chunkSize, double silentCorruption) {
+        final byte[] message = new byte[messageLength];
+        new Random(seed).nextBytes(message);
+        final CRC32 crc32 = new CRC32();
+        crc32.update(message);
+        final long checksum = crc32.getValue();
+
+        try (SimulatedSender sender = new SimulatedSender(target, MIME_TYPE, payloadSize, inFlight,
+                TRANSFER_TIMEOUT_MILLISECONDS, fecGroupSize, timestamps, chunkSize, silentCorruption)) {
+            if (stream) {
+                final int initialSequenceNumber = ThreadLocalRandom.current().nextInt();
+                final int frameLength = SimulatedSender.getFrameLength(MIME_TYPE.length(), messageLength);
+                for (int i = 0; i < transfers; i++) {
+                    this.expectedChecksums.put(initialSequenceNumber + i * frameLength, checksum);
+                }
+                final SimulatedSender.Result result = sender.sendStream(Collections.nCopies(transfers, message), initialSequenceNumber);
+                this.onResult(result, transfers);
+                return;
+            }
+            for (int i = 0; i < transfers; i++) {
+                final int initialSequenceNumber = ThreadLocalRandom.current().nextInt();
+                this.expectedChecksums.put(initialSequenceNumber, checksum);
+                this.onResult(sender.send(message, initialSequenceNumber), 1);
+            }
+        } catch (IOException e) {
+            System.err.println("Sender error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the outcome of a message, or of a stream of messages, to the counters of the senders.
+     *
+     * @param result   - the outcome.
+     * @param messages - the number of messages the outcome covers.
+     */
+    private void onResult(SimulatedSender.Result result, int messages) {
+        if (result.completed()) {
+            this.completedTransfers.add(messages);
+            this.latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(result.latencyNanos()));
+        } else {
+            this.failedTransfers.add(messages);
+        }
+        this.packetsSent.add(result.packetsSent());
+        this.retransmissions.add(result.retransmissions());
+        this.parityPackets.add(result.parityPackets());
+        this.spuriousRetransmissions.add(result.spuriousRetransmissions());
+        this.refusals.add(result.refusals());
+        this.silentCorruptions.add(result.silentCorruptions());
+    }
+
+    /**
+     * The sink of the receiver: checks each delivered message against the message that was sent.
+     * The messages spilled to disk are read back from their files.
+     *
+     * @param transfer - the delivered message.
+     * @throws IOException - if a spilled message could not be read.
+     */
+    private void verify(CompletedTransfer transfer) throws IOException {
+        final Long expected = this.expectedChecksums.get(transfer.key().initialSequenceNumber());
+        boolean matches = false;
+        if (expected != null && transfer.target() instanceof HeapReassemblyTarget heapTarget) {
+            final CRC32 crc32 = new CRC32();
+            crc32.update(heapTarget.getData());
+            matches = crc32.getValue() == expected;
+        } else if (expected != null && transfer.target() instanceof FileReassemblyTarget fileTarget) {
+            final CRC32 crc32 = new CRC32();
+            crc32.update(Files.readAllBytes(fileTarget.getPath()));
+            matches = crc32.getValue() == expected;
+            Files.delete(fileTarget.getPath());
+        }
+        if (matches) {
+            this.delivered.increment();
+        } else {
+            this.mismatched.increment();
+        }
+    }
+
+    private void sampleHeap() {
+        while (!Thread.currentThread().isInterrupted()) {
+            this.peakHeapBytes.accumulate(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            try {
+                Thread.sleep(HEAP_SAMPLE_INTERVAL_MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void report(long elapsedNanos, long cpuNanos, long gcCount, int messageLength, String receiverCounters,
+                        LossyProxy proxy) {
+        final double seconds = elapsedNanos / 1e9;
+        final long completed = this.completedTransfers.sum();
+        final double goodputMegabytes = (double) completed * messageLength / seconds / (1024 * 1024);
+        final int processors = Runtime.getRuntime().availableProcessors();
+
+        final List<String> lines = new ArrayList<>();
+        lines.add(String.format("Transfers: %d completed, %d failed in %.2f s", completed, this.failedTransfers.sum(), seconds));
+        lines.add(String.format("Goodput: %.1f MB/s", goodputMegabytes));
+        lines.add("Completion latency (us): " + this.latencyMicros.snapshot());
+        lines.add("Delivered: " + this.delivered.sum() + " verified, " + this.mismatched.sum() + " mismatched");
+        lines.add("Senders: packetsSent=" + this.packetsSent.sum() + " retransmissions=" + this.retransmissions.sum()
+                + " spuriousRetransmissions=" + this.spuriousRetransmissions.sum() + " parityPackets=" + this.parityPackets.sum()
+                + " refusals=" + this.refusals.sum() + " silentCorruptions=" + this.silentCorruptions.sum());
+        lines.add("Receiver: " + receiverCounters);
+        if (proxy != null) {
+            lines.add("Proxy: " + proxy.getStatistics());
+        }
+        lines.add(String.format("CPU: %.1f%% of %d processors, heap: %d MB peak, %d collections",
+                100.0 * cpuNanos / elapsedNanos / processors, processors, this.peakHeapBytes.get() / (1024 * 1024), gcCount));
+        for (String line : lines) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Reads the counters of all the sessions the receiver exposes over JMX.
+     *
+     * @return the counters.
+     */
+    private static String getReceiverCounters() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final StringBuilder counters = new StringBuilder();
+        try {
+            final ObjectName name = new ObjectName(RECEIVER_METRICS);
+            for (String attribute : new String[]{"PacketsReceived", "AcksSent", "DuplicatePackets", "ChecksumFailures",
+                    "DroppedPackets", "KernelDrops", "SinkStalls", "RecoveredPackets", "StreamMessages", "SessionsExpired", "SessionsRefused", "SpilledTransfers",
+                    "ChunksVerified", "ChunkFailures"}) {
+                counters.append(Character.toLowerCase(attribute.charAt(0))).append(attribute.substring(1))
+                        .append('=').append(server.getAttribute(name, attribute)).append(' ');
+            }
+        } catch (Exception e) {
+            return "unavailable (" + e.getMessage() + ")";
+        }
+        return counters.toString().trim();
+    }
+
+    private static long getProcessCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
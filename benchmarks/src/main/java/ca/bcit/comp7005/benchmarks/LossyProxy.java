@@ -0,0 +1,265 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.HashedWheelTimer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A UDP proxy between the senders and the receiver that drops, reorders, duplicates, delays and corrupts
+ * the datagrams in both directions, like the network the transfers run over.
+ * Each sender gets its own channel to the receiver, so the receiver sees the senders as different endpoints
+ * and the ACK packets find their way back to the right sender.
+ * The delayed datagrams are sent by the thread of a hashed timing wheel with a tick of one millisecond.
+ */
+public class LossyProxy implements AutoCloseable {
+
+    // Large enough for the largest UDP datagram
+    private static final int MAXIMUM_DATAGRAM_SIZE = 65535;
+
+    // The socket receive buffer of the channel of the senders, so the proxy doesn't drop datagrams itself
+    private static final int RECEIVE_BUFFER_SIZE = 8 * 1024 * 1024;
+
+    private final DatagramChannel sendersChannel;
+    private final InetSocketAddress receiver;
+    private final NetworkConditions conditions;
+
+    // The channel to the receiver of each sender; created by the thread that receives from the senders
+    private final Map<InetSocketAddress, DatagramChannel> receiverChannels = new ConcurrentHashMap<>();
+    private final ExecutorService receiverListeners = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final HashedWheelTimer timer = HashedWheelTimer.start("proxy-delays", 1, 1024);
+    private final Thread sendersListener;
+    private volatile boolean closed;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder reordered = new LongAdder();
+    private final LongAdder duplicated = new LongAdder();
+    private final LongAdder corrupted = new LongAdder();
+
+    /**
+     * Binds the proxy to the port and starts forwarding.
+     *
+     * @param port       - the port the senders send to; 0 for any free port.
+     * @param receiver   - the address of the receiver.
+     * @param conditions - the impairments applied to the datagrams.
+     * @throws IOException - if the port could not be bound.
+     */
+    public LossyProxy(int port, InetSocketAddress receiver, NetworkConditions conditions) throws IOException {
+        this.receiver = receiver;
+        this.conditions = conditions;
+        this.sendersChannel = DatagramChannel.open();
+        this.sendersChannel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        this.sendersChannel.bind(new InetSocketAddress(port));
+        this.sendersListener = Thread.ofPlatform().name("proxy").start(this::receiveFromSenders);
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) this.sendersChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Receives the datagrams of the senders and forwards them to the receiver over the channel of each sender.
+     */
+    private void receiveFromSenders() {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAXIMUM_DATAGRAM_SIZE);
+        while (!this.closed) {
+            buffer.clear();
+            final InetSocketAddress sender;
+            final DatagramChannel receiverChannel;
+            try {
+                sender = (InetSocketAddress) this.sendersChannel.receive(buffer);
+                receiverChannel = this.getReceiverChannel(sender);
+            } catch (IOException e) {
+                if (!this.closed) {
+                    System.err.println("Proxy error: " + e.getMessage());
+                }
+                continue;
+            }
+            buffer.flip();
+            this.forward(toArray(buffer), receiverChannel, this.receiver);
+        }
+    }
+
+    /**
+     * Gets the channel to the receiver of a sender, and opens it on the first datagram of the sender.
+     *
+     * @param sender - the sender.
+     * @return the channel to the receiver.
+     * @throws IOException - if the channel could not be opened.
+     */
+    private DatagramChannel getReceiverChannel(InetSocketAddress sender) throws IOException {
+        DatagramChannel channel = this.receiverChannels.get(sender);
+        if (channel == null) {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+            channel.connect(this.receiver);
+            this.receiverChannels.put(sender, channel);
+            final DatagramChannel receiverChannel = channel;
+            this.receiverListeners.execute(() -> this.receiveFromReceiver(receiverChannel, sender));
+        }
+        return channel;
+    }
+
+    /**
+     * Receives the datagrams the receiver sends to a sender and forwards them to the sender.
+     *
+     * @param receiverChannel - the channel of the sender to the receiver.
+     * @param sender          - the sender.
+     */
+    private void receiveFromReceiver(DatagramChannel receiverChannel, InetSocketAddress sender) {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAXIMUM_DATAGRAM_SIZE);
+        while (!this.closed) {
+            buffer.clear();
+            try {
+                receiverChannel.receive(buffer);
+            } catch (PortUnreachableException e) {
+                // The receiver is not listening yet; the sender retransmits its SYN packet
+                continue;
+            } catch (IOException e) {
+                break; // The proxy is closed
+            }
+            buffer.flip();
+            this.forward(toArray(buffer), this.sendersChannel, sender);
+        }
+    }
+
+    /**
+     * Applies the impairments to a datagram and sends it, or its copies, now or after their delays.
+     *
+     * @param datagram    - the datagram; its bits may be flipped.
+     * @param channel     - the channel the datagram is sent from.
+     * @param destination - the destination of the datagram.
+     */
+    private void forward(byte[] datagram, DatagramChannel channel, InetSocketAddress destination) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < this.conditions.getLoss()) {
+            this.dropped.increment();
+            return;
+        }
+        if (datagram.length > 0 && random.nextDouble() < this.conditions.getCorrupt()) {
+            final int bit = random.nextInt(datagram.length * Byte.SIZE);
+            datagram[bit / Byte.SIZE] ^= (byte) (1 << (bit % Byte.SIZE));
+            this.corrupted.increment();
+        }
+
+        int copies = 1;
+        if (random.nextDouble() < this.conditions.getDuplicate()) {
+            copies = 2;
+            this.duplicated.increment();
+        }
+        for (int i = 0; i < copies; i++) {
+            long delayMillis = this.conditions.getDelayMillis();
+            if (this.conditions.getJitterMillis() > 0) {
+                delayMillis += random.nextInt(this.conditions.getJitterMillis() + 1);
+            }
+            if (random.nextDouble() < this.conditions.getReorder()) {
+                // The datagrams sent after this one overtake it
+                delayMillis += this.conditions.getReorderDelayMillis();
+                this.reordered.increment();
+            }
+
+            if (delayMillis == 0) {
+                this.send(datagram, channel, destination);
+            } else {
+                this.timer.newTimeout(() -> this.send(datagram, channel, destination), delayMillis);
+            }
+        }
+    }
+
+    private void send(byte[] datagram, DatagramChannel channel, InetSocketAddress destination) {
+        try {
+            channel.send(ByteBuffer.wrap(datagram), destination);
+            this.forwarded.increment();
+        } catch (IOException e) {
+            if (!this.closed) {
+                this.dropped.increment();
+            }
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit());
+    }
+
+    /**
+     * Gets the counters of the datagrams the proxy forwarded and impaired.
+     *
+     * @return the counters.
+     */
+    public String getStatistics() {
+        return "forwarded=" + this.forwarded.sum() + " dropped=" + this.dropped.sum() + " reordered=" + this.reordered.sum()
+                + " duplicated=" + this.duplicated.sum() + " corrupted=" + this.corrupted.sum();
+    }
+
+    /**
+     * Stops forwarding. The delayed datagrams are not sent.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.timer.stop();
+        try {
+            this.sendersChannel.close();
+            for (DatagramChannel channel : this.receiverChannels.values()) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing the proxy: " + e.getMessage());
+        }
+        this.receiverListeners.close();
+        try {
+            this.sendersListener.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the proxy on its own, e.g. between the AZRP sender and receiver applications, until it's killed.
+     *
+     * @param args - the port, the address of the receiver as host:port, and the impairments.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final Options options = new Options();
+        NetworkConditions.addOptions(options);
+        final LossyProxy proxy;
+        try {
+            final CommandLine commandLine = new DefaultParser().parse(options, args);
+            final String[] arguments = commandLine.getArgs();
+            final int port = Integer.parseInt(arguments[0]);
+            final int separator = arguments[1].lastIndexOf(':');
+            final InetSocketAddress receiver = new InetSocketAddress(arguments[1].substring(0, separator),
+                    Integer.parseInt(arguments[1].substring(separator + 1)));
+            final NetworkConditions conditions = NetworkConditions.fromCommandLine(commandLine);
+            proxy = new LossyProxy(port, receiver, conditions);
+            System.out.println("Proxy on port " + proxy.getLocalPort() + " to " + receiver + ": " + conditions);
+        } catch (ParseException | RuntimeException e) {
+            System.err.println("Usage: <port> <receiver host:port> [options]: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println(proxy.getStatistics());
+            proxy.close();
+        }));
+        Thread.currentThread().join();
+    }
+}
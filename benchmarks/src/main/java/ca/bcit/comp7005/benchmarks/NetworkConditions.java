@@ -0,0 +1,134 @@
+package ca.bcit.comp7005.benchmarks;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Options;
+
+/**
+ * The impairments the lossy proxy applies to every datagram, in both directions.
+ * The probabilities are from 0 (never) to 1 (always).
+ */
+public class NetworkConditions {
+
+    // The probability that a datagram is dropped
+    private double loss;
+
+    // The probability that a datagram is held back by the reorder delay, so the datagrams after it overtake it
+    private double reorder;
+    private int reorderDelayMillis = 10;
+
+    // The probability that a datagram is delivered twice
+    private double duplicate;
+
+    // The probability that one bit of a datagram is flipped
+    private double corrupt;
+
+    // The one-way delay of every datagram and the maximum random delay added to it
+    private int delayMillis;
+    private int jitterMillis;
+
+    /**
+     * Adds the command-line options of the impairments.
+     *
+     * @param options - the options of the tool.
+     */
+    public static void addOptions(Options options) {
+        options.addOption(null, "loss", true, "probability that a datagram is dropped");
+        options.addOption(null, "reorder", true, "probability that a datagram is overtaken by the next ones");
+        options.addOption(null, "reorder-delay", true, "delay of a reordered datagram in milliseconds");
+        options.addOption(null, "duplicate", true, "probability that a datagram is delivered twice");
+        options.addOption(null, "corrupt", true, "probability that a bit of a datagram is flipped");
+        options.addOption(null, "delay", true, "one-way delay in milliseconds");
+        options.addOption(null, "jitter", true, "maximum random delay added to the one-way delay in milliseconds");
+    }
+
+    /**
+     * Reads the impairments from the command line.
+     *
+     * @param commandLine - the parsed command line.
+     * @return the impairments; none if no option is given.
+     * @throws NumberFormatException - if a value is not a number.
+     */
+    public static NetworkConditions fromCommandLine(CommandLine commandLine) {
+        final NetworkConditions conditions = new NetworkConditions();
+        conditions.setLoss(Double.parseDouble(commandLine.getOptionValue("loss", "0")));
+        conditions.setReorder(Double.parseDouble(commandLine.getOptionValue("reorder", "0")));
+        conditions.setReorderDelayMillis(Integer.parseInt(commandLine.getOptionValue("reorder-delay", "10")));
+        conditions.setDuplicate(Double.parseDouble(commandLine.getOptionValue("duplicate", "0")));
+        conditions.setCorrupt(Double.parseDouble(commandLine.getOptionValue("corrupt", "0")));
+        conditions.setDelayMillis(Integer.parseInt(commandLine.getOptionValue("delay", "0")));
+        conditions.setJitterMillis(Integer.parseInt(commandLine.getOptionValue("jitter", "0")));
+        return conditions;
+    }
+
+    /**
+     * Checks whether any impairment is applied, so the datagrams can't be forwarded as they are.
+     *
+     * @return true if the network is impaired.
+     */
+    public boolean isImpaired() {
+        return this.loss > 0 || this.reorder > 0 || this.duplicate > 0 || this.corrupt > 0
+                || this.delayMillis > 0 || this.jitterMillis > 0;
+    }
+
+    public double getLoss() {
+        return loss;
+    }
+
+    public void setLoss(double loss) {
+        this.loss = loss;
+    }
+
+    public double getReorder() {
+        return reorder;
+    }
+
+    public void setReorder(double reorder) {
+        this.reorder = reorder;
+    }
+
+    public int getReorderDelayMillis() {
+        return reorderDelayMillis;
+    }
+
+    public void setReorderDelayMillis(int reorderDelayMillis) {
+        this.reorderDelayMillis = reorderDelayMillis;
+    }
+
+    public double getDuplicate() {
+        return duplicate;
+    }
+
+    public void setDuplicate(double duplicate) {
+        this.duplicate = duplicate;
+    }
+
+    public double getCorrupt() {
+        return corrupt;
+    }
+
+    public void setCorrupt(double corrupt) {
+        this.corrupt = corrupt;
+    }
+
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    public void setDelayMillis(int delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public int getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public void setJitterMillis(int jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "loss=" + loss + " reorder=" + reorder + " duplicate=" + duplicate + " corrupt=" + corrupt
+                + " delay=" + delayMillis + "ms jitter=" + jitterMillis + "ms";
+    }
+}
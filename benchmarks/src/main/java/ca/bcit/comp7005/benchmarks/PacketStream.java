@@ -0,0 +1,168 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.AZRP;
+import ca.bcit.comp7005.AZRPCodec;
+import ca.bcit.comp7005.Datagram;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A synthetic transfer from one sender: a SYN packet followed by the data packets of a message in a given order.
+ * The packets are serialized once into direct buffers, like the buffers of the NIO transport,
+ * and reused by every run of the transfer with a new initial sequence number.
+ */
+public class PacketStream {
+
+    /**
+     * The order the data packets are delivered in.
+     */
+    public enum Order {
+        // Every packet once, in order
+        IN_ORDER,
+        // Every packet once, shuffled within windows of packets, as if they took different paths
+        REORDERED,
+        // Every packet is followed by a retransmission of the previous one, so half of the packets are duplicates
+        DUPLICATES
+    }
+
+    // The size of the windows the reordered packets are shuffled in
+    private static final int REORDER_WINDOW = 16;
+
+    private final InetSocketAddress sender;
+    private final int messageLength;
+
+    // The SYN packet and then the data packets in the order they're delivered
+    private final Datagram[] datagrams;
+    // The size of each packet and the offset of its data in the message
+    private final int[] sizes;
+    private final long[] offsets;
+
+    /**
+     * @param sender        - the address of the sender.
+     * @param messageLength - the length of the whole message.
+     * @param segmentSize   - the length of the data in each data packet.
+     * @param order         - the order of the data packets.
+     * @param seed          - the seed of the data and of the reordering.
+     */
+    public PacketStream(InetSocketAddress sender, int messageLength, int segmentSize, Order order, long seed) {
+        this.sender = sender;
+        this.messageLength = messageLength;
+
+        final Random random = new Random(seed);
+        final byte[] message = new byte[messageLength];
+        random.nextBytes(message);
+
+        // The data packets in order
+        final List<Integer> offsetsInOrder = new ArrayList<>();
+        for (int offset = 0; offset < messageLength; offset += segmentSize) {
+            offsetsInOrder.add(offset);
+        }
+        final List<Integer> deliveryOrder = order(offsetsInOrder, order, random);
+
+        this.datagrams = new Datagram[deliveryOrder.size() + 1];
+        this.sizes = new int[this.datagrams.length];
+        this.offsets = new long[this.datagrams.length];
+
+        final byte[] fileType = new byte[AZRP.FILE_EXTENSION_LENGTH];
+        final byte[] mimeType = "application/octet-stream".getBytes();
+        System.arraycopy(mimeType, 0, fileType, 0, Math.min(mimeType.length, fileType.length));
+        this.add(0, new AZRP(fileType, 0, messageLength, new boolean[]{true, false}).toBytes(), -1);
+
+        for (int i = 0; i < deliveryOrder.size(); i++) {
+            final int offset = deliveryOrder.get(i);
+            final byte[] data = new byte[Math.min(segmentSize, messageLength - offset)];
+            System.arraycopy(message, offset, data, 0, data.length);
+            this.add(i + 1, AZRP.data(data, offset, data.length).toBytes(), offset);
+        }
+    }
+
+    private static List<Integer> order(List<Integer> offsetsInOrder, Order order, Random random) {
+        final List<Integer> deliveryOrder = new ArrayList<>();
+        switch (order) {
+            case IN_ORDER -> deliveryOrder.addAll(offsetsInOrder);
+            case REORDERED -> {
+                for (int start = 0; start < offsetsInOrder.size(); start += REORDER_WINDOW) {
+                    final List<Integer> window = new ArrayList<>(
+                            offsetsInOrder.subList(start, Math.min(start + REORDER_WINDOW, offsetsInOrder.size()))
+                    );
+                    Collections.shuffle(window, random);
+                    deliveryOrder.addAll(window);
+                }
+            }
+            case DUPLICATES -> {
+                // The last packet completes the message, so no duplicate is delivered after it
+                for (int i = 0; i < offsetsInOrder.size(); i++) {
+                    if (i > 0) {
+                        deliveryOrder.add(offsetsInOrder.get(i - 1));
+                    }
+                    deliveryOrder.add(offsetsInOrder.get(i));
+                }
+            }
+        }
+        return deliveryOrder;
+    }
+
+    private void add(int index, byte[] packet, long offset) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES);
+        buffer.put(packet).flip();
+        this.datagrams[index] = new Datagram(buffer, this.sender, null);
+        this.sizes[index] = packet.length;
+        this.offsets[index] = offset;
+    }
+
+    /**
+     * Prepares the packets for the next run of the transfer: the sequence numbers start from the new initial
+     * sequence number and the buffers are positioned at the start of the packets again.
+     * The checksums cover only the payloads, so they stay valid.
+     *
+     * @param initialSequenceNumber - the initial sequence number of the run.
+     */
+    public void reset(int initialSequenceNumber) {
+        for (int i = 0; i < this.datagrams.length; i++) {
+            final ByteBuffer buffer = this.datagrams[i].getBuffer();
+            buffer.clear().limit(this.sizes[i]);
+            final int sequenceNumber = initialSequenceNumber + (int) Math.max(0, this.offsets[i]);
+            buffer.putInt(AZRP.SEQUENCE_NUMBER_OFFSET, sequenceNumber);
+        }
+    }
+
+    public Datagram[] getDatagrams() {
+        return datagrams;
+    }
+
+    public int getMessageLength() {
+        return messageLength;
+    }
+
+    /**
+     * Gets the number of data packets that are delivered.
+     *
+     * @return the number of data packets.
+     */
+    public int getDataPackets() {
+        return this.datagrams.length - 1;
+    }
+
+    /**
+     * Checks that the packets decode as valid AZRP packets.
+     *
+     * @return true if all the packets are valid.
+     */
+    public boolean isValid() {
+        final AZRPCodec codec = new AZRPCodec();
+        if (!codec.wrap(this.datagrams[0].getBuffer()).isValidSyn()) {
+            return false;
+        }
+        for (int i = 1; i < this.datagrams.length; i++) {
+            if (!codec.wrap(this.datagrams[i].getBuffer()).isValidData()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.DataTransfer;
+import ca.bcit.comp7005.Datagram;
+import ca.bcit.comp7005.ReassemblyTarget;
+import ca.bcit.comp7005.ReceiverConfig;
+import ca.bcit.comp7005.Session;
+import ca.bcit.comp7005.SessionKey;
+import ca.bcit.comp7005.TransferHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a whole transfer through the receiver: the listener, the session table, the session's validation,
+ * duplicate detection and reassembly, and the ACK packets, with the packets delivered by an in-memory transport.
+ * One operation is one transfer of the message, from the SYN packet to the completion of the session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReassemblyBenchmark {
+
+    // The length of the data in a data packet
+    private static final int SEGMENT_SIZE = 1400;
+
+    // The time a session waits for the next packet; longer than any run, so sessions don't expire while measuring
+    private static final int READ_DATA_TIMEOUT_MILLISECONDS = 60_000;
+
+    @Param({"IN_ORDER", "REORDERED", "DUPLICATES"})
+    public PacketStream.Order order;
+
+    @Param({"1048576"})
+    public int messageLength;
+
+    // 1 acknowledges each packet, more sends cumulative ACK packets
+    @Param({"1", "8"})
+    public int ackEvery;
+
+    private PacketStream stream;
+    private InMemoryTransport transport;
+    private DataTransfer dataTransfer;
+    private Thread listener;
+
+    // Released by the session when the whole message has been received
+    private final Semaphore completions = new Semaphore(0);
+
+    // The message is reassembled into the same array by every run
+    private ReusableTarget target;
+
+    private int initialSequenceNumber;
+
+    @Setup(Level.Trial)
+    public void startReceiver() {
+        this.stream = new PacketStream(new InetSocketAddress("127.0.0.1", 7005), this.messageLength, SEGMENT_SIZE, this.order, 7005);
+        if (!this.stream.isValid()) {
+            throw new IllegalStateException("The synthetic packets are invalid");
+        }
+        this.target = new ReusableTarget(this.messageLength);
+
+        final ReceiverConfig config = new ReceiverConfig();
+        config.setAckEvery(this.ackEvery);
+
+        this.transport = new InMemoryTransport(this.stream.getDatagrams().length);
+        this.dataTransfer = new DataTransfer(READ_DATA_TIMEOUT_MILLISECONDS, this.transport, new TransferHandler() {
+            @Override
+            public ReassemblyTarget openTarget(Session session) {
+                return target;
+            }
+
+            @Override
+            public void onTransferComplete(Session session, ReassemblyTarget target) {
+                completions.release();
+            }
+
+            @Override
+            public void onMessage(Session session, SessionKey key, String fileType, ReassemblyTarget target) {
+                // The benchmark doesn't open streams
+            }
+        }, config);
+
+        this.listener = Thread.ofPlatform().name("listener").start(() -> {
+            try {
+                this.dataTransfer.listen();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTransfer() {
+        // Each run is a new session of the same sender
+        this.initialSequenceNumber += this.messageLength + 1;
+        this.stream.reset(this.initialSequenceNumber);
+    }
+
+    @Benchmark
+    public void transfer() throws InterruptedException {
+        for (Datagram datagram : this.stream.getDatagrams()) {
+            this.transport.deliver(datagram);
+        }
+        this.completions.acquire();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopReceiver() throws InterruptedException {
+        this.dataTransfer.close();
+        this.listener.join();
+    }
+
+    /**
+     * Reassembles the message into an array that is reused by every run,
+     * so the measurements include the copy of the data but not the allocation of the array.
+     */
+    private static class ReusableTarget implements ReassemblyTarget {
+
+        private final byte[] wholeData;
+
+        ReusableTarget(int dataLength) {
+            this.wholeData = new byte[dataLength];
+        }
+
+        @Override
+        public void write(long offset, ByteBuffer data) {
+            data.get(this.wholeData, (int) offset, data.remaining());
+        }
+
+        @Override
+        public void read(long offset, ByteBuffer destination) {
+            destination.put(this.wholeData, (int) offset, destination.remaining());
+        }
+
+        @Override
+        public void complete() {
+            // Nothing to do: the array is reused
+        }
+
+        @Override
+        public void abort() {
+            // Nothing to do: the array is reused
+        }
+    }
+}
@@ -0,0 +1,729 @@
+package ca.bcit.comp7005.benchmarks;
+
+import ca.bcit.comp7005.AZRP;
+import ca.bcit.comp7005.AZRPCodec;
+import ca.bcit.comp7005.DigestAlgorithm;
+import ca.bcit.comp7005.ManifestReassemblyTarget;
+import ca.bcit.comp7005.StreamReassemblyTarget;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Sends messages to the receiver like the AZRP sender: a SYN packet that asks for flow control, then the data
+ * packets within the window advertised by the receiver, retransmitting the packets that are not acknowledged
+ * within the retransmission timeout. The ACK packets are understood with or without cumulative and selective ACKs.
+ * With timestamps, the round-trip time is measured from the timestamps echoed by the receiver, so the retransmitted
+ * packets are measured too, and a retransmission whose original packet was acknowledged is counted as spurious.
+ * A SYN-ACK packet with the BACKOFF option refuses the transfer for the time being: the sender waits for the hinted
+ * time, with some jitter so the refused senders don't come back together, and sends the SYN packet again.
+ * A persistent stream carries many framed messages over one handshake and ends with an empty frame.
+ * With a chunk size, a message is preceded by its manifest, the SHA-256 hash of each chunk, and the data the receiver
+ * discards because it doesn't match its hash is sent again. To exercise that, the first transmission of a data
+ * packet can be corrupted before its checksum is calculated, which the checksum can't detect.
+ * An instance sends one message or stream at a time from its own socket.
+ */
+public class SimulatedSender implements AutoCloseable {
+
+    // The SYN packet is retransmitted with an exponential backoff until the SYN-ACK packet arrives
+    private static final int INITIAL_SYN_TIMEOUT_MILLISECONDS = 200;
+    private static final int MAXIMUM_SYN_ATTEMPTS = 8;
+
+    // The bounds of the retransmission timeout of the data packets, which follows the smoothed round-trip time
+    private static final long MINIMUM_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long MAXIMUM_RTO_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // How long the sender waits for an ACK packet before it checks the retransmission timeouts again
+    private static final int ACK_WAIT_MILLISECONDS = 5;
+
+    private final DatagramSocket socket;
+    private final InetSocketAddress receiver;
+    private final String mimeType;
+    private final int payloadSize;
+    private final int maximumInFlight;
+    private final long transferTimeoutNanos;
+    // The number of data packets protected by a parity packet, or 0 for no parity packets
+    private final int fecGroupSize;
+    // Whether the sender asks for timestamps
+    private final boolean timestamps;
+    // The size of the chunks of the manifest, or 0 for no manifest
+    private final int chunkSize;
+    // The probability that the first transmission of a data packet is corrupted before its checksum is calculated
+    private final double silentCorruption;
+
+    private final AZRPCodec codec = new AZRPCodec();
+    private final ByteBuffer controlBuffer = AZRPCodec.allocateControlBuffer();
+    private final byte[] receiveBuffer = new byte[AZRP.MAXIMUM_SEGMENT_SIZE_IN_BYTES];
+    private final CRC32 crc32 = new CRC32();
+
+    /**
+     * Opens the socket of the sender.
+     *
+     * @param receiver             - the address the packets are sent to: the receiver or the proxy.
+     * @param mimeType             - the MIME type sent in the SYN packet.
+     * @param payloadSize          - the length of the data in a data packet.
+     * @param maximumInFlight      - the maximum number of data packets sent and not acknowledged yet.
+     * @param transferTimeoutMillis - the time after which a transfer is abandoned.
+     * @param fecGroupSize         - the number of data packets protected by a parity packet; 0 for no parity packets.
+     * @param timestamps           - whether the data packets carry timestamps echoed by the receiver.
+     * @param chunkSize            - the size of the chunks of the manifest sent before each message; 0 for no manifest.
+     * @param silentCorruption     - the probability that the first transmission of a data packet is corrupted
+     *                               before its checksum is calculated, and that a corrupted copy of an acknowledged
+     *                               data packet follows a new one.
+     * @throws IOException - if the socket could not be opened.
+     */
+    public SimulatedSender(InetSocketAddress receiver, String mimeType, int payloadSize, int maximumInFlight,
+                           long transferTimeoutMillis, int fecGroupSize, boolean timestamps, int chunkSize,
+                           double silentCorruption) throws IOException {
+        this.receiver = receiver;
+        this.mimeType = mimeType;
+        this.payloadSize = payloadSize;
+        this.maximumInFlight = maximumInFlight;
+        this.transferTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(transferTimeoutMillis);
+        this.fecGroupSize = fecGroupSize;
+        this.timestamps = timestamps;
+        this.chunkSize = chunkSize;
+        this.silentCorruption = silentCorruption;
+        this.socket = new DatagramSocket();
+        this.socket.connect(receiver);
+    }
+
+    /**
+     * Sends a message and waits until all of it has been acknowledged.
+     *
+     * @param message               - the message.
+     * @param initialSequenceNumber - the initial sequence number of the transfer.
+     * @return the outcome of the transfer.
+     * @throws IOException - if the socket fails.
+     */
+    public Result send(byte[] message, int initialSequenceNumber) throws IOException {
+        if (this.chunkSize > 0) {
+            return this.send(this.withManifest(message, initialSequenceNumber));
+        }
+        return this.send(new Transfer(message, initialSequenceNumber, false, 0, null));
+    }
+
+    /**
+     * Prepares a message preceded by its manifest: the hash of each chunk of the message.
+     *
+     * @param message               - the message.
+     * @param initialSequenceNumber - the initial sequence number of the transfer.
+     * @return the transfer of the manifest and the message, with the Merkle root of the manifest.
+     */
+    private Transfer withManifest(byte[] message, int initialSequenceNumber) {
+        final DigestAlgorithm algorithm = DigestAlgorithm.SHA_256;
+        final int manifestLength = (int) ManifestReassemblyTarget.getManifestLength(algorithm, this.chunkSize, message.length);
+        final byte[][] leaves = new byte[manifestLength / algorithm.getLength()][];
+        final byte[] data = new byte[manifestLength + message.length];
+        for (int i = 0; i < leaves.length; i++) {
+            final int offset = i * this.chunkSize;
+            leaves[i] = ManifestReassemblyTarget.hashChunk(algorithm, message, offset, Math.min(this.chunkSize, message.length - offset));
+            System.arraycopy(leaves[i], 0, data, i * algorithm.getLength(), algorithm.getLength());
+        }
+        System.arraycopy(message, 0, data, manifestLength, message.length);
+        return new Transfer(data, initialSequenceNumber, false, manifestLength, ManifestReassemblyTarget.computeRoot(algorithm, leaves));
+    }
+
+    /**
+     * Sends messages over a persistent stream and waits until all of them and the end of the stream have been
+     * acknowledged.
+     *
+     * @param messages              - the messages, each of the MIME type of the sender.
+     * @param initialSequenceNumber - the initial sequence number of the stream.
+     * @return the outcome of the stream.
+     * @throws IOException - if the socket fails.
+     */
+    public Result sendStream(List<byte[]> messages, int initialSequenceNumber) throws IOException {
+        return this.send(new Transfer(this.frame(messages), initialSequenceNumber, true, 0, null));
+    }
+
+    /**
+     * Frames the messages of a stream: the length of each message, the length of its MIME type, the MIME type and
+     * the message, followed by the empty frame that ends the stream.
+     *
+     * @param messages - the messages.
+     * @return the bytes of the stream.
+     */
+    private byte[] frame(List<byte[]> messages) {
+        final byte[] type = this.mimeType.getBytes(StandardCharsets.US_ASCII);
+        int length = StreamReassemblyTarget.FRAME_HEADER_LENGTH;
+        for (byte[] message : messages) {
+            length += getFrameLength(type.length, message.length);
+        }
+        final ByteBuffer stream = ByteBuffer.allocate(length);
+        for (byte[] message : messages) {
+            stream.putInt(message.length).put((byte) type.length).put(type).put(message);
+        }
+        stream.putInt(0).put((byte) 0);
+        return stream.array();
+    }
+
+    /**
+     * Gets the length of the frame of a message in a stream.
+     *
+     * @param mimeTypeLength - the length of the MIME type of the message.
+     * @param messageLength  - the length of the message.
+     * @return the length of the frame.
+     */
+    public static int getFrameLength(int mimeTypeLength, int messageLength) {
+        return StreamReassemblyTarget.FRAME_HEADER_LENGTH + mimeTypeLength + messageLength;
+    }
+
+    private Result send(Transfer transfer) throws IOException {
+        final long startNanos = System.nanoTime();
+        final long deadline = startNanos + this.transferTimeoutNanos;
+        // The data starts with the manifest, so it can't be sent to a receiver that doesn't expect one
+        if (!this.handshake(transfer, deadline) || (transfer.manifestLength > 0 && !transfer.manifestAccepted)) {
+            return new Result(false, System.nanoTime() - startNanos, transfer.packetsSent, transfer.retransmissions, 0, 0,
+                    transfer.refusals, 0);
+        }
+
+        this.socket.setSoTimeout(ACK_WAIT_MILLISECONDS);
+        while (transfer.ackedCount < transfer.segments && !transfer.reset && System.nanoTime() < deadline) {
+            this.retransmitExpired(transfer);
+            this.sendNewData(transfer);
+            this.receiveAck(transfer);
+        }
+        final boolean completed = transfer.ackedCount == transfer.segments && !transfer.reset;
+        return new Result(completed, System.nanoTime() - startNanos, transfer.packetsSent, transfer.retransmissions,
+                transfer.parityPackets, transfer.spuriousRetransmissions, transfer.refusals, transfer.silentCorruptions);
+    }
+
+    /**
+     * Sends the SYN packet until the SYN-ACK packet arrives, and reads the initial window from it.
+     * A refused SYN packet is sent again after the hinted time until the deadline of the transfer.
+     *
+     * @param transfer - the transfer.
+     * @param deadline - the time after which the transfer is abandoned.
+     * @return true if the receiver accepted the transfer.
+     * @throws IOException - if the socket fails.
+     */
+    private boolean handshake(Transfer transfer, long deadline) throws IOException {
+        int backoffMillis;
+        while ((backoffMillis = this.tryHandshake(transfer)) > 0) {
+            transfer.refusals++;
+            final long jitterMillis = ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+            final long retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis + jitterMillis);
+            if (retryNanos >= deadline) {
+                return false;
+            }
+            sleepUntil(retryNanos);
+        }
+        return backoffMillis == 0;
+    }
+
+    /**
+     * Sends the SYN packet until the SYN-ACK packet arrives.
+     *
+     * @param transfer - the transfer.
+     * @return 0 if the receiver accepted the transfer, the time to wait if it refused it, or -1 if it didn't answer.
+     * @throws IOException - if the socket fails.
+     */
+    private int tryHandshake(Transfer transfer) throws IOException {
+        for (int attempt = 0; attempt < MAXIMUM_SYN_ATTEMPTS; attempt++) {
+            this.socket.send(this.encodeSyn(transfer));
+            transfer.packetsSent++;
+            final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos((long) INITIAL_SYN_TIMEOUT_MILLISECONDS << attempt);
+            final long deadline = System.nanoTime() + timeoutNanos;
+            while (System.nanoTime() < deadline) {
+                this.socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (!this.receive()) {
+                    continue;
+                }
+                if (this.codec.isSYN() && this.codec.isACK() && this.codec.isChecksumValid()
+                        && this.codec.getSequenceNumber() == transfer.initialSequenceNumber) {
+                    final ByteBuffer backoff = this.codec.getOption(AZRP.OPTION_BACKOFF);
+                    if (backoff != null && backoff.remaining() == Integer.BYTES) {
+                        return Math.max(1, backoff.getInt(0));
+                    }
+                    this.readWindow(transfer);
+                    // The receiver may decline the parity packets and the timestamps
+                    transfer.fec = this.fecGroupSize > 0 && this.codec.getOption(AZRP.OPTION_FEC) != null;
+                    transfer.timestamps = this.timestamps && this.codec.getOption(AZRP.OPTION_TIMESTAMP) != null;
+                    transfer.manifestAccepted = this.codec.getOption(AZRP.OPTION_MANIFEST) != null;
+                    this.readTimestamp(transfer);
+                    return 0;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void sleepUntil(long nanos) throws IOException {
+        try {
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(nanos - System.nanoTime())));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while backing off", e);
+        }
+    }
+
+    /**
+     * Encodes the SYN packet, which asks for flow control and the optional features of the sender.
+     * A retransmitted SYN packet carries a new timestamp.
+     *
+     * @param transfer - the transfer.
+     * @return the SYN packet.
+     */
+    private DatagramPacket encodeSyn(Transfer transfer) {
+        // A stream has no length, and the length of a message doesn't include its manifest
+        AZRPCodec.beginControlPacket(this.controlBuffer, AZRP.SYN_FLAG, transfer.initialSequenceNumber,
+                transfer.stream ? 0 : transfer.message.length - transfer.manifestLength);
+        final byte[] fileType = this.mimeType.getBytes();
+        this.controlBuffer.put(AZRP.PAYLOAD_OFFSET, fileType, 0, Math.min(fileType.length, AZRP.FILE_EXTENSION_LENGTH));
+        int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_WINDOW);
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        if (transfer.stream) {
+            lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_STREAM);
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        if (this.fecGroupSize > 0) {
+            lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_FEC);
+            this.controlBuffer.put((byte) AZRP.FEC_XOR);
+            this.controlBuffer.put((byte) this.fecGroupSize);
+            this.controlBuffer.putInt(this.payloadSize);
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        if (this.timestamps) {
+            lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_TIMESTAMP);
+            this.controlBuffer.putInt(nowMicros());
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        if (transfer.manifestLength > 0) {
+            lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_MANIFEST);
+            this.controlBuffer.put((byte) DigestAlgorithm.SHA_256.getId());
+            this.controlBuffer.putInt(this.chunkSize);
+            this.controlBuffer.put(transfer.manifestRoot);
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        final ByteBuffer syn = this.codec.finishControlPacket(this.controlBuffer);
+        final byte[] synBytes = new byte[syn.remaining()];
+        syn.get(synBytes);
+        return new DatagramPacket(synBytes, synBytes.length);
+    }
+
+    /**
+     * Retransmits the data packets whose retransmission timeout has passed.
+     *
+     * @param transfer - the transfer.
+     * @throws IOException - if the socket fails.
+     */
+    private void retransmitExpired(Transfer transfer) throws IOException {
+        final long now = System.nanoTime();
+        final long rto = transfer.getRetransmissionTimeout();
+        for (int i = transfer.firstUnacked; i < transfer.nextToSend; i++) {
+            if (!transfer.acked[i] && now - transfer.sentNanos[i] >= rto) {
+                this.sendSegment(transfer, i);
+                transfer.retransmitted[i] = true;
+                transfer.retransmissions++;
+            }
+        }
+    }
+
+    /**
+     * Sends the data packets that have not been sent yet while they fit into the window.
+     *
+     * @param transfer - the transfer.
+     * @throws IOException - if the socket fails.
+     */
+    private void sendNewData(Transfer transfer) throws IOException {
+        while (transfer.nextToSend < transfer.segments
+                && transfer.nextToSend - transfer.firstUnacked < this.maximumInFlight
+                && transfer.getEnd(transfer.nextToSend) <= transfer.windowEnd) {
+            this.sendSegment(transfer, transfer.nextToSend);
+            transfer.nextToSend++;
+            if (transfer.firstUnacked > 0 && ThreadLocalRandom.current().nextDouble() < this.silentCorruption) {
+                // A late duplicate that took another path; the receiver must not let it change data it has verified
+                this.sendSegment(transfer, ThreadLocalRandom.current().nextInt(transfer.firstUnacked), true);
+            }
+            if (transfer.fec && (transfer.nextToSend % this.fecGroupSize == 0 || transfer.nextToSend == transfer.segments)) {
+                this.sendParity(transfer, (transfer.nextToSend - 1) / this.fecGroupSize);
+            }
+        }
+    }
+
+    /**
+     * Sends the parity packet of a group after its data packets have been sent for the first time:
+     * the XOR of their data, padded with zeros to the longest packet of the group.
+     *
+     * @param transfer - the transfer.
+     * @param group    - the index of the group.
+     * @throws IOException - if the socket fails.
+     */
+    private void sendParity(Transfer transfer, int group) throws IOException {
+        final int first = group * this.fecGroupSize;
+        final int last = Math.min(first + this.fecGroupSize, transfer.segments);
+        final int start = first * this.payloadSize;
+        final int length = Math.min(this.payloadSize, transfer.message.length - start);
+        final byte[] packet = new byte[AZRP.PAYLOAD_OFFSET + length + (transfer.timestamps ? AZRP.TIMESTAMP_LENGTH : 0)];
+        for (int i = first; i < last; i++) {
+            final int offset = i * this.payloadSize;
+            for (int j = 0; j < transfer.getEnd(i) - offset; j++) {
+                packet[AZRP.PAYLOAD_OFFSET + j] ^= transfer.message[offset + j];
+            }
+        }
+        int checksum;
+        if (transfer.timestamps) {
+            checksum = this.putTimestamp(packet, length, nowMicros());
+        } else {
+            this.crc32.reset();
+            this.crc32.update(packet, AZRP.PAYLOAD_OFFSET, length);
+            checksum = (int) this.crc32.getValue();
+        }
+        ByteBuffer.wrap(packet)
+                .putInt(AZRP.FLAGS_OFFSET, AZRP.PARITY_FLAG)
+                .putInt(AZRP.SEQUENCE_NUMBER_OFFSET, transfer.initialSequenceNumber + start)
+                .putInt(AZRP.LENGTH_OFFSET, length)
+                .putInt(AZRP.CHECKSUM_OFFSET, checksum);
+        this.socket.send(new DatagramPacket(packet, packet.length));
+        transfer.packetsSent++;
+        transfer.parityPackets++;
+    }
+
+    private void sendSegment(Transfer transfer, int index) throws IOException {
+        this.sendSegment(transfer, index, transfer.sentNanos[index] == 0 && !transfer.retransmitted[index]
+                && ThreadLocalRandom.current().nextDouble() < this.silentCorruption);
+    }
+
+    /**
+     * Sends a data packet.
+     *
+     * @param transfer - the transfer.
+     * @param index    - the index of the data packet.
+     * @param corrupt  - whether to flip a bit of the data before the checksum is calculated.
+     * @throws IOException - if the socket fails.
+     */
+    private void sendSegment(Transfer transfer, int index, boolean corrupt) throws IOException {
+        final int offset = index * this.payloadSize;
+        final int length = transfer.getEnd(index) - offset;
+        final byte[] packet = new byte[AZRP.PAYLOAD_OFFSET + length + (transfer.timestamps ? AZRP.TIMESTAMP_LENGTH : 0)];
+        System.arraycopy(transfer.message, offset, packet, AZRP.PAYLOAD_OFFSET, length);
+        int checksum = transfer.checksums[index];
+        if (corrupt) {
+            // The checksum covers the corrupted data, so only the manifest can detect it
+            packet[AZRP.PAYLOAD_OFFSET + ThreadLocalRandom.current().nextInt(length)] ^= 1;
+            this.crc32.reset();
+            this.crc32.update(packet, AZRP.PAYLOAD_OFFSET, length);
+            checksum = (int) this.crc32.getValue();
+            transfer.silentCorruptions++;
+        }
+        if (transfer.timestamps) {
+            final int timestamp = nowMicros();
+            if (transfer.sentNanos[index] == 0) {
+                transfer.firstTimestamps[index] = timestamp;
+            }
+            checksum = this.putTimestamp(packet, length, timestamp);
+        }
+        ByteBuffer.wrap(packet)
+                .putInt(AZRP.FLAGS_OFFSET, 0)
+                .putInt(AZRP.SEQUENCE_NUMBER_OFFSET, transfer.initialSequenceNumber + offset)
+                .putInt(AZRP.LENGTH_OFFSET, length)
+                .putInt(AZRP.CHECKSUM_OFFSET, checksum);
+        this.socket.send(new DatagramPacket(packet, packet.length));
+        transfer.sentNanos[index] = System.nanoTime();
+        transfer.packetsSent++;
+    }
+
+    /**
+     * Writes the timestamp after the data of a data or parity packet.
+     *
+     * @param packet    - the packet with the data written.
+     * @param length    - the length of the data.
+     * @param timestamp - the clock of the sender in microseconds.
+     * @return the checksum of the data and the timestamp.
+     */
+    private int putTimestamp(byte[] packet, int length, int timestamp) {
+        ByteBuffer.wrap(packet).putInt(AZRP.PAYLOAD_OFFSET + length, timestamp);
+        this.crc32.reset();
+        this.crc32.update(packet, AZRP.PAYLOAD_OFFSET, length + AZRP.TIMESTAMP_LENGTH);
+        return (int) this.crc32.getValue();
+    }
+
+    /**
+     * Receives an ACK packet, if one arrives in time, and marks the data packets it acknowledges, or a RST packet.
+     *
+     * @param transfer - the transfer.
+     * @throws IOException - if the socket fails.
+     */
+    private void receiveAck(Transfer transfer) throws IOException {
+        if (!this.receive() || this.codec.isSYN()) {
+            return;
+        }
+        if (this.codec.isRST()) {
+            // The receiver discarded the message, so the transfer has failed
+            transfer.reset = this.codec.getSequenceNumber() == transfer.initialSequenceNumber && this.codec.isChecksumValid();
+            return;
+        }
+        if (!this.codec.isACK()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long ackEnd = Integer.toUnsignedLong(this.codec.getSequenceNumber() - transfer.initialSequenceNumber);
+        final int length = this.codec.getLength();
+        if (ackEnd > transfer.message.length) {
+            return; // A late ACK packet of the previous transfer of this sender
+        }
+
+        if (this.codec.hasOptions()) {
+            if (!this.codec.isChecksumValid()) {
+                return; // Corrupted on the way
+            }
+            this.readWindow(transfer);
+        }
+        final int echoedTimestamp = this.readTimestamp(transfer);
+
+        if (length > 0) {
+            // The ACK packet of one data packet
+            final long offset = ackEnd - length;
+            if (offset < 0 || offset % this.payloadSize != 0 || offset / this.payloadSize >= transfer.segments) {
+                return;
+            }
+            final int index = (int) (offset / this.payloadSize);
+            // Without options, the checksum field echoes the checksum of the acknowledged packet
+            if (this.codec.hasOptions() || this.codec.getCheckSum() == transfer.checksums[index]) {
+                // The receiver echoed the timestamp of the first transmission, so the retransmission was not needed
+                if (transfer.timestamps && transfer.retransmitted[index] && !transfer.acked[index]
+                        && echoedTimestamp == transfer.firstTimestamps[index]) {
+                    transfer.spuriousRetransmissions++;
+                }
+                transfer.acknowledge(index, now);
+            }
+        } else if (this.codec.hasOptions()) {
+            // The cumulative ACK packet acknowledges all the data before its sequence number
+            for (int i = transfer.firstUnacked; i < transfer.segments && transfer.getEnd(i) <= ackEnd; i++) {
+                transfer.acknowledge(i, now);
+            }
+            final ByteBuffer sack = this.codec.getOption(AZRP.OPTION_SACK);
+            if (sack != null) {
+                for (int position = 0; position + 2 * Integer.BYTES <= sack.remaining(); position += 2 * Integer.BYTES) {
+                    final long start = Math.max(0, transfer.toOffset(sack.getInt(position)));
+                    final long end = transfer.toOffset(sack.getInt(position + Integer.BYTES));
+                    for (long i = (start + this.payloadSize - 1) / this.payloadSize; i < transfer.segments && transfer.getEnd((int) i) <= end; i++) {
+                        transfer.acknowledge((int) i, now);
+                    }
+                }
+            }
+            // The data the receiver discarded is sent again, even if it was acknowledged
+            final ByteBuffer discarded = this.codec.getOption(AZRP.OPTION_MANIFEST);
+            if (discarded != null) {
+                for (int position = 0; position + 2 * Integer.BYTES <= discarded.remaining(); position += 2 * Integer.BYTES) {
+                    final long start = Math.max(0, transfer.toOffset(discarded.getInt(position)));
+                    final long end = transfer.toOffset(discarded.getInt(position + Integer.BYTES));
+                    for (long i = start / this.payloadSize; i < transfer.segments && i * this.payloadSize < end; i++) {
+                        transfer.requestAgain((int) i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the end of the window to the one advertised by the wrapped SYN-ACK or ACK packet.
+     *
+     * @param transfer - the transfer.
+     */
+    private void readWindow(Transfer transfer) {
+        final ByteBuffer window = this.codec.getOption(AZRP.OPTION_WINDOW);
+        if (window == null || window.remaining() != Integer.BYTES) {
+            return;
+        }
+        final long windowEnd = Integer.toUnsignedLong(window.getInt(0) - transfer.initialSequenceNumber);
+        transfer.windowEnd = transfer.flowControl ? Math.max(transfer.windowEnd, windowEnd) : windowEnd;
+        transfer.flowControl = true;
+    }
+
+    /**
+     * Updates the smoothed round-trip time from the TIMESTAMP option of the wrapped SYN-ACK or ACK packet:
+     * the time since the echoed timestamp less the time the receiver held the packet.
+     *
+     * @param transfer - the transfer.
+     * @return the echoed timestamp, or 0 if the packet doesn't carry one.
+     */
+    private int readTimestamp(Transfer transfer) {
+        if (!transfer.timestamps) {
+            return 0;
+        }
+        final ByteBuffer timestamp = this.codec.getOption(AZRP.OPTION_TIMESTAMP);
+        if (timestamp == null || timestamp.remaining() != 2 * Integer.BYTES) {
+            return 0;
+        }
+        final int echoedTimestamp = timestamp.getInt(0);
+        final long rttMicros = (nowMicros() - echoedTimestamp) - Integer.toUnsignedLong(timestamp.getInt(Integer.BYTES));
+        if (rttMicros >= 0 && rttMicros < TimeUnit.NANOSECONDS.toMicros(MAXIMUM_RTO_NANOS)) {
+            transfer.onRttSample(TimeUnit.MICROSECONDS.toNanos(rttMicros));
+        }
+        return echoedTimestamp;
+    }
+
+    /**
+     * Gets the clock of the sender sent in the timestamps, which wraps around every 71 minutes.
+     *
+     * @return the clock in microseconds.
+     */
+    private static int nowMicros() {
+        return (int) (System.nanoTime() / 1_000);
+    }
+
+    /**
+     * Receives a datagram into the codec.
+     *
+     * @return true if a packet with a header was received before the timeout of the socket.
+     * @throws IOException - if the socket fails.
+     */
+    private boolean receive() throws IOException {
+        final DatagramPacket packet = new DatagramPacket(this.receiveBuffer, this.receiveBuffer.length);
+        try {
+            this.socket.receive(packet);
+        } catch (SocketTimeoutException | PortUnreachableException e) {
+            return false;
+        }
+        this.codec.wrap(ByteBuffer.wrap(this.receiveBuffer, 0, packet.getLength()));
+        return this.codec.hasHeader();
+    }
+
+    @Override
+    public void close() {
+        this.socket.close();
+    }
+
+    /**
+     * The state of the message being sent.
+     */
+    private class Transfer {
+        private final byte[] message;
+        private final int initialSequenceNumber;
+        private final boolean stream;
+        // The length of the manifest at the start of the message and its Merkle root, or 0 and null
+        private final int manifestLength;
+        private final byte[] manifestRoot;
+        private boolean manifestAccepted;
+        // Whether the receiver answered with a RST packet
+        private boolean reset;
+        private final int segments;
+        private final int[] checksums;
+
+        private final boolean[] acked;
+        private final boolean[] retransmitted;
+        private final long[] sentNanos;
+        private int ackedCount;
+        private int firstUnacked;
+        private int nextToSend;
+
+        // The end of the window advertised by the receiver; unlimited until the receiver advertises one
+        private boolean flowControl;
+        private long windowEnd = Long.MAX_VALUE;
+
+        // The smoothed round-trip time of the packets that were not retransmitted
+        private long smoothedRttNanos;
+
+        private int packetsSent;
+        private int retransmissions;
+        private boolean fec;
+        private int parityPackets;
+
+        // Whether the receiver echoes the timestamps, and the timestamp of the first transmission of each data packet
+        private boolean timestamps;
+        private final int[] firstTimestamps;
+        private int spuriousRetransmissions;
+        private int refusals;
+        private int silentCorruptions;
+
+        Transfer(byte[] message, int initialSequenceNumber, boolean stream, int manifestLength, byte[] manifestRoot) {
+            this.message = message;
+            this.initialSequenceNumber = initialSequenceNumber;
+            this.stream = stream;
+            this.manifestLength = manifestLength;
+            this.manifestRoot = manifestRoot;
+            this.segments = (message.length + payloadSize - 1) / payloadSize;
+            this.checksums = new int[this.segments];
+            for (int i = 0; i < this.segments; i++) {
+                crc32.reset();
+                crc32.update(message, i * payloadSize, this.getEnd(i) - i * payloadSize);
+                this.checksums[i] = (int) crc32.getValue();
+            }
+            this.acked = new boolean[this.segments];
+            this.retransmitted = new boolean[this.segments];
+            this.sentNanos = new long[this.segments];
+            this.firstTimestamps = new int[this.segments];
+        }
+
+        int getEnd(int index) {
+            return Math.min(this.message.length, (index + 1) * payloadSize);
+        }
+
+        /**
+         * Calculates the offset in the message from the sequence number of a range the receiver reported.
+         * Like the receiver, the offset is taken as the one closest to the acknowledged data, so the ranges
+         * are unwrapped correctly past 4 GB.
+         */
+        long toOffset(int sequenceNumber) {
+            final long acknowledgedEnd = (long) this.firstUnacked * payloadSize;
+            return acknowledgedEnd + (sequenceNumber - (this.initialSequenceNumber + (int) acknowledgedEnd));
+        }
+
+        void onRttSample(long rttNanos) {
+            this.smoothedRttNanos = this.smoothedRttNanos == 0 ? rttNanos : (7 * this.smoothedRttNanos + rttNanos) / 8;
+        }
+
+        long getRetransmissionTimeout() {
+            return Math.min(MAXIMUM_RTO_NANOS, Math.max(MINIMUM_RTO_NANOS, 3 * this.smoothedRttNanos));
+        }
+
+        void acknowledge(int index, long now) {
+            if (this.acked[index] || index >= this.nextToSend) {
+                return;
+            }
+            this.acked[index] = true;
+            this.ackedCount++;
+            // Without timestamps, the ACK packet of a retransmitted packet may be the one of the original packet
+            if (!this.timestamps && !this.retransmitted[index]) {
+                this.onRttSample(now - this.sentNanos[index]);
+            }
+            while (this.firstUnacked < this.segments && this.acked[this.firstUnacked]) {
+                this.firstUnacked++;
+            }
+        }
+
+        /**
+         * Takes back the acknowledgement of a data packet the receiver discarded, so it's retransmitted at once.
+         * A packet that is not acknowledged is already waiting for its retransmission.
+         */
+        void requestAgain(int index) {
+            if (!this.acked[index]) {
+                return;
+            }
+            this.acked[index] = false;
+            this.ackedCount--;
+            this.firstUnacked = Math.min(this.firstUnacked, index);
+            this.retransmitted[index] = true;
+            this.sentNanos[index] -= MAXIMUM_RTO_NANOS;
+        }
+    }
+
+    /**
+     * The outcome of a transfer.
+     *
+     * @param completed               - whether the whole message was acknowledged before the timeout.
+     * @param latencyNanos            - the time from the first SYN packet to the last ACK packet or the timeout.
+     * @param packetsSent             - the number of packets sent, including the SYN packets and the retransmissions.
+     * @param retransmissions         - the number of data packets sent again.
+     * @param parityPackets           - the number of parity packets sent, included in packetsSent.
+     * @param spuriousRetransmissions - the number of retransmissions whose original packet was acknowledged;
+     *                                  only detected with timestamps.
+     * @param refusals                - the number of SYN-ACK packets that refused the transfer for lack of memory.
+     * @param silentCorruptions       - the number of data packets corrupted before their checksum was calculated.
+     */
+    public record Result(boolean completed, long latencyNanos, int packetsSent, int retransmissions, int parityPackets,
+                         int spuriousRetransmissions, int refusals, int silentCorruptions) {
+    }
+}
@@ -3,7 +3,6 @@ package ca.bcit.comp7005;
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.zip.CRC32;
 
 /**
  * This class describes the AZRP reliable protocol.
@@ -17,9 +16,82 @@ public class AZRP {
 
     public static final int MAXIMUM_PACKET_SIZE_IN_BYTES = 1500;
 
+    // The largest packet that fits into a UDP datagram over IPv4; the limit of a negotiated segment size
+    public static final int MAXIMUM_SEGMENT_SIZE_IN_BYTES = 65507;
+
     // The data field of the SYN packet contains the file extension
     public static final int FILE_EXTENSION_LENGTH = 20;
 
+    // The offsets of the header fields in a serialized packet
+    public static final int FLAGS_OFFSET = 0;
+    public static final int SEQUENCE_NUMBER_OFFSET = 4;
+    public static final int LENGTH_OFFSET = 8;
+    public static final int CHECKSUM_OFFSET = 12;
+    public static final int PAYLOAD_OFFSET = 16;
+
+    // The bits of the flags field
+    public static final int SYN_FLAG = 1;
+    public static final int ACK_FLAG = 1 << 1;
+    // A control packet with this flag carries an options block after the file extension field
+    public static final int OPTIONS_FLAG = 1 << 2;
+    // A parity packet of forward error correction: the XOR of the data of a group of data packets
+    public static final int PARITY_FLAG = 1 << 3;
+    // A reset sent by the receiver instead of the ACK packet of the last data when the message can't be delivered,
+    // e.g. because it doesn't match its digest: the message is discarded and the sender has to send it again in a new
+    // session. Its sequence number is the initial sequence number of the session, and it carries an empty options block
+    // so its checksum protects it
+    public static final int RST_FLAG = 1 << 4;
+
+    // The types of the options
+    // SACK: the ranges of data received after the cumulative ACK, each one a pair of sequence numbers (start, end)
+    public static final int OPTION_SACK = 1;
+    // CHECKSUM: in a SYN packet, the checksum algorithm of the data packets requested by the sender (1 byte);
+    // in a SYN-ACK packet, the algorithm accepted by the receiver
+    public static final int OPTION_CHECKSUM = 2;
+    // DIGEST: in a SYN packet, the digest algorithm (1 byte) and the digest of the whole message;
+    // in a SYN-ACK packet, only the algorithm if the receiver verifies the digest
+    public static final int OPTION_DIGEST = 3;
+    // LENGTH: in a SYN packet, the length of the whole message as an unsigned 64-bit number,
+    // which replaces the 32-bit length field of the header; in a SYN-ACK packet, the same length if it's accepted
+    public static final int OPTION_LENGTH = 4;
+    // COMPRESSION: in a SYN packet, the compression algorithm of the message (1 byte) and the length of the
+    // decompressed message (8 bytes); the length of the SYN packet is the length of the compressed message.
+    // In a SYN-ACK packet, only the algorithm if the receiver decompresses the message
+    public static final int OPTION_COMPRESSION = 5;
+    // SEGMENT_SIZE: in a SYN packet, the size of the largest data packet the sender wants to send (4 bytes);
+    // in a SYN-ACK packet, the size accepted by the receiver, which the data packets must not exceed
+    public static final int OPTION_SEGMENT_SIZE = 6;
+    // RESUME: in a SYN packet, the id of the transfer chosen by the sender (1 to 32 bytes), the same for every attempt
+    // to send the same message; in a SYN-ACK packet, the offset of the data received without gaps (8 bytes)
+    // followed by up to 8 ranges received after it, each one a pair of offsets (start, end)
+    public static final int OPTION_RESUME = 7;
+    // WINDOW: in a SYN packet, an empty option that asks for flow control; in the SYN-ACK packet and every ACK packet
+    // after it, the sequence number that follows the last byte the sender may send (4 bytes)
+    public static final int OPTION_WINDOW = 8;
+    // FEC: in a SYN packet, the scheme of forward error correction (1 byte, 1 - XOR parity), the number of data packets
+    // in a group (1 byte) and the length of the data in each data packet (4 bytes); in a SYN-ACK packet, the same
+    // values if the receiver rebuilds lost data packets from the parity packets
+    public static final int OPTION_FEC = 9;
+    public static final int FEC_XOR = 1;
+    // TIMESTAMP: in a SYN packet, the clock of the sender in microseconds (4 bytes), which asks for timestamps;
+    // every data and parity packet after it then ends with the clock of the sender (4 bytes) covered by its checksum.
+    // In the SYN-ACK packet and every ACK packet after it, the timestamp of the earliest packet not acknowledged yet
+    // (4 bytes) and the time the receiver held it before the ACK packet, in microseconds (4 bytes)
+    public static final int OPTION_TIMESTAMP = 10;
+    // STREAM: in a SYN packet, an empty option that opens a persistent stream of framed messages instead of sending
+    // one message of the length of the SYN packet; in a SYN-ACK packet, the same option if the receiver accepted it
+    public static final int OPTION_STREAM = 11;
+    // BACKOFF: in a SYN-ACK packet, instead of the accepted options, a refusal of the session because the receiver
+    // is out of memory, and how long the sender should wait before it sends the SYN packet again (4 bytes, ms)
+    public static final int OPTION_BACKOFF = 12;
+    // MANIFEST: in a SYN packet, the digest algorithm of the chunk hashes (1 byte), the size of the chunks (4 bytes)
+    // and the Merkle root of the chunk hashes; the data then starts with the manifest, the hash of every chunk,
+    // followed by the message. In a SYN-ACK packet, the algorithm and the chunk size if the receiver verifies the
+    // chunks. In an ACK packet, the ranges the receiver discarded because they failed the verification, each one
+    // a pair of sequence numbers (start, end), which the sender must send again even if they were acknowledged
+    public static final int OPTION_MANIFEST = 13;
+    public static final int TIMESTAMP_LENGTH = 4;
+
     // The flags are used to indicate the type of the packet:
     // 0 - SYN
     // 1 - ACK
@@ -119,21 +191,20 @@ public class AZRP {
         buffer.putInt(flagsToInt);
         buffer.putInt(sequenceNumber);
         buffer.putInt(length);
-        buffer.putInt(calculateChecksum(data));
+        buffer.putInt(checksum); // The checksum is calculated when the packet is created
         buffer.put(data);
         return buffer.array();
     }
 
     /**
      * Calculates the checksum of the data.
+     * The checksum state of the current thread is reused.
      *
      * @param data - the data to calculate the checksum.
      * @return the checksum of the data.
      */
     private static int calculateChecksum(byte[] data) {
-        CRC32 crc32 = new CRC32();
-        crc32.update(data);
-        return (int) crc32.getValue();
+        return AZRPCodec.checksum(data);
     }
 
     public static AZRP generateSynPacket(final int wholeMessageDataLength, String fileType) throws NoSuchAlgorithmException {
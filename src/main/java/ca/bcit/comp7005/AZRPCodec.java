@@ -0,0 +1,426 @@
+package ca.bcit.comp7005;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * A flyweight view of a serialized AZRP packet.
+ * The header fields are read directly from the wrapped buffer, and ACK and SYN-ACK packets are encoded into
+ * reusable buffers supplied by the caller, so decoding, validating and acknowledging a packet allocates nothing.
+ * The codec is re-pointed at every packet with wrap(); an instance must be used by one thread at a time.
+ * Each instance keeps its own checksum state, since a session can be drained by a different virtual thread each time.
+ */
+public class AZRPCodec {
+
+    // The size of a serialized control packet (SYN, SYN-ACK, ACK): the header and the file extension field
+    public static final int CONTROL_PACKET_SIZE_IN_BYTES = AZRP.PACKET_HEADER_SIZE_IN_BYTES + AZRP.FILE_EXTENSION_LENGTH;
+
+    // The options block of a control packet with the OPTIONS flag follows the control packet:
+    // a 2-byte length and then the options, each one a 1-byte type, a 1-byte length and the value.
+    // The checksum of such a packet covers everything from the file extension field to the end of the options.
+    public static final int OPTIONS_LENGTH_OFFSET = CONTROL_PACKET_SIZE_IN_BYTES;
+    public static final int OPTIONS_OFFSET = OPTIONS_LENGTH_OFFSET + 2;
+
+    // The checksum state is reused by each platform thread for the packets that are not read with a codec
+    private static final ThreadLocal<CRC32> crc32PerThread = ThreadLocal.withInitial(CRC32::new);
+
+    // The checksum state of this codec for the control packets
+    private final CRC32 crc32 = new CRC32();
+
+    // The checksum algorithm and state for the data packets, negotiated in the SYN packet
+    private ChecksumAlgorithm dataChecksumAlgorithm = ChecksumAlgorithm.CRC32;
+    private Checksum dataChecksum = this.crc32;
+
+    // The length of the timestamp that follows the data of the data and parity packets, or 0 without timestamps
+    private int dataTrailerLength;
+
+    private ByteBuffer buffer;
+
+    // The position of the packet in the buffer and the number of bytes of the packet
+    private int offset;
+    private int size;
+
+    /**
+     * Points the codec at the packet between the position and the limit of the buffer.
+     * The position and the limit of the buffer are not changed.
+     *
+     * @param buffer - the buffer that contains the packet.
+     * @return this codec.
+     */
+    public AZRPCodec wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.offset = buffer.position();
+        this.size = buffer.remaining();
+        return this;
+    }
+
+    /**
+     * Gets the number of bytes of the packet, i.e. the size of the datagram.
+     *
+     * @return the size of the packet.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the packet is long enough to contain the header.
+     *
+     * @return true if the packet contains the header, false otherwise.
+     */
+    public boolean hasHeader() {
+        return this.size >= AZRP.PAYLOAD_OFFSET;
+    }
+
+    /**
+     * Gets the flags as a bitmask of SYN_FLAG and ACK_FLAG.
+     *
+     * @return the flags.
+     */
+    public int getFlags() {
+        return this.buffer.getInt(this.offset + AZRP.FLAGS_OFFSET);
+    }
+
+    public int getSequenceNumber() {
+        return this.buffer.getInt(this.offset + AZRP.SEQUENCE_NUMBER_OFFSET);
+    }
+
+    public int getLength() {
+        return this.buffer.getInt(this.offset + AZRP.LENGTH_OFFSET);
+    }
+
+    public int getCheckSum() {
+        return this.buffer.getInt(this.offset + AZRP.CHECKSUM_OFFSET);
+    }
+
+    public boolean isSYN() {
+        return (this.getFlags() & AZRP.SYN_FLAG) != 0;
+    }
+
+    public boolean isACK() {
+        return (this.getFlags() & AZRP.ACK_FLAG) != 0;
+    }
+
+    public boolean isRST() {
+        return (this.getFlags() & AZRP.RST_FLAG) != 0;
+    }
+
+    /**
+     * Gets the position of the payload in the buffer.
+     *
+     * @return the position of the payload.
+     */
+    public int getPayloadOffset() {
+        return this.offset + AZRP.PAYLOAD_OFFSET;
+    }
+
+    /**
+     * Gets the length of the payload: the length from the header for data packets,
+     * the length of the file extension field for the control packets,
+     * and everything up to the end of the options block for the control packets with options.
+     *
+     * @return the length of the payload or -1 if the packet is shorter than its payload.
+     */
+    public int getPayloadLength() {
+        final int flags = this.getFlags();
+        final int payloadLength;
+        if (flags == 0 || flags == AZRP.PARITY_FLAG) {
+            payloadLength = this.getLength();
+        } else if ((flags & AZRP.OPTIONS_FLAG) != 0) {
+            if (this.size < OPTIONS_OFFSET) {
+                return -1;
+            }
+            payloadLength = OPTIONS_OFFSET + this.getOptionsLength() - AZRP.PAYLOAD_OFFSET;
+        } else {
+            payloadLength = AZRP.FILE_EXTENSION_LENGTH;
+        }
+        if (payloadLength < 0 || payloadLength > this.size - AZRP.PAYLOAD_OFFSET) {
+            return -1;
+        }
+        return payloadLength;
+    }
+
+    /**
+     * Gets the length of the options block of a control packet with the OPTIONS flag.
+     *
+     * @return the length of the options.
+     */
+    public int getOptionsLength() {
+        return this.buffer.getShort(this.offset + OPTIONS_LENGTH_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * Checks whether the control packet carries an options block.
+     *
+     * @return true if the OPTIONS flag is set.
+     */
+    public boolean hasOptions() {
+        return (this.getFlags() & AZRP.OPTIONS_FLAG) != 0;
+    }
+
+    /**
+     * Finds an option of a control packet with the OPTIONS flag. The packet must have been validated.
+     *
+     * @param type - the type of the option.
+     * @return a view of the value of the option or null if the packet doesn't carry it.
+     */
+    public ByteBuffer getOption(int type) {
+        if (!this.hasOptions()) {
+            return null;
+        }
+        final int end = this.offset + OPTIONS_OFFSET + this.getOptionsLength();
+        int position = this.offset + OPTIONS_OFFSET;
+        while (position + 2 <= end) {
+            final int optionType = this.buffer.get(position) & 0xFF;
+            final int optionLength = this.buffer.get(position + 1) & 0xFF;
+            if (position + 2 + optionLength > end) {
+                return null;
+            }
+            if (optionType == type) {
+                return this.buffer.slice(position + 2, optionLength);
+            }
+            position += 2 + optionLength;
+        }
+        return null;
+    }
+
+    /**
+     * Validates the checksum of the payload.
+     * The checksum of the data packets is calculated with the negotiated algorithm.
+     *
+     * @return true if the checksum is valid, false otherwise.
+     */
+    public boolean isChecksumValid() {
+        final int payloadLength = this.getPayloadLength();
+        if (payloadLength < 0) {
+            return false;
+        }
+        // The parity packets are protected like the data packets they're calculated from
+        final int flags = this.getFlags();
+        if (flags == 0 || flags == AZRP.PARITY_FLAG) {
+            // The checksum covers the timestamp after the data too
+            if (payloadLength > this.size - AZRP.PAYLOAD_OFFSET - this.dataTrailerLength) {
+                return false;
+            }
+            return this.checksum(this.dataChecksum, this.buffer, this.getPayloadOffset(), payloadLength + this.dataTrailerLength)
+                    == this.getCheckSum();
+        }
+        return this.checksum(this.crc32, this.buffer, this.getPayloadOffset(), payloadLength) == this.getCheckSum();
+    }
+
+    /**
+     * Sets the checksum algorithm of the data packets.
+     *
+     * @param algorithm - the algorithm negotiated in the SYN packet.
+     */
+    public void setDataChecksumAlgorithm(ChecksumAlgorithm algorithm) {
+        if (algorithm != this.dataChecksumAlgorithm) {
+            this.dataChecksumAlgorithm = algorithm;
+            this.dataChecksum = algorithm == ChecksumAlgorithm.CRC32 ? this.crc32 : algorithm.newChecksum();
+        }
+    }
+
+    /**
+     * Sets whether the data and parity packets end with the timestamp of the sender.
+     *
+     * @param timestamps - true if the timestamps were negotiated in the SYN packet.
+     */
+    public void setDataTimestamps(boolean timestamps) {
+        this.dataTrailerLength = timestamps ? AZRP.TIMESTAMP_LENGTH : 0;
+    }
+
+    /**
+     * Gets the timestamp that follows the data of a data or parity packet. The packet must have been validated
+     * with the timestamps enabled.
+     *
+     * @return the clock of the sender in microseconds.
+     */
+    public int getDataTimestamp() {
+        return this.buffer.getInt(this.getPayloadOffset() + this.getLength());
+    }
+
+    public boolean isValidData() {
+        return this.hasHeader() && this.getFlags() == 0 && this.isChecksumValid();
+    }
+
+    public boolean isParity() {
+        return this.getFlags() == AZRP.PARITY_FLAG;
+    }
+
+    public boolean isValidParity() {
+        return this.hasHeader() && this.isParity() && this.isChecksumValid();
+    }
+
+    public boolean isValidSyn() {
+        return this.hasHeader() && this.isSYN() && !this.isACK() && this.isChecksumValid();
+    }
+
+    /**
+     * Sets the position and the limit of the wrapped buffer to the payload, so it can be written without a copy.
+     * The packet must have been validated.
+     *
+     * @return the wrapped buffer.
+     */
+    public ByteBuffer payload() {
+        final int payloadOffset = this.getPayloadOffset();
+        this.buffer.limit(payloadOffset + this.getPayloadLength());
+        this.buffer.position(payloadOffset);
+        return this.buffer;
+    }
+
+    /**
+     * Encodes the SYN-ACK packet for the wrapped SYN packet: the same sequence number, length, checksum
+     * and file extension with both flags set.
+     *
+     * @param destination - the reusable buffer the packet is written to.
+     * @return the destination buffer ready to be sent.
+     */
+    public ByteBuffer encodeSynAck(ByteBuffer destination) {
+        destination.clear();
+        putHeader(destination, AZRP.SYN_FLAG | AZRP.ACK_FLAG, this.getSequenceNumber(), this.getLength(), this.getCheckSum());
+        destination.put(destination.position(), this.buffer, this.getPayloadOffset(), AZRP.FILE_EXTENSION_LENGTH);
+        destination.position(CONTROL_PACKET_SIZE_IN_BYTES);
+        return destination.flip();
+    }
+
+    /**
+     * Starts the SYN-ACK packet with an options block for the wrapped SYN packet: the same sequence number, length
+     * and file extension with both flags set. The accepted options are written with beginOption() and endOption(),
+     * and the packet is completed with finishControlPacket().
+     *
+     * @param destination - the reusable buffer the packet is written to.
+     * @return the destination buffer positioned at the first option.
+     */
+    public ByteBuffer beginSynAck(ByteBuffer destination) {
+        beginControlPacket(destination, AZRP.SYN_FLAG | AZRP.ACK_FLAG, this.getSequenceNumber(), this.getLength());
+        destination.put(AZRP.PAYLOAD_OFFSET, this.buffer, this.getPayloadOffset(), AZRP.FILE_EXTENSION_LENGTH);
+        return destination;
+    }
+
+    /**
+     * Encodes an ACK packet.
+     *
+     * @param destination    - the reusable buffer the packet is written to.
+     * @param sequenceNumber - the sequence number that follows the acknowledged data.
+     * @param length         - the length of the acknowledged data packet.
+     * @param checksum       - the checksum of the acknowledged data packet.
+     * @return the destination buffer ready to be sent.
+     */
+    public static ByteBuffer encodeAck(ByteBuffer destination, int sequenceNumber, int length, int checksum) {
+        destination.clear();
+        putHeader(destination, AZRP.ACK_FLAG, sequenceNumber, length, checksum);
+        // The file extension field and the rest of the header are empty
+        while (destination.position() < CONTROL_PACKET_SIZE_IN_BYTES) {
+            destination.put((byte) 0);
+        }
+        return destination.flip();
+    }
+
+    /**
+     * Starts a control packet with an options block. The options are written with beginOption() and endOption(),
+     * and the packet is completed with finishControlPacket().
+     *
+     * @param destination    - the reusable buffer the packet is written to.
+     * @param flags          - the flags of the packet; the OPTIONS flag is added.
+     * @param sequenceNumber - the sequence number.
+     * @param length         - the length.
+     * @return the destination buffer positioned at the first option.
+     */
+    public static ByteBuffer beginControlPacket(ByteBuffer destination, int flags, int sequenceNumber, int length) {
+        destination.clear();
+        putHeader(destination, flags | AZRP.OPTIONS_FLAG, sequenceNumber, length, 0);
+        while (destination.position() < OPTIONS_OFFSET) {
+            destination.put((byte) 0);
+        }
+        return destination;
+    }
+
+    /**
+     * Starts an option. Its value is written into the destination buffer after this call.
+     *
+     * @param destination - the buffer of the control packet.
+     * @param type        - the type of the option.
+     * @return the position of the length of the option for endOption().
+     */
+    public static int beginOption(ByteBuffer destination, int type) {
+        destination.put((byte) type);
+        final int lengthPosition = destination.position();
+        destination.put((byte) 0);
+        return lengthPosition;
+    }
+
+    /**
+     * Completes an option by writing the length of its value.
+     *
+     * @param destination    - the buffer of the control packet.
+     * @param lengthPosition - the position returned by beginOption().
+     */
+    public static void endOption(ByteBuffer destination, int lengthPosition) {
+        destination.put(lengthPosition, (byte) (destination.position() - lengthPosition - 1));
+    }
+
+    /**
+     * Completes a control packet with options: writes the length of the options block and the checksum.
+     *
+     * @param destination - the buffer of the control packet.
+     * @return the destination buffer ready to be sent.
+     */
+    public ByteBuffer finishControlPacket(ByteBuffer destination) {
+        final int end = destination.position();
+        destination.putShort(OPTIONS_LENGTH_OFFSET, (short) (end - OPTIONS_OFFSET));
+        destination.putInt(AZRP.CHECKSUM_OFFSET, this.checksum(this.crc32, destination, AZRP.PAYLOAD_OFFSET, end - AZRP.PAYLOAD_OFFSET));
+        return destination.flip();
+    }
+
+    private static void putHeader(ByteBuffer destination, int flags, int sequenceNumber, int length, int checksum) {
+        destination.putInt(flags);
+        destination.putInt(sequenceNumber);
+        destination.putInt(length);
+        destination.putInt(checksum);
+    }
+
+    /**
+     * Creates a buffer that fits any control packet, including its options.
+     *
+     * @return the buffer.
+     */
+    public static ByteBuffer allocateControlBuffer() {
+        return ByteBuffer.allocate(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES);
+    }
+
+    /**
+     * Calculates the checksum of a region of the buffer with a checksum state of this codec.
+     * The position and the limit of the buffer are not changed.
+     *
+     * @param checksum - the checksum state.
+     * @param buffer   - the buffer.
+     * @param offset   - the position of the region.
+     * @param length   - the length of the region.
+     * @return the checksum.
+     */
+    private int checksum(Checksum checksum, ByteBuffer buffer, int offset, int length) {
+        checksum.reset();
+
+        final int position = buffer.position();
+        final int limit = buffer.limit();
+        buffer.limit(offset + length).position(offset);
+        checksum.update(buffer);
+        buffer.limit(limit).position(position);
+
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Calculates the CRC32 checksum of the array with the checksum state of the current thread.
+     *
+     * @param data - the data.
+     * @return the checksum.
+     */
+    public static int checksum(byte[] data) {
+        final CRC32 crc32 = crc32PerThread.get();
+        crc32.reset();
+        crc32.update(data);
+        return (int) crc32.getValue();
+    }
+}
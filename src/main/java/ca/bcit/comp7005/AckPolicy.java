@@ -0,0 +1,90 @@
+package ca.bcit.comp7005;
+
+/**
+ * Decides when a session acknowledges the received data packets.
+ * With the immediate policy every data packet is acknowledged with its own ACK packet.
+ * With the delayed policy one cumulative ACK packet with the selective-ACK ranges is sent for every few packets,
+ * or when the oldest unacknowledged packet has waited for the delay.
+ * Out-of-order and duplicate packets and the last packet of the message are acknowledged at once,
+ * so the sender learns about the gaps without waiting.
+ */
+public class AckPolicy {
+
+    // The maximum number of selective-ACK ranges in an ACK packet
+    public static final int MAXIMUM_SACK_RANGES = 8;
+
+    private final int ackEvery;
+    private final long ackDelayNanos;
+
+    // The number of accepted packets that have not been acknowledged and the time the first of them arrived
+    private int unacknowledgedPackets;
+    private long firstUnacknowledgedNanos;
+
+    /**
+     * @param ackEvery       - the number of data packets acknowledged by one ACK packet; 1 acknowledges each packet.
+     * @param ackDelayMillis - the maximum time a data packet waits for its ACK packet.
+     */
+    public AckPolicy(int ackEvery, int ackDelayMillis) {
+        this.ackEvery = Math.max(1, ackEvery);
+        this.ackDelayNanos = ackDelayMillis * 1_000_000L;
+    }
+
+    /**
+     * Checks whether each data packet is acknowledged with its own ACK packet.
+     *
+     * @return true for the immediate policy, false for the delayed policy.
+     */
+    public boolean isImmediate() {
+        return this.ackEvery == 1;
+    }
+
+    /**
+     * Records an accepted data packet.
+     *
+     * @param nowNanos - the current time in nanoseconds.
+     * @param urgent   - whether the packet must be acknowledged at once: it's out of order, a duplicate or the last one.
+     * @return true if a cumulative ACK packet must be sent now.
+     */
+    public boolean onDataPacket(long nowNanos, boolean urgent) {
+        if (this.unacknowledgedPackets == 0) {
+            this.firstUnacknowledgedNanos = nowNanos;
+        }
+        this.unacknowledgedPackets++;
+        return urgent || this.unacknowledgedPackets >= this.ackEvery || this.isDelayOver(nowNanos);
+    }
+
+    /**
+     * Checks whether the oldest unacknowledged packet has waited for the delay.
+     *
+     * @param nowNanos - the current time in nanoseconds.
+     * @return true if a cumulative ACK packet must be sent now.
+     */
+    private boolean isDelayOver(long nowNanos) {
+        return this.unacknowledgedPackets > 0 && nowNanos - this.firstUnacknowledgedNanos >= this.ackDelayNanos;
+    }
+
+    /**
+     * Checks whether the packet that has just been recorded is the first one that waits for an ACK packet,
+     * so the delay timer has to be started.
+     *
+     * @return true if the delay timer has to be started.
+     */
+    public boolean isFirstUnacknowledged() {
+        return this.unacknowledgedPackets == 1;
+    }
+
+    public boolean hasUnacknowledgedPackets() {
+        return this.unacknowledgedPackets > 0;
+    }
+
+    /**
+     * Records that a cumulative ACK packet has been sent.
+     */
+    public void onAckSent() {
+        this.unacknowledgedPackets = 0;
+    }
+
+    public long getAckDelayMillis() {
+        return this.ackDelayNanos / 1_000_000L;
+    }
+}
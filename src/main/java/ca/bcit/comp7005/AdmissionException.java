@@ -0,0 +1,27 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a new session can't be admitted because the receiver is out of memory for it at the moment.
+ * The sender is told to retry its SYN packet after a while.
+ */
+public class AdmissionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterMillis;
+
+    /**
+     * @param message          - the reason.
+     * @param retryAfterMillis - how long the sender should wait before it sends the SYN packet again.
+     */
+    public AdmissionException(String message, int retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,72 @@
+package ca.bcit.comp7005;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable direct buffers for receiving datagrams.
+ * The buffers are allocated when they're first needed, up to the capacity of the pool.
+ * When all the buffers are in use, a temporary heap buffer is allocated instead, so receiving never blocks.
+ */
+public class BufferPool {
+
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final int bufferSize;
+    private final int capacity;
+    private int allocated;
+
+    // The number of times a temporary buffer was allocated because the pool was empty
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity   - the maximum number of direct buffers in the pool.
+     * @param bufferSize - the size of each buffer in bytes.
+     */
+    public BufferPool(int capacity, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Takes a buffer from the pool.
+     *
+     * @return a cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = this.buffers.poll();
+        if (buffer == null) {
+            buffer = this.allocate();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Temporary buffers are dropped.
+     *
+     * @param buffer - the buffer taken from the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            this.buffers.offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocate() {
+        synchronized (this) {
+            if (this.allocated < this.capacity) {
+                this.allocated++;
+                return ByteBuffer.allocateDirect(this.bufferSize);
+            }
+        }
+        this.misses.incrementAndGet();
+        return ByteBuffer.allocate(this.bufferSize);
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
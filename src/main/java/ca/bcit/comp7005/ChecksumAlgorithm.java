@@ -0,0 +1,51 @@
+package ca.bcit.comp7005;
+
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The checksum algorithms of the data packets that can be negotiated in the SYN packet.
+ * The control packets always use CRC32.
+ */
+public enum ChecksumAlgorithm {
+
+    CRC32(0),
+    // Calculated with the CRC32 instructions of the processor where they're available
+    CRC32C(1);
+
+    // The value of the algorithm in the CHECKSUM option
+    private final int id;
+
+    ChecksumAlgorithm(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Creates a new checksum state of the algorithm.
+     *
+     * @return the checksum state.
+     */
+    public Checksum newChecksum() {
+        return this == CRC32C ? new CRC32C() : new CRC32();
+    }
+
+    /**
+     * Finds the algorithm by its value in the CHECKSUM option.
+     *
+     * @param id - the value of the algorithm.
+     * @return the algorithm or null if it's not supported.
+     */
+    public static ChecksumAlgorithm fromId(int id) {
+        for (ChecksumAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
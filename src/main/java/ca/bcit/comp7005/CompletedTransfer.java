@@ -0,0 +1,21 @@
+package ca.bcit.comp7005;
+
+/**
+ * A message whose session has completed, handed over from the session to the sink stage.
+ *
+ * @param key        - the key of the session.
+ * @param fileType   - the file extension from the SYN packet, or "textstring" for a text string.
+ * @param target     - the reassembly target that contains the whole message.
+ * @param statistics - the statistics of the session when it completed.
+ */
+public record CompletedTransfer(SessionKey key, String fileType, ReassemblyTarget target, String statistics) {
+
+    /**
+     * Checks whether the message is a text string rather than a file.
+     *
+     * @return true if the message is a text string.
+     */
+    public boolean isTextString() {
+        return this.fileType.equals("textstring");
+    }
+}
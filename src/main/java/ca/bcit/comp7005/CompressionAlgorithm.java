@@ -0,0 +1,47 @@
+package ca.bcit.comp7005;
+
+import java.util.zip.Inflater;
+
+/**
+ * The compression algorithms of the message that can be negotiated in the SYN packet.
+ */
+public enum CompressionAlgorithm {
+
+    // A zlib stream, as written by java.util.zip.Deflater
+    DEFLATE(1);
+
+    // The value of the algorithm in the COMPRESSION option
+    private final int id;
+
+    CompressionAlgorithm(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Creates a new decompressor of the algorithm.
+     *
+     * @return the decompressor; it must be ended when it's no longer used.
+     */
+    public Inflater newInflater() {
+        return new Inflater();
+    }
+
+    /**
+     * Finds the algorithm by its value in the COMPRESSION option.
+     *
+     * @param id - the value of the algorithm.
+     * @return the algorithm or null if it's not supported.
+     */
+    public static CompressionAlgorithm fromId(int id) {
+        for (CompressionAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
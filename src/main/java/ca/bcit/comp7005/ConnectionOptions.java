@@ -0,0 +1,398 @@
+package ca.bcit.comp7005;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+/**
+ * The parameters of a transfer negotiated in the SYN packet.
+ * A sender that doesn't send any options gets the defaults: CRC32 checksums, no digest of the whole message,
+ * the 32-bit length of the message from the header of the SYN packet, no compression, data packets of up to
+ * 1500 bytes, no receive window, no forward error correction, no timestamps, no chunk manifest and one message
+ * per session.
+ * The receiver accepts the options it supports and confirms them in the SYN-ACK packet,
+ * so the sender knows which of its options are in effect.
+ */
+public class ConnectionOptions {
+
+    // Whether the SYN packet carried an options block, so the SYN-ACK packet must carry one too
+    private final boolean negotiated;
+
+    private final ChecksumAlgorithm checksumAlgorithm;
+
+    // The algorithm and the expected digest of the whole message, or null if the digest is not verified
+    private final DigestAlgorithm digestAlgorithm;
+    private final byte[] expectedDigest;
+
+    // The 64-bit length of the whole message, or -1 if the length is taken from the header of the SYN packet
+    private final long messageLength;
+
+    // The compression algorithm and the length of the decompressed message, or null if the message is not compressed
+    private final CompressionAlgorithm compressionAlgorithm;
+    private final long decompressedLength;
+
+    // The size of the largest data packet accepted by the receiver, or -1 if it was not requested by the sender
+    private final int segmentSize;
+
+    // The id of a resumable transfer, or null if the transfer is not resumable
+    private static final int MAXIMUM_TRANSFER_ID_LENGTH = 32;
+    private final byte[] transferId;
+
+    // Whether the sender asked for the receive window in the SYN-ACK and ACK packets
+    private final boolean flowControl;
+
+    // The number of data packets in a group protected by a parity packet and the length of the data in each packet,
+    // or 0 if the sender doesn't send parity packets
+    private static final int MAXIMUM_FEC_GROUP_SIZE = 64;
+    private final int fecGroupSize;
+    private final int fecPayloadLength;
+
+    // Whether the data packets carry the timestamp of the sender and the ACK packets echo it
+    private final boolean timestamps;
+
+    // Whether the session carries a stream of framed messages instead of one message
+    private final boolean stream;
+
+    // The algorithm of the chunk hashes, the size of the chunks and the Merkle root of the manifest that precedes
+    // the message, or null if the message has no manifest
+    private final DigestAlgorithm manifestAlgorithm;
+    private final int chunkSize;
+    private final byte[] manifestRoot;
+
+    private ConnectionOptions(boolean negotiated, ChecksumAlgorithm checksumAlgorithm, DigestAlgorithm digestAlgorithm,
+                              byte[] expectedDigest, long messageLength, CompressionAlgorithm compressionAlgorithm,
+                              long decompressedLength, int segmentSize, byte[] transferId, boolean flowControl,
+                              int fecGroupSize, int fecPayloadLength, boolean timestamps, boolean stream,
+                              DigestAlgorithm manifestAlgorithm, int chunkSize, byte[] manifestRoot) {
+        this.negotiated = negotiated;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+        this.expectedDigest = expectedDigest;
+        this.messageLength = messageLength;
+        this.compressionAlgorithm = compressionAlgorithm;
+        this.decompressedLength = decompressedLength;
+        this.segmentSize = segmentSize;
+        this.transferId = transferId;
+        this.flowControl = flowControl;
+        this.fecGroupSize = fecGroupSize;
+        this.fecPayloadLength = fecPayloadLength;
+        this.timestamps = timestamps;
+        this.stream = stream;
+        this.manifestAlgorithm = manifestAlgorithm;
+        this.chunkSize = chunkSize;
+        this.manifestRoot = manifestRoot;
+    }
+
+    /**
+     * Reads the options of a SYN packet. Options that are not supported are ignored.
+     *
+     * @param codec              - the codec pointed at a valid SYN packet.
+     * @param maximumSegmentSize - the size of the largest data packet the receiver can receive.
+     * @return the accepted options.
+     */
+    public static ConnectionOptions fromSyn(AZRPCodec codec, int maximumSegmentSize) {
+        if (!codec.hasOptions()) {
+            return new ConnectionOptions(false, ChecksumAlgorithm.CRC32, null, null, -1, null, -1, -1, null, false, 0, 0, false, false,
+                    null, 0, null);
+        }
+
+        // A stream has no length, so the options about the whole message don't apply to it
+        final boolean stream = codec.getOption(AZRP.OPTION_STREAM) != null;
+
+        ChecksumAlgorithm checksumAlgorithm = ChecksumAlgorithm.CRC32;
+        final ByteBuffer checksumOption = codec.getOption(AZRP.OPTION_CHECKSUM);
+        if (checksumOption != null && checksumOption.remaining() == 1) {
+            final ChecksumAlgorithm requested = ChecksumAlgorithm.fromId(checksumOption.get(0) & 0xFF);
+            if (requested != null) {
+                checksumAlgorithm = requested;
+            }
+        }
+
+        DigestAlgorithm digestAlgorithm = null;
+        byte[] expectedDigest = null;
+        final ByteBuffer digestOption = codec.getOption(AZRP.OPTION_DIGEST);
+        if (digestOption != null && digestOption.remaining() > 1 && !stream) {
+            final DigestAlgorithm requested = DigestAlgorithm.fromId(digestOption.get(0) & 0xFF);
+            if (requested != null && digestOption.remaining() == 1 + requested.getLength()) {
+                digestAlgorithm = requested;
+                expectedDigest = new byte[requested.getLength()];
+                digestOption.get(1, expectedDigest);
+            }
+        }
+
+        long messageLength = -1;
+        final ByteBuffer lengthOption = codec.getOption(AZRP.OPTION_LENGTH);
+        if (lengthOption != null && lengthOption.remaining() == Long.BYTES && lengthOption.getLong(0) >= 0 && !stream) {
+            messageLength = lengthOption.getLong(0);
+        }
+
+        CompressionAlgorithm compressionAlgorithm = null;
+        long decompressedLength = -1;
+        final ByteBuffer compressionOption = codec.getOption(AZRP.OPTION_COMPRESSION);
+        if (compressionOption != null && compressionOption.remaining() == 1 + Long.BYTES
+                && compressionOption.getLong(1) >= 0 && !stream) {
+            compressionAlgorithm = CompressionAlgorithm.fromId(compressionOption.get(0) & 0xFF);
+            decompressedLength = compressionAlgorithm != null ? compressionOption.getLong(1) : -1;
+        }
+
+        // The sender gets the smaller of the requested segment size and the largest one the receiver can receive
+        int segmentSize = -1;
+        final ByteBuffer segmentSizeOption = codec.getOption(AZRP.OPTION_SEGMENT_SIZE);
+        if (segmentSizeOption != null && segmentSizeOption.remaining() == Integer.BYTES) {
+            final int requested = segmentSizeOption.getInt(0);
+            if (requested > AZRPCodec.CONTROL_PACKET_SIZE_IN_BYTES) {
+                segmentSize = Math.min(requested, maximumSegmentSize);
+            }
+        }
+
+        // The chunks are read back to verify them, which a compressed message or a stream doesn't allow, and the
+        // manifest is kept only in memory, so a transfer with a manifest can't be resumed
+        DigestAlgorithm manifestAlgorithm = null;
+        int chunkSize = 0;
+        byte[] manifestRoot = null;
+        final ByteBuffer manifestOption = codec.getOption(AZRP.OPTION_MANIFEST);
+        final long length = messageLength >= 0 ? messageLength : Integer.toUnsignedLong(codec.getLength());
+        if (manifestOption != null && manifestOption.remaining() > 1 + Integer.BYTES && compressionAlgorithm == null
+                && !stream && length > 0) {
+            final DigestAlgorithm requested = DigestAlgorithm.fromId(manifestOption.get(0) & 0xFF);
+            final int requestedChunkSize = manifestOption.getInt(1);
+            if (requested != null && manifestOption.remaining() == 1 + Integer.BYTES + requested.getLength()
+                    && requestedChunkSize >= ManifestReassemblyTarget.MINIMUM_CHUNK_SIZE
+                    && ManifestReassemblyTarget.getManifestLength(requested, requestedChunkSize, length)
+                    <= ManifestReassemblyTarget.MAXIMUM_MANIFEST_LENGTH) {
+                manifestAlgorithm = requested;
+                chunkSize = requestedChunkSize;
+                manifestRoot = new byte[requested.getLength()];
+                manifestOption.get(1 + Integer.BYTES, manifestRoot);
+                // The chunks cover the whole message, so the digest of the whole message is not verified
+                digestAlgorithm = null;
+                expectedDigest = null;
+            }
+        }
+
+        byte[] transferId = null;
+        final ByteBuffer resumeOption = codec.getOption(AZRP.OPTION_RESUME);
+        if (resumeOption != null && resumeOption.hasRemaining() && resumeOption.remaining() <= MAXIMUM_TRANSFER_ID_LENGTH && !stream
+                && manifestAlgorithm == null) {
+            transferId = new byte[resumeOption.remaining()];
+            resumeOption.get(0, transferId);
+        }
+
+        final boolean flowControl = codec.getOption(AZRP.OPTION_WINDOW) != null;
+
+        final ByteBuffer timestampOption = codec.getOption(AZRP.OPTION_TIMESTAMP);
+        final boolean timestamps = timestampOption != null && timestampOption.remaining() == AZRP.TIMESTAMP_LENGTH;
+
+        int fecGroupSize = 0;
+        int fecPayloadLength = 0;
+        // The lost data is rebuilt from the data already written, which can't be read back from a compressed message
+        // or from a stream whose messages have been handed over
+        final ByteBuffer fecOption = codec.getOption(AZRP.OPTION_FEC);
+        final int maximumPayloadLength = (segmentSize > 0 ? segmentSize : Math.min(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES, maximumSegmentSize))
+                - AZRP.PAYLOAD_OFFSET - (timestamps ? AZRP.TIMESTAMP_LENGTH : 0);
+        if (fecOption != null && fecOption.remaining() == 2 + Integer.BYTES && compressionAlgorithm == null && !stream
+                && (fecOption.get(0) & 0xFF) == AZRP.FEC_XOR) {
+            final int groupSize = fecOption.get(1) & 0xFF;
+            final int payloadLength = fecOption.getInt(2);
+            if (groupSize >= 2 && groupSize <= MAXIMUM_FEC_GROUP_SIZE && payloadLength > 0 && payloadLength <= maximumPayloadLength) {
+                fecGroupSize = groupSize;
+                fecPayloadLength = payloadLength;
+            }
+        }
+
+        return new ConnectionOptions(true, checksumAlgorithm, digestAlgorithm, expectedDigest, messageLength,
+                compressionAlgorithm, decompressedLength, segmentSize, transferId, flowControl, fecGroupSize, fecPayloadLength,
+                timestamps, stream, manifestAlgorithm, chunkSize, manifestRoot);
+    }
+
+    /**
+     * Writes the accepted options into the SYN-ACK packet started with AZRPCodec.beginSynAck().
+     *
+     * @param destination - the buffer of the SYN-ACK packet.
+     */
+    public void writeSynAckOptions(ByteBuffer destination) {
+        int lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_CHECKSUM);
+        destination.put((byte) this.checksumAlgorithm.getId());
+        AZRPCodec.endOption(destination, lengthPosition);
+
+        if (this.digestAlgorithm != null) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_DIGEST);
+            destination.put((byte) this.digestAlgorithm.getId());
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.messageLength >= 0) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_LENGTH);
+            destination.putLong(this.messageLength);
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.compressionAlgorithm != null) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_COMPRESSION);
+            destination.put((byte) this.compressionAlgorithm.getId());
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.segmentSize > 0) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_SEGMENT_SIZE);
+            destination.putInt(this.segmentSize);
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.fecGroupSize > 0) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_FEC);
+            destination.put((byte) AZRP.FEC_XOR);
+            destination.put((byte) this.fecGroupSize);
+            destination.putInt(this.fecPayloadLength);
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.stream) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_STREAM);
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+
+        if (this.manifestAlgorithm != null) {
+            lengthPosition = AZRPCodec.beginOption(destination, AZRP.OPTION_MANIFEST);
+            destination.put((byte) this.manifestAlgorithm.getId());
+            destination.putInt(this.chunkSize);
+            AZRPCodec.endOption(destination, lengthPosition);
+        }
+    }
+
+    /**
+     * Checks whether the SYN packet carried options, so the SYN-ACK packet must confirm them.
+     *
+     * @return true if the options were negotiated.
+     */
+    public boolean isNegotiated() {
+        return negotiated;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public byte[] getExpectedDigest() {
+        return expectedDigest;
+    }
+
+    /**
+     * Gets the length of the whole message: the 64-bit length from the LENGTH option if the sender sent it,
+     * otherwise the length field of the SYN packet as an unsigned 32-bit number.
+     *
+     * @param headerLength - the length field of the SYN packet.
+     * @return the length of the message in bytes.
+     */
+    public long getMessageLength(int headerLength) {
+        return this.messageLength >= 0 ? this.messageLength : Integer.toUnsignedLong(headerLength);
+    }
+
+    /**
+     * Gets the id of the transfer as a hexadecimal string, which can be used in file names.
+     *
+     * @return the id, or null if the transfer is not resumable.
+     */
+    public String getTransferId() {
+        return this.transferId != null ? HexFormat.of().formatHex(this.transferId) : null;
+    }
+
+    /**
+     * Checks whether the sender asked for flow control, so the SYN-ACK and ACK packets carry the receive window.
+     *
+     * @return true if the receive window is advertised.
+     */
+    public boolean isFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * Gets the number of data packets in a group protected by one parity packet.
+     *
+     * @return the size of the groups, or 0 if the sender doesn't send parity packets.
+     */
+    public int getFecGroupSize() {
+        return fecGroupSize;
+    }
+
+    /**
+     * Gets the length of the data in each data packet of a transfer with parity packets; only the last data packet
+     * of the message may be shorter.
+     *
+     * @return the length of the data in bytes.
+     */
+    public int getFecPayloadLength() {
+        return fecPayloadLength;
+    }
+
+    /**
+     * Checks whether the sender asked for timestamps: the data packets end with the clock of the sender,
+     * and the SYN-ACK and ACK packets echo it with the time the receiver held the packet.
+     *
+     * @return true if the SYN packet carried the TIMESTAMP option.
+     */
+    public boolean isTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Checks whether the session carries a persistent stream of framed messages, each one handed over as soon as
+     * it's complete, instead of one message of the length of the SYN packet.
+     *
+     * @return true if the SYN packet carried the STREAM option.
+     */
+    public boolean isStream() {
+        return stream;
+    }
+
+    /**
+     * Gets the algorithm of the chunk hashes in the manifest that precedes the message.
+     *
+     * @return the algorithm, or null if the message has no manifest.
+     */
+    public DigestAlgorithm getManifestAlgorithm() {
+        return manifestAlgorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public byte[] getManifestRoot() {
+        return manifestRoot;
+    }
+
+    /**
+     * Gets the length of the manifest that precedes the message in the data of the session.
+     *
+     * @param messageLength - the length of the message.
+     * @return the length of the manifest, or 0 if the message has no manifest.
+     */
+    public long getManifestLength(long messageLength) {
+        return this.manifestAlgorithm != null
+                ? ManifestReassemblyTarget.getManifestLength(this.manifestAlgorithm, this.chunkSize, messageLength)
+                : 0;
+    }
+
+    public CompressionAlgorithm getCompressionAlgorithm() {
+        return compressionAlgorithm;
+    }
+
+    public long getDecompressedLength() {
+        return decompressedLength;
+    }
+
+    /**
+     * Gets the size of the largest data packet the sender may send.
+     *
+     * @param maximumSegmentSize - the size of the largest data packet the receiver can receive.
+     * @return the negotiated segment size, or the smaller of 1500 bytes and the receiver's limit if it was not
+     * negotiated.
+     */
+    public int getSegmentSize(int maximumSegmentSize) {
+        return this.segmentSize > 0 ? this.segmentSize : Math.min(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES, maximumSegmentSize);
+    }
+}
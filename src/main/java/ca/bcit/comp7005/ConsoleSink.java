@@ -0,0 +1,38 @@
+package ca.bcit.comp7005;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prints the received text strings to the console, and only a summary of the received files.
+ * The files reassembled in memory are not saved; the files streamed to disk stay where they were written.
+ */
+public class ConsoleSink implements TransferSink {
+
+    private final PrintStream out;
+
+    public ConsoleSink() {
+        this(System.out);
+    }
+
+    /**
+     * @param out - the stream the messages are printed to.
+     */
+    public ConsoleSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void accept(CompletedTransfer transfer) {
+        if (transfer.target() instanceof FileReassemblyTarget fileTarget) {
+            this.out.println(transfer.key() + ": file " + fileTarget.getPath());
+        } else if (transfer.target() instanceof HeapReassemblyTarget heapTarget) {
+            byte[] data = heapTarget.getData();
+            if (transfer.isTextString()) {
+                this.out.println(transfer.key() + ": " + new String(data, StandardCharsets.UTF_8));
+            } else {
+                this.out.println(transfer.key() + ": " + data.length + " bytes of " + transfer.fileType());
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Calculates the digest of the whole message while the packets arrive, so it can be verified as soon as
+ * the last packet has been received, without reading the whole message again.
+ * The data is digested in order: a packet that extends the data received without gaps is digested straight from
+ * the receive buffer, and the data that arrived earlier out of order and becomes contiguous after it is read back
+ * from the reassembly target.
+ */
+public class ContiguousDigest {
+
+    // The size of the buffer the data that arrived out of order is read back into
+    private static final int READ_BACK_BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest messageDigest;
+    private final byte[] expectedDigest;
+
+    // The number of bytes from the start of the message that have been digested
+    private long digestedLength;
+
+    private ByteBuffer readBackBuffer;
+
+    /**
+     * @param algorithm      - the digest algorithm.
+     * @param expectedDigest - the digest of the whole message sent by the sender.
+     */
+    public ContiguousDigest(DigestAlgorithm algorithm, byte[] expectedDigest) {
+        this.messageDigest = algorithm.newMessageDigest();
+        this.expectedDigest = expectedDigest;
+    }
+
+    /**
+     * Digests the data of a packet that has just been written and the data after it that has become contiguous.
+     *
+     * @param offset        - the offset of the data of the packet in the whole message.
+     * @param data          - the data of the packet. The remaining bytes of the buffer are consumed.
+     * @param contiguousEnd - the number of bytes received from the start of the message without gaps.
+     * @param target        - the reassembly target the data that arrived out of order is read back from.
+     * @throws IOException - if the data could not be read back.
+     */
+    public void update(long offset, ByteBuffer data, long contiguousEnd, ReassemblyTarget target) throws IOException {
+        final long end = offset + data.remaining();
+        if (offset <= this.digestedLength && end > this.digestedLength) {
+            // Skip the part of the packet that has already been digested
+            data.position(data.position() + (int) (this.digestedLength - offset));
+            this.messageDigest.update(data);
+            this.digestedLength = end;
+        }
+
+        while (this.digestedLength < contiguousEnd) {
+            if (this.readBackBuffer == null) {
+                this.readBackBuffer = ByteBuffer.allocate(READ_BACK_BUFFER_SIZE);
+            }
+            final int length = (int) Math.min(READ_BACK_BUFFER_SIZE, contiguousEnd - this.digestedLength);
+            this.readBackBuffer.clear().limit(length);
+            target.read(this.digestedLength, this.readBackBuffer);
+            this.readBackBuffer.flip();
+            this.messageDigest.update(this.readBackBuffer);
+            this.digestedLength += length;
+        }
+    }
+
+    /**
+     * Compares the digest of the whole message with the digest sent by the sender.
+     * All the data of the message must have been digested.
+     *
+     * @return true if the digests are equal, false otherwise.
+     */
+    public boolean verify() {
+        return MessageDigest.isEqual(this.messageDigest.digest(), this.expectedDigest);
+    }
+
+    public long getDigestedLength() {
+        return digestedLength;
+    }
+}
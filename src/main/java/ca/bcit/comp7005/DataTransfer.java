@@ -4,207 +4,451 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class describes the data transfer from the sender.
+ * This class describes the data transfer from the senders.
+ * It receives all the datagrams on the port and hands them over to the session of the sender.
+ * Each session is processed on its own virtual thread, so the transfers of different senders run concurrently.
  */
 public class DataTransfer {
 
-    // The socket used to send and receive UDP datagrams
-    private final DatagramSocket datagramSocket;
+    // The transport used to send and receive UDP datagrams
+    private final Transport transport;
     private final int readDataTimeOut;
-    private int senderPort;
-    private InetAddress senderAddress;
+    private final TransferHandler transferHandler;
+    private final ReceiverConfig config;
+    private final MetricsRegistry metrics;
+
+    // Reads the headers of the received packets on the listener thread, and encodes the SYN-ACK packets that refuse
+    // a session
+    private final AZRPCodec codec = new AZRPCodec();
+    private final ByteBuffer controlBuffer = AZRPCodec.allocateControlBuffer();
+
+    // The session table: the sessions keyed by the sender's endpoint and initial sequence number,
+    // and the current session of each sender endpoint used to route data packets
+    private final Map<SessionKey, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<InetSocketAddress, Session> sessionsBySender = new ConcurrentHashMap<>();
+
+    private final ExecutorService sessionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // The platform threads that validate and write the data packets of large transfers, or null
+    private final ExecutorService placementExecutor;
+    // The deadlines of the sessions: idle timeouts, SYN-ACK retransmissions and delayed ACK packets
+    private final HashedWheelTimer timer = HashedWheelTimer.start("session-timers", TIMER_TICK_MILLISECONDS, TIMER_WHEEL_SIZE);
 
-    // The following properties are used for data transfer meta-data
-    private int initialSequenceNumber;
-    private int dataLength;
-    private String fileType;
+    private static final Logger logger = LoggerFactory.getLogger(DataTransfer.class);
 
-    // The following properties are used for statistics:
-    private int packetsSent;
-    private int packetsReceived;
+    // How long a completed session keeps acknowledging the packets retransmitted by the sender,
+    // e.g. when the last ACK packet was lost
+    private static final int COMPLETED_SESSION_LINGER_MILLISECONDS = 5000;
 
-    private static final Logger logger = LoggerFactory.getLogger(DataTransfer.class);
+    // The precision of the session timers and the number of buckets of the timing wheel
+    private static final int TIMER_TICK_MILLISECONDS = 5;
+    private static final int TIMER_WHEEL_SIZE = 512;
 
-    public DataTransfer(int readDataTimeOut, int port) throws SocketException {
+    /**
+     * @param readDataTimeOut - the time in milliseconds a session waits for the next packet from its sender.
+     * @param transport       - the transport used to send and receive UDP datagrams.
+     * @param transferHandler - the handler of the completed transfers.
+     * @param config          - the settings of the receiver.
+     * @param metrics         - the metrics the sessions are recorded in.
+     */
+    public DataTransfer(int readDataTimeOut, Transport transport, TransferHandler transferHandler, ReceiverConfig config,
+                        MetricsRegistry metrics) {
         this.readDataTimeOut = readDataTimeOut;
-        this.datagramSocket = new DatagramSocket(port);
-        logger.info("UDP socket created on port " + datagramSocket.getLocalPort());
+        this.transferHandler = transferHandler;
+        this.config = config;
+        this.metrics = metrics;
+        this.transport = transport;
+        this.placementExecutor = config.getPlacementWorkers() > 0
+                ? Executors.newFixedThreadPool(config.getPlacementWorkers(), Thread.ofPlatform().name("placement-", 0).daemon().factory())
+                : null;
+        logger.info("UDP socket created on port " + transport.getLocalPort());
     }
 
     /**
-     * Accepts a connection from the sender:
-     * 1. Receive a SYN packet from the sender
-     * 2. Send a SYN-ACK packet to the sender
-     * @throws IOException - if an I/O error occurs.
+     * @param readDataTimeOut - the time in milliseconds a session waits for the next packet from its sender.
+     * @param transport       - the transport used to send and receive UDP datagrams.
+     * @param transferHandler - the handler of the completed transfers.
+     * @param config          - the settings of the receiver.
      */
-    public void accept() throws IOException {
-
-        // Receive a SYN packet from the sender
-        AZRP synAzrp = this.receiveSyn();
-        // Send a SYN-ACK packet to the sender
-        this.acknowledgeConnectionRequest(synAzrp);
+    public DataTransfer(int readDataTimeOut, Transport transport, TransferHandler transferHandler, ReceiverConfig config) {
+        this(readDataTimeOut, transport, transferHandler, config, new MetricsRegistry());
     }
 
     /**
-     * Receives a SYN packet from the sender.
-     * @return the received SYN packet.
+     * Receives datagrams from the senders and routes them to their sessions until the transport is closed:
+     * 1. A valid SYN packet opens a new session or restarts the current session of the sender
+     * 2. Any other packet is queued to the current session of the sender
      * @throws IOException - if an I/O error occurs.
      */
-    private AZRP receiveSyn() throws IOException {
-        // Loop and wait for a valid SYN packet from the sender
-        this.datagramSocket.setSoTimeout(0); // Wait forever for the SYN packet
-        while (true) {
-            final DatagramPacket receivedDatagram = receiveDatagram();
-            AZRP synAzrp = AZRP.fromBytes(receivedDatagram.getData());
-
-            // Validate that the AZRP packet in the datagram is a SYN packet
-            if (synAzrp.isValidSyn()) {
-                this.senderPort = receivedDatagram.getPort();
-                this.senderAddress = receivedDatagram.getAddress();
-
-                this.initialSequenceNumber = synAzrp.getSequenceNumber();
-                this.dataLength = synAzrp.getLength();
+    public void listen() throws IOException {
+        while (!this.transport.isClosed()) {
+            final Datagram datagram;
+            try {
+                datagram = this.transport.receive();
+            } catch (IOException e) {
+                if (this.transport.isClosed()) {
+                    break; // The receiver is stopped
+                }
+                throw e;
+            }
 
-                this.setFileType(new String(synAzrp.getData()));
+            final InetSocketAddress sender = datagram.getSender();
+            this.codec.wrap(datagram.getBuffer());
+            if (!this.codec.hasHeader()) {
+                // Drop packets with a malformed header
+                this.metrics.getAggregate().onPacketDropped();
+                logger.error("Received malformed packet from " + sender);
+                datagram.release();
+                continue;
+            }
 
-                logger.debug("Received SYN packet from " + senderAddress + ":" + senderPort);
-                return synAzrp;
+            if (this.codec.isSYN()) {
+                this.receiveSyn(datagram, sender);
             } else {
-                // Drop invalid packets
-                logger.error("Invalid SYN packet received");
+                final Session session = this.sessionsBySender.get(sender);
+                if (session != null) {
+                    session.offer(datagram);
+                } else {
+                    // Drop packets that don't belong to any session
+                    this.metrics.getAggregate().onPacketDropped();
+                    logger.error("Received packet from " + sender + " without a session");
+                    datagram.release();
+                }
             }
         }
     }
 
     /**
-     * Sends a SYN-ACK packet to the sender.
-     * @param synAzrp - the SYN packet received from the sender.
-     * @throws IOException - if an I/O error occurs.
+     * Handles a SYN packet from the sender:
+     * 1. A retransmitted SYN packet is queued to its session, which responds with a SYN-ACK packet again
+     * 2. A SYN packet with a new initial sequence number replaces the current session of the sender
+     * The codec is pointed at the SYN packet.
+     * @param datagram - the datagram that contains the SYN packet.
+     * @param sender   - the sender of the packet.
      */
-    private void acknowledgeConnectionRequest(AZRP synAzrp) throws IOException {
-        // Send a SYN-ACK packet to the sender
-        final AZRP synAckAzrp = AZRP.generateSynAckPacket(synAzrp);
-        this.sendDatagram(synAckAzrp.toBytes());
-        logger.debug("Sent SYN-ACK packet to " + senderAddress + ":" + senderPort);
+    private void receiveSyn(Datagram datagram, InetSocketAddress sender) {
+        if (!this.codec.isValidSyn()) {
+            // Drop invalid packets
+            this.metrics.getAggregate().onChecksumFailure();
+            final TransferEvents.ChecksumFailure event = new TransferEvents.ChecksumFailure();
+            if (event.shouldCommit()) {
+                event.sender = sender.toString();
+                event.packetType = "SYN";
+                event.sequenceNumber = this.codec.getSequenceNumber();
+                event.length = this.codec.getLength();
+                event.commit();
+            }
+            logger.error("Invalid SYN packet received from " + sender);
+            datagram.release();
+            return;
+        }
+
+        final SessionKey key = new SessionKey(sender, this.codec.getSequenceNumber());
+        Session session = this.sessions.get(key);
+        final TransferEvents.SynReceived synEvent = new TransferEvents.SynReceived();
+        if (synEvent.shouldCommit()) {
+            synEvent.sender = sender.toString();
+            synEvent.initialSequenceNumber = key.initialSequenceNumber();
+            synEvent.length = Integer.toUnsignedLong(this.codec.getLength());
+            synEvent.retransmitted = session != null;
+            synEvent.commit();
+        }
+        if (session == null) {
+            final Session previousSession = this.sessionsBySender.get(sender);
+            if (previousSession != null) {
+                if (!previousSession.isCompleted()) {
+                    // Sender sent another SYN packet, so we have to start session again
+                    logger.error("Received SYN packet while waiting for data packet from " + sender + ". Start session again.");
+                    previousSession.getMetrics().onSessionExpired();
+                    final TransferEvents.SessionRestarted event = new TransferEvents.SessionRestarted();
+                    if (event.shouldCommit()) {
+                        event.sender = sender.toString();
+                        event.previousInitialSequenceNumber = previousSession.getKey().initialSequenceNumber();
+                        event.initialSequenceNumber = key.initialSequenceNumber();
+                        event.receivedBytes = previousSession.getMetrics().getBytesReceived();
+                        event.commit();
+                    }
+                }
+                this.removeSession(previousSession);
+            }
+
+            try {
+                session = Session.open(key, datagram.toAzrp(), ConnectionOptions.fromSyn(this.codec, this.config.getMaximumSegmentSize()), this, this.sessionExecutor);
+            } catch (AdmissionException e) {
+                this.metrics.getAggregate().onSessionRefused();
+                logger.debug("Refused SYN packet from " + key + ": " + e.getMessage());
+                this.refuse(sender, e.getRetryAfterMillis());
+                datagram.release();
+                return;
+            } catch (IOException e) {
+                logger.error("Could not open session for " + sender + ": " + e.getMessage());
+                datagram.release();
+                return;
+            }
+            this.sessions.put(key, session);
+            this.sessionsBySender.put(sender, session);
+            this.watchIdle(session, this.readDataTimeOut);
+            logger.debug("Received SYN packet from " + key);
+        }
+
+        // The session sends a SYN-ACK packet to the sender
+        session.offer(datagram);
     }
 
     /**
-     * After the connection is established, receives the data from the sender.
-     * @return the received data.
-     * @throws IOException - if an I/O error occurs.
+     * Answers a SYN packet that can't be admitted at the moment with a SYN-ACK packet that carries only the BACKOFF
+     * option, so the sender retries after the hinted time. A SYN packet without options is dropped instead,
+     * since its sender can't read the hint and retransmits the SYN packet anyway.
+     * The codec is pointed at the SYN packet.
+     * @param sender           - the sender of the SYN packet.
+     * @param retryAfterMillis - how long the sender should wait before it sends the SYN packet again.
      */
-    public byte[] readData() throws IOException {
-
-        this.datagramSocket.setSoTimeout(this.readDataTimeOut); // Timeout for data packets is limited unlike the SYN packet
-
-        final byte[] wholeData = new byte[this.dataLength]; // The whole message
-        int receivedDataLength = 0; // The length of the data received so far
+    private void refuse(InetSocketAddress sender, int retryAfterMillis) {
+        if (!this.codec.hasOptions()) {
+            return;
+        }
+        this.codec.beginSynAck(this.controlBuffer);
+        final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_BACKOFF);
+        this.controlBuffer.putInt(retryAfterMillis);
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        try {
+            this.sendDatagram(this.codec.finishControlPacket(this.controlBuffer), sender);
+        } catch (IOException e) {
+            logger.error("Error refusing SYN packet from " + sender + ": " + e.getMessage());
+        }
+    }
 
-        while(receivedDataLength < this.dataLength) {
-            // Receive a data packet from the sender
-            AZRP dataAzrp = receiveDataAzrp();
+    /**
+     * Called by a new session to create the reassembly target for its data.
+     * @param session - the new session.
+     * @return the reassembly target.
+     * @throws IOException - if the reassembly target could not be created.
+     */
+    ReassemblyTarget openTarget(Session session) throws IOException {
+        return this.transferHandler.openTarget(session);
+    }
 
-            // If the packet is not null, it's valid. Otherwise, it's invalid and we drop it
-            if (dataAzrp != null) {
-                // Insert this packet into the wholeData array at the correct position
-                final int dataPosition = dataAzrp.getSequenceNumber() - initialSequenceNumber;
-                System.arraycopy(dataAzrp.getData(), 0, wholeData, dataPosition, dataAzrp.getData().length);
-                receivedDataLength += dataAzrp.getData().length;
-                logger.info("Downloaded: " + receivedDataLength + "/" + dataLength + " bytes");
+    /**
+     * Called by a session when the whole message has been received, or the stream of a persistent session has ended.
+     * The session stays in the session table for a while, so it can acknowledge retransmitted packets.
+     * @param session - the completed session.
+     * @param target  - the reassembly target that contains the whole message,
+     *                  or null for a stream whose messages have been delivered one by one.
+     * @throws IOException - if an I/O error occurs while handling the data.
+     */
+    void complete(Session session, ReassemblyTarget target) throws IOException {
+        this.watchIdle(session, Math.min(this.readDataTimeOut, COMPLETED_SESSION_LINGER_MILLISECONDS));
+        if (target != null) {
+            this.transferHandler.onTransferComplete(session, target);
+        }
+    }
 
-                // Send an ACK packet to the sender
-                final boolean[] ackFlags = new boolean[]{false, true};
-                AZRP ackAzrp = new AZRP(new byte[0], dataAzrp.getSequenceNumber() + dataAzrp.getData().length, dataAzrp.getLength(), dataAzrp.getCheckSum(), ackFlags);
-                sendDatagram(ackAzrp.toBytes());
+    /**
+     * Called by a session that can't continue, e.g. a stream with a malformed frame.
+     * The session is closed and counted as expired; the sender has to open a new one.
+     * @param session - the session.
+     */
+    void abort(Session session) {
+        synchronized (session) {
+            if (session.isClosed()) {
+                return;
             }
+            session.getMetrics().onSessionExpired();
+            this.removeSession(session);
         }
-
-        return wholeData;
     }
 
     /**
-     * Receives a data AZRP packet from the sender and validates it.
-     * @return the received data packet or null if the packet is invalid.
-     * @throws IOException - if an I/O error occurs.
+     * Called by a persistent session when a message of its stream is complete.
+     * @param session  - the session of the stream.
+     * @param key      - the key of the message.
+     * @param fileType - the file extension of the message.
+     * @param target   - the reassembly target that contains the message.
+     * @throws IOException - if an I/O error occurs while handling the data.
      */
-    private AZRP receiveDataAzrp() throws IOException {
-        AZRP dataAzrp = null;
-
-        // Receive a data packet from the sender
-        DatagramPacket receivedDatagram = receiveDatagram();
-        // Validate that the AZRP packet in the datagram is an ACK packet with the correct sequence number
-        AZRP azrp = AZRP.fromBytes(receivedDatagram.getData());
-        if (azrp.isValidData()) {
-            dataAzrp = azrp;
-        } else if (azrp.isSYN() && azrp.isValidSyn()) {
-            // Sender sent another SYN packet, so we have to start session again
-            logger.error("Received SYN packet while waiting for data packet. Start session again.");
-
-            this.senderPort = receivedDatagram.getPort();
-            this.senderAddress = receivedDatagram.getAddress();
-            this.initialSequenceNumber = azrp.getSequenceNumber();
-            this.dataLength = azrp.getLength();
-            this.setFileType(new String(azrp.getData()));
-            // Send a SYN-ACK packet to the sender
-            this.acknowledgeConnectionRequest(azrp);
+    void deliver(Session session, SessionKey key, String fileType, ReassemblyTarget target) throws IOException {
+        this.transferHandler.onMessage(session, key, fileType, target);
+    }
 
-        } else {
-            // Drop the packet
-            logger.error("Received invalid data packet");
+    /**
+     * Calculates the receive window advertised to a sender: how many bytes it may send ahead of the data received
+     * without gaps. Each open session gets an equal share of the socket receive buffer, less the packets already
+     * waiting in its inbox, and the share shrinks as the sink stage fills up, so the senders slow down before
+     * the kernel starts dropping datagrams. With a memory budget, the share is also no larger than an equal share
+     * of the memory left in the budget, which the data kept ahead of the received data is reserved from.
+     * The window is never smaller than one data packet, so a sender is never stalled completely.
+     * @param queuedPackets - the number of packets waiting in the inbox of the session.
+     * @param segmentSize   - the size of the largest data packet of the session.
+     * @return the window in bytes.
+     */
+    long getReceiveWindow(int queuedPackets, int segmentSize) {
+        final long bufferSize = (long) this.config.getReceiveWindow() * segmentSize;
+        final int sessions = Math.max(1, this.sessionsBySender.size());
+        long share = bufferSize / sessions - (long) queuedPackets * segmentSize;
+        final MemoryBudget memoryBudget = this.getMemoryBudget();
+        if (memoryBudget != null) {
+            share = Math.min(share, (memoryBudget.getCapacity() - memoryBudget.getReserved()) / sessions);
         }
+        final double sinkLoad = Math.min(1, Math.max(0, this.transferHandler.getSinkLoad()));
+        return Math.max(segmentSize, (long) (share * (1 - sinkLoad)));
+    }
 
-        return dataAzrp;
+    /**
+     * Runs a task of a session after a delay, e.g. to flush a delayed ACK packet.
+     * The task runs on the timer thread, so it must only hand the work over to the session's executor.
+     * @param task        - the task.
+     * @param delayMillis - the delay in milliseconds.
+     * @return the timeout that cancels the task, or null if the receiver is stopping.
+     */
+    HashedWheelTimer.Timeout schedule(Runnable task, long delayMillis) {
+        try {
+            return this.timer.newTimeout(task, delayMillis);
+        } catch (RejectedExecutionException e) {
+            // The receiver is stopping
+            return null;
+        }
     }
 
     /**
-     * Receives a UDP datagram.
-     * @return the received datagram packet.
-     * @throws IOException - if an I/O error occurs.
+     * Sets the idle timeout of the session, replacing the previous one.
+     * @param session     - the session.
+     * @param delayMillis - the time in milliseconds after which the session is checked.
      */
-    private DatagramPacket receiveDatagram() throws IOException {
-        byte[] packetBuffer = new byte[AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES];
-        DatagramPacket packet = new DatagramPacket(packetBuffer, packetBuffer.length);
-        this.datagramSocket.receive(packet);
+    private void watchIdle(Session session, long delayMillis) {
+        synchronized (session) {
+            session.setIdleTimeout(this.schedule(() -> this.checkIdle(session), delayMillis));
+        }
+    }
 
-        this.packetsReceived++;
+    /**
+     * Called by the timer when the idle timeout of the session expires.
+     * Closes the session if it has not received any packets during the timeout, otherwise checks it again when the
+     * timeout counted from the last packet expires. The other sessions and the listener are not affected.
+     * @param session - the session.
+     */
+    private void checkIdle(Session session) {
+        synchronized (session) {
+            if (session.isClosed()) {
+                return;
+            }
+            // The completed session acknowledges the retransmitted packets for a while
+            final long timeout = session.isCompleted()
+                    ? Math.min(this.readDataTimeOut, COMPLETED_SESSION_LINGER_MILLISECONDS)
+                    : this.readDataTimeOut;
+            final long idleMillis = session.getIdleMillis(System.nanoTime());
+            if (idleMillis < timeout) {
+                this.watchIdle(session, timeout - idleMillis);
+                return;
+            }
+            if (!session.isCompleted()) {
+                logger.error("Message data was not received from " + session.getKey());
+                session.getMetrics().onSessionExpired();
+            }
+            this.removeSession(session);
+        }
+    }
 
-        return packet;
+    /**
+     * Closes the session and removes it from the session table.
+     * @param session - the session.
+     */
+    private void removeSession(Session session) {
+        session.close();
+        this.sessions.remove(session.getKey(), session);
+        this.sessionsBySender.remove(session.getKey().sender(), session);
+        this.metrics.closeSession(session.getKey());
     }
 
     /**
      * Sends a UDP datagram.
-     * @param data - the data to be sent.
+     * @param data     - the remaining bytes of the buffer are sent.
+     * @param receiver - the address and port of the receiver of the datagram.
      * @throws IOException - if an I/O error occurs.
      */
-    private void sendDatagram(byte[] data) throws IOException {
-        DatagramPacket packet = new DatagramPacket(
-                data, data.length, this.senderAddress, this.senderPort
-        );
-        datagramSocket.send(packet);
+    void sendDatagram(ByteBuffer data, InetSocketAddress receiver) throws IOException {
+        this.transport.send(data, receiver);
+    }
 
-        this.packetsSent++;
+    /**
+     * Stops listening by closing the transport. Sessions that are being processed are completed.
+     */
+    public void stop() {
+        this.transport.close();
     }
 
     /**
-     * Closes the socket.
+     * Closes the socket and waits for the sessions that are being processed.
      */
     public void close() {
-        this.datagramSocket.close();
+        this.stop();
+        this.timer.stop();
+        // Incomplete sessions discard their data
+        for (Session session : this.sessions.values()) {
+            this.removeSession(session);
+        }
+        this.sessionExecutor.shutdown();
+        try {
+            if (!this.sessionExecutor.awaitTermination(this.readDataTimeOut, TimeUnit.MILLISECONDS)) {
+                logger.error("Sessions were not completed before the receiver stopped");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.placementExecutor != null) {
+            this.placementExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Gets the time a session waits for the next packet from its sender before it's closed.
+     * @return the time in milliseconds.
+     */
+    int getReadDataTimeOut() {
+        return this.readDataTimeOut;
+    }
+
+    /**
+     * Gets the budget the sessions reserve the memory they fill as packets arrive from.
+     * @return the budget, or null if the memory is not limited.
+     */
+    MemoryBudget getMemoryBudget() {
+        return this.transferHandler.getMemoryBudget();
     }
 
-    public String getFileType() {
-        return fileType;
+    /**
+     * Gets the threads that validate and write the data packets of large transfers.
+     * @return the executor, or null if the packets are processed on the threads of the sessions.
+     */
+    Executor getPlacementExecutor() {
+        return placementExecutor;
+    }
+
+    public ReceiverConfig getConfig() {
+        return config;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
     }
 
-    public void setFileType(String mimeType) throws IOException {
+    /**
+     * Maps the MIME type from the SYN packet to a file extension.
+     * @param mimeType - the MIME type.
+     * @return the file extension or "textstring" if the MIME type is not supported.
+     * @throws IOException - if the MIME type is missing.
+     */
+    public static String toFileType(String mimeType) throws IOException {
         if (mimeType != null) {
 
             // Custom mapping for common MIME types
@@ -212,7 +456,7 @@ public class DataTransfer {
 
             // Extract the file extension from the MIME type
             String defaultExtension = "textstring"; // Default extension if not found in the mapping
-            this.fileType = mimeToExtension.getOrDefault(mimeType.trim(), defaultExtension);
+            return mimeToExtension.getOrDefault(mimeType.trim(), defaultExtension);
         } else {
             throw new IOException("The file type could not be determined");
         }
@@ -230,8 +474,4 @@ public class DataTransfer {
         mimeToExtension.put("application/vnd.ms-excel", "xls");
         return mimeToExtension;
     }
-
-    public String getStatistics() {
-        return "Packets sent: " + this.packetsSent + "; packets received: " + this.packetsReceived;
-    }
 }
@@ -0,0 +1,109 @@
+package ca.bcit.comp7005;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A received UDP datagram that contains an AZRP packet.
+ * The packet is read in place from the receive buffer with an AZRPCodec, so the data of the packet is copied
+ * only when it's written into its destination.
+ * The datagram must be released when it's processed, so its buffer can be reused.
+ */
+public class Datagram {
+
+    private final ByteBuffer buffer;
+    private final InetSocketAddress sender;
+    private final BufferPool bufferPool;
+
+    // The time the datagram was received, for the hold time echoed in the ACK packets and the jitter
+    private final long receivedNanos;
+
+    // The validation and placement of the packet on a placement worker: whether it's still running,
+    // whether the checksum was found valid and whether the data was written into the reassembly target
+    private volatile boolean placementPending;
+    private boolean checksumVerified;
+    private boolean placed;
+
+    /**
+     * @param buffer     - the received bytes from position 0 to the limit of the buffer.
+     * @param sender     - the address and port of the sender.
+     * @param bufferPool - the pool the buffer is returned to when the datagram is released, or null.
+     */
+    public Datagram(ByteBuffer buffer, InetSocketAddress sender, BufferPool bufferPool) {
+        this.buffer = buffer;
+        this.sender = sender;
+        this.bufferPool = bufferPool;
+        this.receivedNanos = System.nanoTime();
+    }
+
+    /**
+     * Deserializes the AZRP packet from the datagram.
+     * It copies the packet, so it's used only for the packets that open a session.
+     *
+     * @return the AZRP packet.
+     */
+    public AZRP toAzrp() {
+        // The copy is padded with zeros like a whole receive buffer
+        final byte[] bytes = new byte[Math.max(this.buffer.limit(), AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES)];
+        this.buffer.get(0, bytes, 0, this.buffer.limit());
+        return AZRP.fromBytes(bytes);
+    }
+
+    /**
+     * Gets the received bytes. The buffer is positioned at the start of the packet.
+     *
+     * @return the receive buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public InetSocketAddress getSender() {
+        return sender;
+    }
+
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * Marks the datagram as handed over to a placement worker. Its session doesn't process it until it's placed.
+     */
+    public void beginPlacement() {
+        this.placementPending = true;
+    }
+
+    /**
+     * Records the outcome of the placement and hands the datagram back to its session.
+     *
+     * @param checksumVerified - whether the packet is a data packet with a valid checksum.
+     * @param placed           - whether the data of the packet was written into the reassembly target.
+     */
+    public void finishPlacement(boolean checksumVerified, boolean placed) {
+        this.checksumVerified = checksumVerified;
+        this.placed = placed;
+        this.placementPending = false;
+    }
+
+    public boolean isPlacementPending() {
+        return placementPending;
+    }
+
+    public boolean isChecksumVerified() {
+        return checksumVerified;
+    }
+
+    public boolean isPlaced() {
+        return placed;
+    }
+
+    /**
+     * Returns the buffer of the datagram to its pool.
+     * The datagram must not be used after it's released.
+     */
+    public void release() {
+        if (this.bufferPool != null) {
+            this.bufferPool.release(this.buffer);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * The transport built on a DatagramChannel.
+ * The datagrams are received into direct buffers taken from a pool, so receiving doesn't allocate a buffer per datagram
+ * and the payload is copied only once: from the receive buffer into its destination.
+ */
+public class DatagramChannelTransport implements Transport {
+
+    private final DatagramChannel datagramChannel;
+    private final BufferPool bufferPool;
+
+    /**
+     * @param port       - the port to listen on.
+     * @param bufferPool - the pool of the receive buffers.
+     * @throws IOException - if the channel could not be opened.
+     */
+    public DatagramChannelTransport(int port, BufferPool bufferPool) throws IOException {
+        this(port, bufferPool, false);
+    }
+
+    /**
+     * @param port       - the port to listen on.
+     * @param bufferPool - the pool of the receive buffers.
+     * @param reusePort  - whether other channels can be bound to the same port with SO_REUSEPORT,
+     *                   so the kernel spreads the senders over them.
+     * @throws IOException - if the channel could not be opened or SO_REUSEPORT is not supported.
+     */
+    public DatagramChannelTransport(int port, BufferPool bufferPool, boolean reusePort) throws IOException {
+        this.datagramChannel = DatagramChannel.open();
+        try {
+            if (reusePort) {
+                if (!this.datagramChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    throw new IOException("SO_REUSEPORT is not supported on this platform");
+                }
+                this.datagramChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            this.datagramChannel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            this.datagramChannel.close();
+            throw e;
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public Datagram receive() throws IOException {
+        final ByteBuffer buffer = this.bufferPool.acquire();
+        try {
+            final InetSocketAddress sender = (InetSocketAddress) this.datagramChannel.receive(buffer);
+            buffer.flip();
+            return new Datagram(buffer, sender, this.bufferPool);
+        } catch (IOException e) {
+            this.bufferPool.release(buffer);
+            throw e;
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress receiver) throws IOException {
+        this.datagramChannel.send(data, receiver);
+    }
+
+    @Override
+    public int setReceiveBufferSize(int size) throws IOException {
+        this.datagramChannel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+        return this.datagramChannel.getOption(StandardSocketOptions.SO_RCVBUF);
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.datagramChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !this.datagramChannel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.datagramChannel.close();
+        } catch (IOException e) {
+            // The channel is closed anyway
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * The transport built on a DatagramSocket. A new buffer is allocated for every received datagram.
+ */
+public class DatagramSocketTransport implements Transport {
+
+    // The socket used to send and receive UDP datagrams
+    private final DatagramSocket datagramSocket;
+
+    // The size of the buffer allocated for each datagram: the largest packet the receiver accepts
+    private final int bufferSize;
+
+    /**
+     * @param port       - the port to listen on.
+     * @param bufferSize - the size of the largest datagram that can be received.
+     * @throws SocketException - if the socket could not be opened.
+     */
+    public DatagramSocketTransport(int port, int bufferSize) throws SocketException {
+        this.datagramSocket = new DatagramSocket(port);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param port - the port to listen on.
+     * @throws SocketException - if the socket could not be opened.
+     */
+    public DatagramSocketTransport(int port) throws SocketException {
+        this(port, AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES);
+    }
+
+    @Override
+    public Datagram receive() throws IOException {
+        byte[] packetBuffer = new byte[this.bufferSize];
+        DatagramPacket packet = new DatagramPacket(packetBuffer, packetBuffer.length);
+        this.datagramSocket.receive(packet);
+        return new Datagram(
+                ByteBuffer.wrap(packetBuffer, 0, packet.getLength()).slice(),
+                (InetSocketAddress) packet.getSocketAddress(),
+                null
+        );
+    }
+
+    @Override
+    public void send(ByteBuffer data, InetSocketAddress receiver) throws IOException {
+        final byte[] bytes;
+        final int offset;
+        if (data.hasArray()) {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+        } else {
+            bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            offset = 0;
+        }
+        DatagramPacket packet = new DatagramPacket(bytes, offset, data.remaining(), receiver);
+        this.datagramSocket.send(packet);
+    }
+
+    @Override
+    public int setReceiveBufferSize(int size) throws IOException {
+        this.datagramSocket.setReceiveBufferSize(size);
+        return this.datagramSocket.getReceiveBufferSize();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.datagramSocket.getLocalPort();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.datagramSocket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        this.datagramSocket.close();
+    }
+}
@@ -0,0 +1,110 @@
+package ca.bcit.comp7005;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * The algorithms of the digest of the whole message that can be negotiated in the SYN packet.
+ */
+public enum DigestAlgorithm {
+
+    SHA_256(1, 32),
+    // A fast check against corruption, but not against tampering
+    CRC32C(2, 4);
+
+    // The value of the algorithm in the DIGEST option and the length of the digest in bytes
+    private final int id;
+    private final int length;
+
+    DigestAlgorithm(int id, int length) {
+        this.id = id;
+        this.length = length;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Creates a new digest state of the algorithm.
+     *
+     * @return the digest state.
+     */
+    public MessageDigest newMessageDigest() {
+        if (this == CRC32C) {
+            return new Crc32cMessageDigest();
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Finds the algorithm by its value in the DIGEST option.
+     *
+     * @param id - the value of the algorithm.
+     * @return the algorithm or null if it's not supported.
+     */
+    public static DigestAlgorithm fromId(int id) {
+        for (DigestAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * CRC32C as a message digest, so both algorithms are updated and verified the same way.
+     * The digest is the checksum in big-endian byte order.
+     */
+    private static class Crc32cMessageDigest extends MessageDigest {
+
+        private final CRC32C crc32c = new CRC32C();
+
+        Crc32cMessageDigest() {
+            super("CRC32C");
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            this.crc32c.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            this.crc32c.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            this.crc32c.update(input);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            final int value = (int) this.crc32c.getValue();
+            this.crc32c.reset();
+            return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected void engineReset() {
+            this.crc32c.reset();
+        }
+    }
+}
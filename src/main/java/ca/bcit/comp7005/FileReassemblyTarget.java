@@ -0,0 +1,176 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reassembles the whole message straight into a file.
+ * The data of each packet is written at its offset into a pre-sized file, so the memory used by the session
+ * doesn't depend on the size of the message. The file is written under a temporary name and
+ * renamed when the last packet has been written.
+ * The partial file of a resumable transfer is kept when the session is closed, so the transfer can be resumed by
+ * a later session.
+ */
+public class FileReassemblyTarget implements ReassemblyTarget {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileReassemblyTarget.class);
+
+    // The suffix of the file while the message is being received
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    private final Path path;
+    private final Path partialPath;
+    private final FileChannel fileChannel;
+
+    // Whether the partial file is kept when the session is closed, and whether it existed before it was opened
+    private final boolean resumable;
+    private final boolean existing;
+
+    /**
+     * Creates the file and sets its size to the length of the whole message.
+     *
+     * @param path       - the path of the file.
+     * @param dataLength - the length of the whole message.
+     * @throws IOException - if the file could not be created.
+     */
+    public FileReassemblyTarget(Path path, long dataLength) throws IOException {
+        this.path = path;
+        this.partialPath = path.resolveSibling(path.getFileName() + PARTIAL_FILE_SUFFIX);
+        this.resumable = false;
+        this.existing = false;
+        this.fileChannel = FileChannel.open(this.partialPath,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Writing the last byte sets the size of the file without writing the rest of it
+        if (dataLength > 0) {
+            this.fileChannel.write(ByteBuffer.allocate(1), dataLength - 1);
+        }
+    }
+
+    /**
+     * Opens the partial file of a resumable transfer, or creates it if it doesn't exist,
+     * and sets its size to the length of the whole message.
+     *
+     * @param path        - the path of the file.
+     * @param partialPath - the path of the file while the message is being received.
+     * @param dataLength  - the length of the whole message.
+     * @throws IOException - if the file could not be opened.
+     */
+    public FileReassemblyTarget(Path path, Path partialPath, long dataLength) throws IOException {
+        this.path = path;
+        this.partialPath = partialPath;
+        this.resumable = true;
+        this.existing = Files.exists(partialPath);
+        this.fileChannel = FileChannel.open(this.partialPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (this.fileChannel.size() > dataLength) {
+            this.fileChannel.truncate(dataLength);
+        } else if (this.fileChannel.size() < dataLength) {
+            this.fileChannel.write(ByteBuffer.allocate(1), dataLength - 1);
+        }
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer data) throws IOException {
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += this.fileChannel.write(data, position);
+        }
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true; // The positional writes of a file channel don't share a position
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException {
+        long position = offset;
+        while (destination.hasRemaining()) {
+            final int read = this.fileChannel.read(destination, position);
+            if (read < 0) {
+                throw new IOException("Read past the end of " + this.partialPath);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void complete() throws IOException {
+        this.fileChannel.close();
+        Files.move(this.partialPath, this.path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the data written so far to the storage device, so it survives a crash of the receiver.
+     *
+     * @throws IOException - if an I/O error occurs.
+     */
+    public void force() throws IOException {
+        this.fileChannel.force(false);
+    }
+
+    /**
+     * Closes the file. The partial file of a resumable transfer is kept, other partial files are deleted.
+     */
+    @Override
+    public void abort() {
+        if (this.resumable) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {
+                logger.error("Error closing partial file " + this.partialPath + ": " + e.getMessage());
+            }
+            return;
+        }
+        this.discard();
+    }
+
+    /**
+     * Closes and deletes the partial file, even if the transfer is resumable.
+     */
+    public void discard() {
+        try {
+            this.fileChannel.close();
+            Files.deleteIfExists(this.partialPath);
+        } catch (IOException e) {
+            logger.error("Error deleting partial file " + this.partialPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the path of the file.
+     *
+     * @return the path of the file.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    public Path getPartialPath() {
+        return partialPath;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Checks whether the partial file of a resumable transfer existed before it was opened,
+     * so the data of an earlier session may be in it.
+     *
+     * @return true if the file existed.
+     */
+    public boolean isExisting() {
+        return existing;
+    }
+}
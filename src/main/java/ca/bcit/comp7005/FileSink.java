@@ -0,0 +1,63 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Saves the received files into a directory and logs the received text strings.
+ */
+public class FileSink implements TransferSink {
+    private static final Logger logger = LoggerFactory.getLogger(FileSink.class);
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    private final String directoryPath;
+
+    /**
+     * @param directoryPath - the path to the directory where the received files are saved.
+     */
+    public FileSink(String directoryPath) {
+        this.directoryPath = directoryPath;
+    }
+
+    @Override
+    public void accept(CompletedTransfer transfer) throws IOException {
+        if (transfer.target() instanceof FileReassemblyTarget fileTarget) {
+            // The file has been written while the packets were arriving
+            logger.info("Received file: " + fileTarget.getPath() + "\n");
+        } else if (transfer.target() instanceof HeapReassemblyTarget heapTarget) {
+            byte[] data = heapTarget.getData();
+
+            if (transfer.isTextString()) {
+                logger.info("Received message: " + new String(data) + "\n");
+            } else {
+                // If the file type is different, it's a file and we save it
+                Path path = getFilePath(this.directoryPath, transfer.key(), transfer.fileType());
+                Files.write(path, data);
+                logger.info("Received file: " + path + "\n");
+            }
+        }
+    }
+
+    /**
+     * Gets the path of the file for the data of a session.
+     * @param directoryPath - the directory of the received files.
+     * @param key           - the key of the session.
+     * @param fileType      - the file extension.
+     * @return the path of the file.
+     */
+    public static Path getFilePath(String directoryPath, SessionKey key, String fileType) {
+        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMATTER);
+
+        // The initial sequence number keeps the names of files received in the same second unique
+        String fileName = timestamp + "_" + Integer.toUnsignedString(key.initialSequenceNumber());
+        return Paths.get(directoryPath, fileName + "." + fileType);
+    }
+}
@@ -0,0 +1,268 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel for the deadlines of the sessions: idle timeouts, SYN-ACK retransmissions and
+ * delayed ACK packets.
+ * The wheel is an array of buckets, each one a linked list of the timeouts that expire when the wheel points at it.
+ * Adding and cancelling a timeout costs O(1) no matter how many timeouts are pending,
+ * and all of them are expired by one thread that advances the wheel every tick.
+ * The timeouts expire up to one tick late, and their tasks run on the timer thread, so they must be short:
+ * a session only sets a flag and schedules itself on its executor.
+ */
+public class HashedWheelTimer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // The timeouts added or cancelled by other threads, moved into the wheel by the timer thread on the next tick
+    private final Queue<Timeout> addedTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private final long startNanos;
+    private Thread worker;
+    private volatile boolean stopped;
+
+    // The number of ticks since the timer started; used only by the timer thread
+    private long tick;
+
+    /**
+     * Creates the timer and starts its thread.
+     *
+     * @param name       - the name of the timer thread.
+     * @param tickMillis - the time between the ticks of the wheel, i.e. the precision of the timer.
+     * @param wheelSize  - the number of buckets; rounded up to a power of two.
+     * @return the running timer.
+     */
+    public static HashedWheelTimer start(String name, long tickMillis, int wheelSize) {
+        final HashedWheelTimer timer = new HashedWheelTimer(tickMillis, wheelSize);
+        // The thread is started once the timer is fully constructed
+        timer.worker = Thread.ofPlatform().name(name).daemon().start(timer::run);
+        return timer;
+    }
+
+    private HashedWheelTimer(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        final int size = wheelSize <= 1 ? 1 : Integer.highestOneBit((wheelSize - 1) << 1);
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds a timeout.
+     *
+     * @param task        - the task run by the timer thread when the timeout expires.
+     * @param delayMillis - the delay in milliseconds.
+     * @return the timeout that can be cancelled.
+     * @throws RejectedExecutionException - if the timer has been stopped.
+     */
+    public Timeout newTimeout(Runnable task, long delayMillis) {
+        if (this.stopped) {
+            throw new RejectedExecutionException("The timer has been stopped");
+        }
+        final long deadline = System.nanoTime() - this.startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        final Timeout timeout = new Timeout(this, task, deadline);
+        this.addedTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the timer. The pending timeouts never expire.
+     */
+    public void stop() {
+        this.stopped = true;
+        LockSupport.unpark(this.worker);
+    }
+
+    private void run() {
+        while (!this.stopped) {
+            this.waitForNextTick();
+            if (this.stopped) {
+                break;
+            }
+            this.removeCancelledTimeouts();
+            this.addNewTimeouts();
+            this.wheel[(int) (this.tick & this.mask)].expire();
+            this.tick++;
+        }
+    }
+
+    /**
+     * Sleeps until the end of the current tick, so the timeouts of the tick have all passed their deadlines.
+     */
+    private void waitForNextTick() {
+        final long deadline = this.tickNanos * (this.tick + 1);
+        while (!this.stopped) {
+            final long sleepNanos = deadline - (System.nanoTime() - this.startNanos);
+            if (sleepNanos <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+    }
+
+    /**
+     * Puts the timeouts added since the previous tick into their buckets.
+     */
+    private void addNewTimeouts() {
+        Timeout timeout;
+        while ((timeout = this.addedTimeouts.poll()) != null) {
+            if (timeout.state.get() != Timeout.PENDING) {
+                continue;
+            }
+            final long expirationTick = timeout.deadline / this.tickNanos;
+            timeout.remainingRounds = (expirationTick - this.tick) / this.wheel.length;
+            // A timeout whose tick has already passed expires on this tick
+            final long ticks = Math.max(expirationTick, this.tick);
+            this.wheel[(int) (ticks & this.mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Unlinks the timeouts cancelled since the previous tick from their buckets.
+     */
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = this.cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A pending task of the timer.
+     */
+    public static class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        // The time of the expiration relative to the start of the timer
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // The position of the timeout in the wheel; used only by the timer thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the timeout if it has not expired yet. The timeout is removed from the wheel on the next tick.
+         *
+         * @return true if the timeout was cancelled, false if it had already expired or been cancelled.
+         */
+        public boolean cancel() {
+            if (!this.state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            this.timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!this.state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                this.task.run();
+            } catch (RuntimeException e) {
+                // A failing task must not stop the timer for the other sessions
+                logger.error("Error running a timer task: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of timeouts, so a cancelled timeout is unlinked in O(1).
+     */
+    private static class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (this.head == null) {
+                this.head = timeout;
+                this.tail = timeout;
+            } else {
+                this.tail.next = timeout;
+                timeout.previous = this.tail;
+                this.tail = timeout;
+            }
+        }
+
+        /**
+         * Expires the timeouts of the current round and counts down the rounds of the others.
+         */
+        void expire() {
+            Timeout timeout = this.head;
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    this.remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    this.remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            final Timeout next = timeout.next;
+            if (timeout.previous != null) {
+                timeout.previous.next = next;
+            }
+            if (next != null) {
+                next.previous = timeout.previous;
+            }
+            if (timeout == this.head) {
+                this.head = next;
+            }
+            if (timeout == this.tail) {
+                this.tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ca.bcit.comp7005;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles the whole message in a byte array.
+ */
+public class HeapReassemblyTarget implements ReassemblyTarget {
+
+    // The longest message that fits into a Java array
+    public static final long MAXIMUM_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final byte[] wholeData;
+
+    // The budget the array has been reserved from, or null, and whether the array has been returned to it
+    private final MemoryBudget budget;
+    private boolean released;
+
+    /**
+     * @param dataLength - the length of the whole message.
+     */
+    public HeapReassemblyTarget(int dataLength) {
+        this(dataLength, null);
+    }
+
+    /**
+     * @param dataLength - the length of the whole message.
+     * @param budget     - the budget the length of the message has been reserved from, or null.
+     */
+    public HeapReassemblyTarget(int dataLength, MemoryBudget budget) {
+        this(new byte[dataLength], budget);
+    }
+
+    /**
+     * Wraps a message that has already been reassembled, e.g. a message cut out of a stream.
+     *
+     * @param wholeData - the whole message.
+     */
+    public HeapReassemblyTarget(byte[] wholeData) {
+        this(wholeData, null);
+    }
+
+    /**
+     * Wraps a message that has already been reassembled, e.g. a message cut out of a stream.
+     *
+     * @param wholeData - the whole message.
+     * @param budget    - the budget the length of the message has been reserved from, or null.
+     */
+    public HeapReassemblyTarget(byte[] wholeData, MemoryBudget budget) {
+        this.wholeData = wholeData;
+        this.budget = budget;
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer data) {
+        data.get(this.wholeData, (int) offset, data.remaining());
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true; // The packets are copied into different parts of the array
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) {
+        destination.put(this.wholeData, (int) offset, destination.remaining());
+    }
+
+    @Override
+    public void complete() {
+        // Nothing to do: the data stays in memory
+    }
+
+    @Override
+    public void abort() {
+        // The array is garbage collected with the session
+        this.release();
+    }
+
+    @Override
+    public synchronized void release() {
+        if (this.budget != null && !this.released) {
+            this.released = true;
+            this.budget.release(this.wholeData.length);
+        }
+    }
+
+    /**
+     * Gets the whole message.
+     *
+     * @return the whole message.
+     */
+    public byte[] getData() {
+        return wholeData;
+    }
+}
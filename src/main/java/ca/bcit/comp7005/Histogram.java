@@ -0,0 +1,117 @@
+package ca.bcit.comp7005;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative values with a fixed set of buckets, so recording a value never allocates.
+ * Small values are counted exactly; larger values are counted in buckets that split each power of two into four,
+ * so the percentiles are accurate to within a quarter of the value.
+ * The buckets can be striped over several arrays, so threads that record values at the same time
+ * don't contend on the same counters.
+ */
+public class Histogram {
+
+    // Each power of two is split into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param stripes - the number of arrays of buckets; rounded up to a power of two.
+     */
+    public Histogram(int stripes) {
+        final int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit((stripes - 1) << 1);
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value - the value.
+     */
+    public void record(long value) {
+        final long nonNegative = Math.max(0, value);
+        final AtomicLongArray stripe = this.stripes[(int) Thread.currentThread().threadId() & this.stripeMask];
+        stripe.incrementAndGet(bucketOf(nonNegative));
+        this.sum.add(nonNegative);
+        this.max.accumulate(nonNegative);
+    }
+
+    /**
+     * Takes a snapshot of the histogram. Values recorded while the snapshot is taken may be partly included.
+     *
+     * @return the snapshot.
+     */
+    public HistogramSnapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : this.stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final long bucketCount = stripe.get(i);
+                counts[i] += bucketCount;
+                count += bucketCount;
+            }
+        }
+        if (count == 0) {
+            return new HistogramSnapshot(0, 0, 0, 0, 0, 0);
+        }
+        // The percentiles can't be higher than the largest value
+        final long max = this.max.get();
+        return new HistogramSnapshot(
+                count,
+                this.sum.sum() / count,
+                max,
+                Math.min(max, percentile(counts, count, 0.50)),
+                Math.min(max, percentile(counts, count, 0.90)),
+                Math.min(max, percentile(counts, count, 0.99))
+        );
+    }
+
+    /**
+     * Finds the value below which the fraction of the recorded values falls.
+     *
+     * @return the highest value of the bucket that contains the percentile.
+     */
+    private static long percentile(long[] counts, long count, double fraction) {
+        final long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        final long lowestValue = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lowestValue + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,20 @@
+package ca.bcit.comp7005;
+
+/**
+ * The state of a histogram at one point in time. The percentiles are the highest values of their buckets.
+ *
+ * @param count - the number of recorded values.
+ * @param mean  - the mean of the recorded values.
+ * @param max   - the largest recorded value.
+ * @param p50   - the median.
+ * @param p90   - the 90th percentile.
+ * @param p99   - the 99th percentile.
+ */
+public record HistogramSnapshot(long count, long mean, long max, long p50, long p90, long p99) {
+
+    @Override
+    public String toString() {
+        return "count=" + this.count + " mean=" + this.mean + " p50=" + this.p50 + " p90=" + this.p90
+                + " p99=" + this.p99 + " max=" + this.max;
+    }
+}
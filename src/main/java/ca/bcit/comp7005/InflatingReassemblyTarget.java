@@ -0,0 +1,281 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses a compressed message while its packets arrive and writes the decompressed data into another target.
+ * The compressed data that extends the data received without gaps is inflated straight from the receive buffer.
+ * Only the packets that arrive out of order are copied and kept until the gap before them is filled, and only as far
+ * ahead of the inflated data as the capacity of the target: a packet beyond it is dropped and retransmitted by the
+ * sender, so neither the whole compressed message nor a second copy of the decompressed one is kept.
+ * The kept data is reserved from the memory budget of the receiver, if there is one, until the gap is filled.
+ * The inflater can't go back, so once the data can't be inflated the target fails for good: every later write fails,
+ * and the session discards the message at once instead of acknowledging data that will never be decompressed.
+ */
+public class InflatingReassemblyTarget implements ReassemblyTarget {
+
+    // The size of the buffer the data is inflated into before it's written into the output target
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReassemblyTarget output;
+    private final long messageLength;
+    private final Inflater inflater;
+
+    // The digest of the decompressed message, or null if it's not verified
+    private final ContiguousDigest digest;
+
+    // The compressed data that arrived out of order, keyed by its offset, and its total length.
+    // The data is kept at most capacity bytes ahead of the inflated data
+    private final TreeMap<Long, byte[]> pendingData = new TreeMap<>();
+    private long pendingLength;
+    private final int capacity;
+
+    // The budget the kept data is reserved from, or null, and the memory reserved until the kept data is inflated
+    private final MemoryBudget budget;
+    private long reservedLength;
+
+    // The number of compressed bytes that have been inflated and decompressed bytes that have been written
+    private long inflatedLength;
+    private long writtenLength;
+
+    // The error that failed the target, or null
+    private IOException failure;
+
+    private final ByteBuffer outputBuffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+
+    /**
+     * @param output        - the target the decompressed message is written into.
+     * @param algorithm     - the compression algorithm.
+     * @param messageLength - the length of the decompressed message.
+     * @param digest        - the digest of the decompressed message, or null if it's not verified.
+     * @param capacity      - how far ahead of the inflated data the packets may arrive.
+     * @param budget        - the budget the data that arrives out of order is reserved from, or null.
+     */
+    public InflatingReassemblyTarget(ReassemblyTarget output, CompressionAlgorithm algorithm, long messageLength,
+                                     ContiguousDigest digest, int capacity, MemoryBudget budget) {
+        this.output = output;
+        this.messageLength = messageLength;
+        this.capacity = capacity;
+        this.budget = budget;
+        this.inflater = algorithm.newInflater();
+        this.digest = digest;
+    }
+
+    /**
+     * Checks whether the data of a packet can be taken: it must end within the capacity of the target ahead of
+     * the data inflated so far, and if it has to be kept until the gap before it is filled, the memory to keep it
+     * is reserved from the budget. The memory is returned once the kept data has been inflated.
+     *
+     * @param offset - the offset of the data in the compressed message.
+     * @param length - the length of the data.
+     * @return true if the data can be written; false if it's too far ahead or the budget has no room for it.
+     */
+    public boolean reserve(long offset, int length) {
+        if (offset + length > this.getWritableEnd()) {
+            return false;
+        }
+        if (offset <= this.inflatedLength) {
+            return true; // Inflated at once
+        }
+        final long keptLength = this.pendingLength + length;
+        if (keptLength > this.capacity) {
+            return false;
+        }
+        if (keptLength > this.reservedLength) {
+            if (this.budget != null && !this.budget.tryReserve(keptLength - this.reservedLength)) {
+                return false;
+            }
+            this.reservedLength = keptLength;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the offset that follows the last compressed byte the target can keep.
+     *
+     * @return the offset in the compressed message.
+     */
+    public long getWritableEnd() {
+        return this.inflatedLength + this.capacity;
+    }
+
+    /**
+     * Inflates the compressed data if it extends the data inflated so far, and then the pending data that has
+     * become contiguous after it; otherwise keeps a copy of the data until the gap before it is filled.
+     *
+     * @param offset - the offset of the data in the compressed message.
+     * @param data   - the compressed data.
+     * @throws IOException - if the compressed data is corrupt, the decompressed data could not be written,
+     *                     the data doesn't fit, or the target has already failed.
+     */
+    @Override
+    public void write(long offset, ByteBuffer data) throws IOException {
+        if (this.failure != null) {
+            throw new IOException("The compressed message has already failed: " + this.failure.getMessage());
+        }
+        if (!this.reserve(offset, data.remaining())) {
+            throw new IOException("The data at " + offset + " doesn't fit into the decompression buffer");
+        }
+        try {
+            this.writeCompressed(offset, data);
+        } catch (IOException e) {
+            this.failure = e;
+            throw e;
+        }
+    }
+
+    private void writeCompressed(long offset, ByteBuffer data) throws IOException {
+        final long end = offset + data.remaining();
+        if (end <= this.inflatedLength) {
+            return; // Already inflated
+        }
+        if (offset > this.inflatedLength) {
+            final byte[] previous = this.pendingData.get(offset);
+            if (previous != null && previous.length >= data.remaining()) {
+                return; // Already kept
+            }
+            final byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            this.pendingData.put(offset, copy);
+            this.pendingLength += copy.length - (previous != null ? previous.length : 0);
+            return;
+        }
+
+        // Skip the part of the data that has already been inflated
+        data.position(data.position() + (int) (this.inflatedLength - offset));
+        this.inflate(data);
+
+        Map.Entry<Long, byte[]> pending;
+        while ((pending = this.pendingData.firstEntry()) != null && pending.getKey() <= this.inflatedLength) {
+            this.pendingData.pollFirstEntry();
+            this.pendingLength -= pending.getValue().length;
+            final long pendingEnd = pending.getKey() + pending.getValue().length;
+            if (pendingEnd > this.inflatedLength) {
+                final int skipped = (int) (this.inflatedLength - pending.getKey());
+                this.inflate(ByteBuffer.wrap(pending.getValue(), skipped, pending.getValue().length - skipped));
+            }
+        }
+        if (this.pendingData.isEmpty()) {
+            this.releaseReserved();
+        }
+    }
+
+    /**
+     * Returns the memory reserved for the kept data to the budget.
+     */
+    private void releaseReserved() {
+        if (this.budget != null && this.reservedLength > 0) {
+            this.budget.release(this.reservedLength);
+        }
+        this.reservedLength = 0;
+    }
+
+    /**
+     * Inflates the compressed data that follows the data inflated so far and writes the decompressed data in order.
+     *
+     * @param data - the compressed data. All the remaining bytes of the buffer are consumed.
+     * @throws IOException - if the compressed data is corrupt or the decompressed data could not be written.
+     */
+    private void inflate(ByteBuffer data) throws IOException {
+        this.inflatedLength += data.remaining();
+        if (this.inflater.finished()) {
+            return; // Data after the end of the compressed stream is ignored
+        }
+        this.inflater.setInput(data);
+        try {
+            while (!this.inflater.needsInput() && !this.inflater.finished()) {
+                this.outputBuffer.clear();
+                final int length = this.inflater.inflate(this.outputBuffer);
+                if (length == 0 && this.inflater.needsDictionary()) {
+                    throw new IOException("The compressed message requires a preset dictionary");
+                }
+                if (this.writtenLength + length > this.messageLength) {
+                    throw new IOException("The decompressed message is longer than " + this.messageLength + " bytes");
+                }
+                this.outputBuffer.flip();
+                this.output.write(this.writtenLength, this.outputBuffer);
+                if (this.digest != null) {
+                    // The decompressed data is always written in order, so it's digested without reading it back
+                    this.outputBuffer.rewind();
+                    this.digest.update(this.writtenLength, this.outputBuffer, this.writtenLength + length, this.output);
+                }
+                this.writtenLength += length;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed message is corrupt: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The compressed data is not kept, so it can't be read back.
+     *
+     * @throws IOException - always.
+     */
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException {
+        throw new IOException("The compressed message can't be read back");
+    }
+
+    /**
+     * Checks that the compressed stream is complete and has the expected length, and completes the output target.
+     * If the check fails, the session aborts the target.
+     *
+     * @throws IOException - if the compressed stream is truncated or has the wrong length.
+     */
+    @Override
+    public void complete() throws IOException {
+        final boolean finished = this.inflater.finished();
+        this.inflater.end();
+        this.pendingData.clear();
+        this.pendingLength = 0;
+        this.releaseReserved();
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        if (!finished || this.writtenLength != this.messageLength) {
+            throw new IOException("The compressed message is incomplete: " + this.writtenLength + "/"
+                    + this.messageLength + " bytes decompressed");
+        }
+        this.output.complete();
+    }
+
+    @Override
+    public void abort() {
+        this.inflater.end();
+        this.pendingData.clear();
+        this.pendingLength = 0;
+        this.releaseReserved();
+        this.output.abort();
+    }
+
+    /**
+     * Checks whether the compressed data could not be inflated or the decompressed data could not be written.
+     *
+     * @return true if the message can't be decompressed any more.
+     */
+    public boolean isFailed() {
+        return this.failure != null;
+    }
+
+    /**
+     * Checks whether the compressed stream has ended and the whole decompressed message has been written.
+     *
+     * @return true if the message has been decompressed to its expected length.
+     */
+    public boolean isFinished() {
+        return this.failure == null && this.inflater.finished() && this.writtenLength == this.messageLength;
+    }
+
+    public ReassemblyTarget getOutput() {
+        return output;
+    }
+
+    public long getWrittenLength() {
+        return writtenLength;
+    }
+}
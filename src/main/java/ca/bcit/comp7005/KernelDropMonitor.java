@@ -0,0 +1,115 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the datagrams dropped by the kernel because the socket receive buffer was full,
+ * i.e. the datagrams that arrived while the receive loop could not keep up. Such datagrams never reach the receiver,
+ * so they can't be counted by the sessions.
+ * The drops are read from the drops column of /proc/net/udp and /proc/net/udp6 for the sockets bound to the port,
+ * so the monitor works only on Linux.
+ */
+public class KernelDropMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(KernelDropMonitor.class);
+
+    private static final List<Path> SOCKET_TABLES = List.of(Paths.get("/proc/net/udp"), Paths.get("/proc/net/udp6"));
+
+    // The columns of a socket table line: the local address and port, and the number of drops
+    private static final int LOCAL_ADDRESS_COLUMN = 1;
+    private static final int DROPS_COLUMN = 12;
+
+    private final int port;
+    private final TransferMetrics metrics;
+    private long previousDrops;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param port    - the port of the sockets.
+     * @param metrics - the metrics the drops are recorded in.
+     */
+    public KernelDropMonitor(int port, TransferMetrics metrics) {
+        this.port = port;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks whether the socket tables can be read on this platform.
+     *
+     * @return true if the drops can be detected.
+     */
+    public static boolean isSupported() {
+        return Files.isReadable(SOCKET_TABLES.get(0));
+    }
+
+    /**
+     * Checks for new drops periodically. The drops counted before the monitor is started are ignored.
+     *
+     * @param intervalMillis - the time between the checks.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (this.executor != null) {
+            return;
+        }
+        this.previousDrops = this.readDrops();
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("kernel-drops").daemon().factory()
+        );
+        this.executor.scheduleAtFixedRate(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records and reports the drops since the previous check.
+     */
+    private void check() {
+        final long drops = this.readDrops();
+        if (drops > this.previousDrops) {
+            final long newDrops = drops - this.previousDrops;
+            this.metrics.onKernelDrops(newDrops);
+            logger.error("The kernel dropped " + newDrops + " datagrams on port " + this.port
+                    + " because the socket receive buffer was full");
+        }
+        this.previousDrops = drops;
+    }
+
+    /**
+     * Reads the total number of drops of the sockets bound to the port.
+     *
+     * @return the number of drops since the sockets were opened.
+     */
+    private long readDrops() {
+        final String portSuffix = String.format(":%04X", this.port);
+        long drops = 0;
+        for (Path table : SOCKET_TABLES) {
+            try {
+                for (String line : Files.readAllLines(table)) {
+                    final String[] columns = line.trim().split("\\s+");
+                    if (columns.length > DROPS_COLUMN && columns[LOCAL_ADDRESS_COLUMN].endsWith(portSuffix)) {
+                        drops += Long.parseLong(columns[DROPS_COLUMN]);
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // The table is not available, e.g. IPv6 is disabled
+            }
+        }
+        return drops;
+    }
+
+    public synchronized void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package ca.bcit.comp7005;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,14 +17,91 @@ public class Main {
     private static final int TIMEOUT_MILLISECONDS = 50000;
 
     public static void main(String[] args) {
-        int port = Integer.parseInt(args[0]);
-        String directoryPath = args[1];
-        Receiver receiver = new Receiver(directoryPath);
+        Options options = new Options();
+        options.addOption("s", "stream", false, "write received files straight to disk as the packets arrive");
+        options.addOption("n", "nio", false, "receive with a DatagramChannel and pooled direct buffers");
+        options.addOption("b", "buffers", true, "number of pooled receive buffers of the NIO transport");
+        options.addOption("g", "segment-size", true, "size of the largest data packet the receiver accepts, up to " + AZRP.MAXIMUM_SEGMENT_SIZE_IN_BYTES + " bytes");
+        options.addOption("w", "window", true, "number of the largest data packets the socket receive buffer holds");
+        options.addOption("r", "shards", true, "number of channels bound to the port with SO_REUSEPORT, each one with its own receive loop");
+        options.addOption("p", "placement-workers", true, "number of threads that validate and write the data packets of large transfers");
+        options.addOption("a", "ack-every", true, "acknowledge every n data packets with one cumulative ACK packet");
+        options.addOption("d", "ack-delay", true, "maximum delay of a cumulative ACK packet in milliseconds");
+        options.addOption("k", "checkpoint-interval", true, "time between the checkpoints of a resumable transfer in milliseconds");
+        options.addOption("o", "sink", true, "sink of the completed messages: file or console");
+        options.addOption("q", "sink-queue", true, "number of completed messages waiting for the sink");
+        options.addOption("y", "memory-budget", true, "megabytes the messages reassembled in memory may take together");
+        options.addOption("e", "admission-backoff", true, "time a sender refused for the lack of memory waits before it retries in milliseconds");
+        options.addOption("m", "metrics-file", true, "file the snapshot of the metrics is written to");
+        options.addOption("i", "metrics-interval", true, "time between the snapshots of the metrics in seconds");
 
         try {
+            CommandLine commandLine = new DefaultParser().parse(options, args);
+            String[] arguments = commandLine.getArgs();
+
+            int port = Integer.parseInt(arguments[0]);
+            String directoryPath = arguments[1];
+            ReceiverConfig config = new ReceiverConfig();
+            config.setStreaming(commandLine.hasOption("stream"));
+            config.setNio(commandLine.hasOption("nio"));
+            if (commandLine.hasOption("buffers")) {
+                config.setReceiveBuffers(Integer.parseInt(commandLine.getOptionValue("buffers")));
+            }
+            if (commandLine.hasOption("segment-size")) {
+                final int segmentSize = Integer.parseInt(commandLine.getOptionValue("segment-size"));
+                if (segmentSize < AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES || segmentSize > AZRP.MAXIMUM_SEGMENT_SIZE_IN_BYTES) {
+                    throw new NumberFormatException("The segment size must be between " + AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES
+                            + " and " + AZRP.MAXIMUM_SEGMENT_SIZE_IN_BYTES + " bytes");
+                }
+                config.setMaximumSegmentSize(segmentSize);
+            }
+            if (commandLine.hasOption("window")) {
+                config.setReceiveWindow(Integer.parseInt(commandLine.getOptionValue("window")));
+            }
+            if (commandLine.hasOption("shards")) {
+                config.setShards(Integer.parseInt(commandLine.getOptionValue("shards")));
+            }
+            if (commandLine.hasOption("placement-workers")) {
+                config.setPlacementWorkers(Integer.parseInt(commandLine.getOptionValue("placement-workers")));
+            }
+            if (commandLine.hasOption("ack-every")) {
+                config.setAckEvery(Integer.parseInt(commandLine.getOptionValue("ack-every")));
+            }
+            if (commandLine.hasOption("ack-delay")) {
+                config.setAckDelayMillis(Integer.parseInt(commandLine.getOptionValue("ack-delay")));
+            }
+            if (commandLine.hasOption("checkpoint-interval")) {
+                config.setCheckpointIntervalMillis(Integer.parseInt(commandLine.getOptionValue("checkpoint-interval")));
+            }
+            if (commandLine.hasOption("sink")) {
+                final String sink = commandLine.getOptionValue("sink");
+                if (!sink.equals("file") && !sink.equals("console")) {
+                    throw new ParseException("The sink must be file or console");
+                }
+                config.setSink(sink);
+            }
+            if (commandLine.hasOption("sink-queue")) {
+                config.setSinkQueueCapacity(Integer.parseInt(commandLine.getOptionValue("sink-queue")));
+            }
+            if (commandLine.hasOption("memory-budget")) {
+                config.setMemoryBudget(Long.parseLong(commandLine.getOptionValue("memory-budget")) * 1024 * 1024);
+            }
+            if (commandLine.hasOption("admission-backoff")) {
+                config.setAdmissionBackoffMillis(Integer.parseInt(commandLine.getOptionValue("admission-backoff")));
+            }
+            if (commandLine.hasOption("metrics-file")) {
+                config.setMetricsFile(commandLine.getOptionValue("metrics-file"));
+            }
+            if (commandLine.hasOption("metrics-interval")) {
+                config.setMetricsIntervalSeconds(Integer.parseInt(commandLine.getOptionValue("metrics-interval")));
+            }
+            Receiver receiver = new Receiver(directoryPath, config);
+
             receiver.run(port, TIMEOUT_MILLISECONDS);
+        } catch (ParseException | ArrayIndexOutOfBoundsException e) {
+            exitWithError("Usage: <port> <directory> [options]", e);
         } catch (NumberFormatException e) {
-            exitWithError("Invalid port number", e);
+            exitWithError("Invalid number", e);
         } catch (SocketException e) {
             exitWithError("Error creating socket", e);
         }catch (Exception e) {
@@ -0,0 +1,347 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the manifest that precedes a message, the hash of each chunk of the message, and writes the message that
+ * follows it into another target. The manifest is authenticated by the Merkle root sent in the SYN packet, and each
+ * chunk is then verified on its own by reading it back as soon as all its data has arrived, so a corrupted chunk
+ * is found during the transfer and only that chunk is received again.
+ * The leaves of the Merkle tree are the hashes of the chunks, calculated over a 0 byte and the chunk; each parent
+ * is the hash of a 1 byte and its two children, and the last node of an odd level is promoted to the next level.
+ * The manifest and each chunk are sealed while they are verified and once they have been verified: the writes into
+ * them are skipped, so a duplicate packet that passes its checksum can't change data that matched its hash.
+ */
+public class ManifestReassemblyTarget implements ReassemblyTarget {
+
+    // The bounds of the chunks and of the manifest, which is kept in memory for the whole transfer
+    public static final int MINIMUM_CHUNK_SIZE = 4 * 1024;
+    public static final int MAXIMUM_MANIFEST_LENGTH = 16 * 1024 * 1024;
+
+    // The prefixes of the hashes of the leaves and the parents, so a leaf can't pass for a parent
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte PARENT_PREFIX = 1;
+
+    // The size of the buffer a chunk is read back into, one per verifying thread
+    private static final int READ_BACK_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> readBackBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_BACK_BUFFER_SIZE));
+
+    private final ReassemblyTarget output;
+    private final DigestAlgorithm algorithm;
+    private final int chunkSize;
+    private final long messageLength;
+    private final byte[] root;
+    private final byte[] manifest;
+    // One bit per slot: the manifest is the first slot, then one slot per chunk
+    private final AtomicLongArray sealedSlots;
+
+    /**
+     * @param output        - the target the message is written into.
+     * @param algorithm     - the digest algorithm of the chunk hashes.
+     * @param chunkSize     - the size of the chunks; only the last chunk of the message may be shorter.
+     * @param messageLength - the length of the message without the manifest.
+     * @param root          - the Merkle root of the chunk hashes sent by the sender.
+     */
+    public ManifestReassemblyTarget(ReassemblyTarget output, DigestAlgorithm algorithm, int chunkSize, long messageLength,
+                                    byte[] root) {
+        this.output = output;
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.messageLength = messageLength;
+        this.root = root;
+        this.manifest = new byte[(int) getManifestLength(algorithm, chunkSize, messageLength)];
+        // The slot count comes from the manifest rather than getChunkCount(), which a subclass may override
+        final int slots = this.manifest.length / algorithm.getLength() + 1;
+        this.sealedSlots = new AtomicLongArray((slots + Long.SIZE - 1) / Long.SIZE);
+    }
+
+    /**
+     * Gets the length of the manifest of a message: the hash of each of its chunks.
+     *
+     * @param algorithm     - the digest algorithm of the chunk hashes.
+     * @param chunkSize     - the size of the chunks.
+     * @param messageLength - the length of the message.
+     * @return the length of the manifest in bytes.
+     */
+    public static long getManifestLength(DigestAlgorithm algorithm, int chunkSize, long messageLength) {
+        return (messageLength + chunkSize - 1) / chunkSize * algorithm.getLength();
+    }
+
+    /**
+     * Writes the data of a packet: the part before the end of the manifest into the manifest,
+     * the rest into the message. The parts of the data in the sealed manifest or chunks are skipped.
+     *
+     * @param offset - the offset of the data after the start of the manifest.
+     * @param data   - the data of the packet.
+     * @throws IOException - if the message could not be written.
+     */
+    @Override
+    public void write(long offset, ByteBuffer data) throws IOException {
+        if (this.isSealed(offset, offset + data.remaining())) {
+            this.writeUnsealed(offset, data);
+            return;
+        }
+        this.writeSlots(offset, data);
+    }
+
+    /**
+     * Writes the data slot by slot, skipping the sealed slots.
+     */
+    private void writeUnsealed(long offset, ByteBuffer data) throws IOException {
+        final int limit = data.limit();
+        while (data.hasRemaining()) {
+            final int slot = this.getSlot(offset);
+            final long slotEnd = slot == 0 ? this.manifest.length : this.getChunkEnd(slot - 1);
+            final int length = (int) Math.min(data.remaining(), slotEnd - offset);
+            if (this.isSealed(slot)) {
+                data.position(data.position() + length);
+            } else {
+                data.limit(data.position() + length);
+                this.writeSlots(offset, data);
+                data.limit(limit);
+            }
+            offset += length;
+        }
+    }
+
+    private void writeSlots(long offset, ByteBuffer data) throws IOException {
+        if (offset < this.manifest.length) {
+            final int length = (int) Math.min(data.remaining(), this.manifest.length - offset);
+            data.get(this.manifest, (int) offset, length);
+            offset += length;
+        }
+        if (data.hasRemaining()) {
+            this.output.write(offset - this.manifest.length, data);
+        }
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException {
+        if (offset < this.manifest.length) {
+            final int length = (int) Math.min(destination.remaining(), this.manifest.length - offset);
+            destination.put(this.manifest, (int) offset, length);
+            offset += length;
+        }
+        if (destination.hasRemaining()) {
+            this.output.read(offset - this.manifest.length, destination);
+        }
+    }
+
+    /**
+     * Checks whether the message can be written and its chunks verified from several threads at the same time.
+     *
+     * @return true if the target of the message allows it.
+     */
+    @Override
+    public boolean isConcurrent() {
+        return this.output.isConcurrent();
+    }
+
+    /**
+     * Compares the Merkle root of the received manifest with the root sent in the SYN packet.
+     * The whole manifest must have been received.
+     *
+     * @return true if the manifest is authentic.
+     */
+    public boolean verifyManifest() {
+        final int hashLength = this.algorithm.getLength();
+        final byte[][] level = new byte[this.getChunkCount()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = new byte[hashLength];
+            System.arraycopy(this.manifest, i * hashLength, level[i], 0, hashLength);
+        }
+        return MessageDigest.isEqual(computeRoot(this.algorithm, level), this.root);
+    }
+
+    /**
+     * Reads a chunk back from the message and compares its hash with the one in the manifest.
+     * The manifest must have been verified, and all the data of the chunk must have been written.
+     *
+     * @param index - the index of the chunk.
+     * @return true if the chunk is intact.
+     * @throws IOException - if the chunk could not be read.
+     */
+    public boolean verifyChunk(int index) throws IOException {
+        final MessageDigest messageDigest = this.algorithm.newMessageDigest();
+        messageDigest.update(LEAF_PREFIX);
+        final ByteBuffer buffer = readBackBuffers.get();
+        final long end = Math.min(this.messageLength, (long) (index + 1) * this.chunkSize);
+        for (long offset = (long) index * this.chunkSize; offset < end; offset += buffer.limit()) {
+            buffer.clear().limit((int) Math.min(READ_BACK_BUFFER_SIZE, end - offset));
+            this.output.read(offset, buffer);
+            messageDigest.update(buffer.flip());
+        }
+        final int hashLength = this.algorithm.getLength();
+        return MessageDigest.isEqual(messageDigest.digest(),
+                Arrays.copyOfRange(this.manifest, index * hashLength, (index + 1) * hashLength));
+    }
+
+    /**
+     * Calculates the hash of a chunk, the leaf of the chunk in the Merkle tree.
+     *
+     * @param algorithm - the digest algorithm.
+     * @param data      - the data of the message.
+     * @param offset    - the offset of the chunk in the data.
+     * @param length    - the length of the chunk.
+     * @return the hash of the chunk.
+     */
+    public static byte[] hashChunk(DigestAlgorithm algorithm, byte[] data, int offset, int length) {
+        final MessageDigest messageDigest = algorithm.newMessageDigest();
+        messageDigest.update(LEAF_PREFIX);
+        messageDigest.update(data, offset, length);
+        return messageDigest.digest();
+    }
+
+    /**
+     * Calculates the Merkle root of the chunk hashes.
+     *
+     * @param algorithm - the digest algorithm.
+     * @param leaves    - the hashes of the chunks; the array is overwritten.
+     * @return the root.
+     */
+    public static byte[] computeRoot(DigestAlgorithm algorithm, byte[][] leaves) {
+        final MessageDigest messageDigest = algorithm.newMessageDigest();
+        int count = leaves.length;
+        while (count > 1) {
+            int parents = 0;
+            for (int i = 0; i < count; i += 2) {
+                if (i + 1 == count) {
+                    leaves[parents++] = leaves[i];
+                    continue;
+                }
+                messageDigest.update(PARENT_PREFIX);
+                messageDigest.update(leaves[i]);
+                messageDigest.update(leaves[i + 1]);
+                leaves[parents++] = messageDigest.digest();
+            }
+            count = parents;
+        }
+        return leaves[0];
+    }
+
+    /**
+     * Seals the manifest while it's verified and once it has been verified, so its hashes can't change.
+     */
+    public void sealManifest() {
+        this.setSealed(0, true);
+    }
+
+    /**
+     * Opens the manifest that failed its verification to the data received again.
+     */
+    public void unsealManifest() {
+        this.setSealed(0, false);
+    }
+
+    /**
+     * Seals a chunk while it's verified and once it has been verified, so its data can't change.
+     *
+     * @param index - the index of the chunk.
+     */
+    public void sealChunk(int index) {
+        this.setSealed(index + 1, true);
+    }
+
+    /**
+     * Opens a chunk that failed its verification to the data received again.
+     *
+     * @param index - the index of the chunk.
+     */
+    public void unsealChunk(int index) {
+        this.setSealed(index + 1, false);
+    }
+
+    /**
+     * Checks whether any part of a range of the data of the session is in the sealed manifest or a sealed chunk.
+     *
+     * @param start - the offset of the first byte.
+     * @param end   - the offset after the last byte.
+     * @return true if a write into the range would be skipped, at least in part.
+     */
+    public boolean isSealed(long start, long end) {
+        if (start >= end) {
+            return false;
+        }
+        final int last = this.getSlot(end - 1);
+        for (int slot = this.getSlot(start); slot <= last; slot++) {
+            if (this.isSealed(slot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSealed(int slot) {
+        return (this.sealedSlots.get(slot / Long.SIZE) & (1L << slot)) != 0;
+    }
+
+    private void setSealed(int slot, boolean sealed) {
+        final long bit = 1L << slot;
+        this.sealedSlots.getAndUpdate(slot / Long.SIZE, word -> sealed ? word | bit : word & ~bit);
+    }
+
+    /**
+     * Finds the slot of an offset of the data of the session: 0 for the manifest, the index of the chunk plus one
+     * for the message.
+     */
+    private int getSlot(long offset) {
+        return offset < this.manifest.length ? 0 : this.getChunkIndex(offset) + 1;
+    }
+
+    public int getManifestLength() {
+        return manifest.length;
+    }
+
+    public int getChunkCount() {
+        return this.manifest.length / this.algorithm.getLength();
+    }
+
+    /**
+     * Gets the offset of a chunk after the start of the manifest, i.e. in the data of the session.
+     *
+     * @param index - the index of the chunk.
+     * @return the offset of the first byte of the chunk.
+     */
+    public long getChunkStart(int index) {
+        return this.manifest.length + (long) index * this.chunkSize;
+    }
+
+    /**
+     * Gets the offset that follows a chunk in the data of the session.
+     *
+     * @param index - the index of the chunk.
+     * @return the offset after the last byte of the chunk.
+     */
+    public long getChunkEnd(int index) {
+        return this.manifest.length + Math.min(this.messageLength, (long) (index + 1) * this.chunkSize);
+    }
+
+    /**
+     * Finds the chunk that contains an offset of the data of the session.
+     *
+     * @param offset - an offset after the end of the manifest.
+     * @return the index of the chunk.
+     */
+    public int getChunkIndex(long offset) {
+        return (int) ((offset - this.manifest.length) / this.chunkSize);
+    }
+
+    @Override
+    public void complete() throws IOException {
+        this.output.complete();
+    }
+
+    @Override
+    public void abort() {
+        this.output.abort();
+    }
+
+    @Override
+    public void release() {
+        this.output.release();
+    }
+}
@@ -0,0 +1,247 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Verifies the manifest and the chunks of a message with chunk hashes while the data arrives.
+ * The manifest is verified against its Merkle root as soon as it has arrived; then each chunk is verified as soon as
+ * all its data has arrived, on the placement workers if there are any. The manifest and each chunk are sealed while
+ * they are verified, so their data doesn't change any more. A chunk that doesn't match its hash is discarded and
+ * recorded in the discarded ranges until it has been received again.
+ * The verifier is used by the executor of its session only; the workers hand their results back to it.
+ */
+public class ManifestVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(ManifestVerifier.class);
+
+    /**
+     * Discards data that doesn't match its hash, so it's received again.
+     */
+    @FunctionalInterface
+    public interface DiscardHandler {
+
+        /**
+         * Called when the manifest or a chunk fails its verification.
+         *
+         * @param start    - the offset of the data.
+         * @param end      - the offset after the data.
+         * @param name     - the name of the data for the log.
+         * @param failures - the number of times the data has failed.
+         * @return true if the data was discarded and must be received again; false if the session was closed instead.
+         */
+        boolean discard(long start, long end, String name, int failures);
+    }
+
+    private static final byte CHUNK_WAITING = 0;
+    private static final byte CHUNK_VERIFYING = 1;
+    private static final byte CHUNK_VERIFIED = 2;
+
+    private final ManifestReassemblyTarget manifest;
+    private final SessionKey key;
+    private final ReceivedRanges receivedRanges;
+    private final Executor verificationExecutor;
+
+    // Called before sealed data is read back, when a verification result arrives from a worker,
+    // when a chunk has been verified and when data fails its verification
+    private final Runnable awaitWriters;
+    private final Runnable resultsReady;
+    private final Runnable chunkVerified;
+    private final DiscardHandler discardHandler;
+
+    private boolean manifestVerified;
+    private int manifestFailures;
+    private final byte[] chunkStates;
+    private final byte[] chunkFailures;
+    private final Map<Integer, CompletableFuture<Boolean>> pendingChunks = new HashMap<>();
+
+    // The parts of the discarded data that have not been received again
+    private final ReceivedRanges discardedRanges = new ReceivedRanges();
+
+    /**
+     * @param manifest             - the target that keeps the manifest of the message.
+     * @param key                  - the key of the session, for the log.
+     * @param receivedRanges       - the data received so far by the session.
+     * @param verificationExecutor - the executor the chunks are verified on, or null to verify them at once.
+     * @param awaitWriters         - waits for the placement workers that may still be writing sealed data.
+     * @param resultsReady         - called by a worker when it has verified a chunk, so the session collects the result.
+     * @param chunkVerified        - called when a chunk has matched its hash.
+     * @param discardHandler       - discards the data that doesn't match its hash.
+     */
+    public ManifestVerifier(ManifestReassemblyTarget manifest, SessionKey key, ReceivedRanges receivedRanges,
+                            Executor verificationExecutor, Runnable awaitWriters, Runnable resultsReady,
+                            Runnable chunkVerified, DiscardHandler discardHandler) {
+        this.manifest = manifest;
+        this.key = key;
+        this.receivedRanges = receivedRanges;
+        this.verificationExecutor = verificationExecutor;
+        this.awaitWriters = awaitWriters;
+        this.resultsReady = resultsReady;
+        this.chunkVerified = chunkVerified;
+        this.discardHandler = discardHandler;
+        this.chunkStates = new byte[manifest.getChunkCount()];
+        this.chunkFailures = new byte[manifest.getChunkCount()];
+    }
+
+    /**
+     * Verifies the manifest or the chunks whose data is complete after new data has been written.
+     * When the last data arrives, waits for the chunks still being verified, so the ACK packet of the last data
+     * either acknowledges the whole message or requests the discarded chunks again.
+     *
+     * @param offset   - the offset of the new data.
+     * @param length   - the length of the new data.
+     * @param complete - whether all the data of the message has been received.
+     */
+    public void onDataReceived(long offset, int length, boolean complete) {
+        this.discardedRanges.remove(offset, offset + length);
+        if (!this.manifestVerified) {
+            if (!this.receivedRanges.contains(0, this.manifest.getManifestLength())) {
+                return;
+            }
+            this.manifest.sealManifest();
+            this.awaitWriters.run();
+            if (!this.manifest.verifyManifest()) {
+                this.manifest.unsealManifest();
+                this.discard(0, this.manifest.getManifestLength(), "manifest", ++this.manifestFailures);
+                return;
+            }
+            this.manifestVerified = true;
+            // The chunks that arrived before the manifest are verified now
+            this.submitChunks(0, this.chunkStates.length - 1);
+        } else if (offset + length > this.manifest.getManifestLength()) {
+            this.submitChunks(this.manifest.getChunkIndex(Math.max(offset, this.manifest.getManifestLength())),
+                    this.manifest.getChunkIndex(offset + length - 1));
+        }
+        if (complete) {
+            this.collectResults(true);
+        }
+    }
+
+    /**
+     * Verifies the chunks whose data has all arrived and that are not verified yet: on the placement workers if there
+     * are any, otherwise at once. The chunks are sealed first, so their data doesn't change any more.
+     *
+     * @param first - the index of the first chunk.
+     * @param last  - the index of the last chunk.
+     */
+    private void submitChunks(int first, int last) {
+        int sealed = 0;
+        for (int i = first; i <= last; i++) {
+            if (this.chunkStates[i] == CHUNK_WAITING
+                    && this.receivedRanges.contains(this.manifest.getChunkStart(i), this.manifest.getChunkEnd(i))) {
+                this.chunkStates[i] = CHUNK_VERIFYING;
+                this.manifest.sealChunk(i);
+                sealed++;
+            }
+        }
+        if (sealed == 0) {
+            return;
+        }
+        this.awaitWriters.run();
+        for (int i = first; i <= last; i++) {
+            if (this.chunkStates[i] == CHUNK_VERIFYING && !this.pendingChunks.containsKey(i)) {
+                this.submitChunk(i);
+            }
+        }
+    }
+
+    /**
+     * Verifies a sealed chunk on a placement worker if there are any, otherwise at once.
+     *
+     * @param index - the index of the chunk.
+     */
+    private void submitChunk(int index) {
+        if (this.verificationExecutor == null) {
+            this.onChunkVerified(index, this.verifyChunk(index));
+            return;
+        }
+        try {
+            final CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(() -> this.verifyChunk(index), this.verificationExecutor);
+            this.pendingChunks.put(index, result);
+            result.whenComplete((verified, e) -> this.resultsReady.run());
+        } catch (RejectedExecutionException e) {
+            // The receiver is stopping
+            this.manifest.unsealChunk(index);
+            this.chunkStates[index] = CHUNK_WAITING;
+        }
+    }
+
+    /**
+     * Reads a chunk back and compares it with its hash in the manifest.
+     *
+     * @param index - the index of the chunk.
+     * @return true if the chunk matches its hash; false if it doesn't or could not be read.
+     */
+    private boolean verifyChunk(int index) {
+        try {
+            return this.manifest.verifyChunk(index);
+        } catch (IOException e) {
+            logger.error("Error verifying chunk " + index + " of " + this.key + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Records the chunks verified by the placement workers.
+     *
+     * @param wait - whether to wait for the chunks still being verified.
+     * @return true if a chunk was discarded.
+     */
+    public boolean collectResults(boolean wait) {
+        boolean discarded = false;
+        final Iterator<Map.Entry<Integer, CompletableFuture<Boolean>>> chunks = this.pendingChunks.entrySet().iterator();
+        while (chunks.hasNext()) {
+            final Map.Entry<Integer, CompletableFuture<Boolean>> chunk = chunks.next();
+            if (!wait && !chunk.getValue().isDone()) {
+                continue;
+            }
+            chunks.remove();
+            // The session's thread is virtual, so waiting for a worker doesn't hold a carrier thread
+            final boolean verified = chunk.getValue().join();
+            discarded |= !verified;
+            this.onChunkVerified(chunk.getKey(), verified);
+        }
+        return discarded;
+    }
+
+    /**
+     * Records a verified chunk, or discards it so the sender sends it again.
+     *
+     * @param index    - the index of the chunk.
+     * @param verified - whether the chunk matched its hash.
+     */
+    private void onChunkVerified(int index, boolean verified) {
+        if (verified) {
+            this.chunkStates[index] = CHUNK_VERIFIED;
+            this.chunkVerified.run();
+            return;
+        }
+        this.chunkStates[index] = CHUNK_WAITING;
+        this.manifest.unsealChunk(index);
+        this.discard(this.manifest.getChunkStart(index), this.manifest.getChunkEnd(index), "chunk " + index,
+                ++this.chunkFailures[index]);
+    }
+
+    private void discard(long start, long end, String name, int failures) {
+        if (this.discardHandler.discard(start, end, name, failures)) {
+            this.discardedRanges.add(start, end);
+        }
+    }
+
+    /**
+     * Gets the parts of the discarded data that have not been received again, which the sender must send again.
+     *
+     * @return the discarded ranges.
+     */
+    public ReceivedRanges getDiscardedRanges() {
+        return discardedRanges;
+    }
+}
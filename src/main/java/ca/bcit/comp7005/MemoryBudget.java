@@ -0,0 +1,59 @@
+package ca.bcit.comp7005;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The memory the receiver may hold for the messages it reassembles in memory, shared by all the sessions and shards.
+ * A message is reserved when its session opens and released when the sink has consumed it or the session is
+ * closed, so the messages waiting for the sink count too. The length announced in a SYN packet is only trusted
+ * as far as the budget goes: files that don't fit are written to disk, and the other sessions are refused
+ * until the budget has room again. The buffers an open session fills as packets arrive, e.g. the messages of
+ * a stream, the data a compressed message keeps out of order and the parity packets, are reserved one by one,
+ * and the data is dropped or waits while the budget has no room, so the budget is never exceeded.
+ */
+public class MemoryBudget {
+
+    private final long capacity;
+    private final AtomicLong reserved = new AtomicLong();
+
+    /**
+     * @param capacity - the number of bytes the messages in memory may take together.
+     */
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Reserves memory if the budget has room for it.
+     *
+     * @param bytes - the number of bytes.
+     * @return true if the memory has been reserved.
+     */
+    public boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = this.reserved.get();
+            if (bytes > this.capacity - current) {
+                return false;
+            }
+        } while (!this.reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Returns reserved memory to the budget.
+     *
+     * @param bytes - the number of bytes reserved before.
+     */
+    public void release(long bytes) {
+        this.reserved.addAndGet(-bytes);
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getReserved() {
+        return reserved.get();
+    }
+}
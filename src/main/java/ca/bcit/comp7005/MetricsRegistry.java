@@ -0,0 +1,254 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of the receiver: the metrics of all the sessions together and of each open session.
+ * The metrics can be exposed over JMX and written to a snapshot file periodically.
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final String JMX_DOMAIN = "ca.bcit.comp7005";
+
+    private final TransferMetrics aggregate = new TransferMetrics();
+    private final Map<SessionKey, TransferMetrics> sessions = new ConcurrentHashMap<>();
+
+    // The JMX server the metrics are registered with, or null if they're not exposed over JMX
+    private volatile MBeanServer mBeanServer;
+
+    private ScheduledExecutorService snapshotExecutor;
+
+    // The number of bytes received and the time of the previous snapshot, used to calculate the current goodput
+    private long previousBytesReceived;
+    private long previousSnapshotNanos = System.nanoTime();
+
+    /**
+     * Creates the metrics of a new session.
+     *
+     * @param key - the key of the session.
+     * @return the metrics of the session.
+     */
+    public TransferMetrics openSession(SessionKey key) {
+        final TransferMetrics metrics = new TransferMetrics(this.aggregate);
+        metrics.onSessionOpened();
+        this.sessions.put(key, metrics);
+
+        final MBeanServer server = this.mBeanServer;
+        if (server != null) {
+            this.register(server, sessionName(key), metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Removes the metrics of a session that has been removed from the session table.
+     * They stay included in the metrics of all the sessions.
+     *
+     * @param key - the key of the session.
+     */
+    public void closeSession(SessionKey key) {
+        if (this.sessions.remove(key) == null) {
+            return;
+        }
+        final MBeanServer server = this.mBeanServer;
+        if (server != null) {
+            this.unregister(server, sessionName(key));
+        }
+    }
+
+    /**
+     * Exposes the metrics of all the sessions and of each open session over JMX.
+     */
+    public void registerMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        this.register(server, aggregateName(), this.aggregate);
+        this.mBeanServer = server;
+        for (Map.Entry<SessionKey, TransferMetrics> session : this.sessions.entrySet()) {
+            this.register(server, sessionName(session.getKey()), session.getValue());
+        }
+    }
+
+    /**
+     * Writes a snapshot of the metrics to the file periodically.
+     *
+     * @param path            - the snapshot file; it's replaced by every snapshot.
+     * @param intervalSeconds - the time between the snapshots.
+     */
+    public synchronized void startSnapshots(Path path, int intervalSeconds) {
+        if (this.snapshotExecutor != null) {
+            return;
+        }
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("metrics-snapshots").daemon().factory()
+        );
+        this.snapshotExecutor.scheduleAtFixedRate(() -> {
+            try {
+                this.writeSnapshot(path);
+            } catch (IOException e) {
+                logger.error("Error writing the metrics snapshot: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a snapshot of the metrics to the file.
+     * The snapshot is written to a temporary file first, so readers never see a partial snapshot.
+     *
+     * @param path - the snapshot file.
+     * @throws IOException - if the file could not be written.
+     */
+    public synchronized void writeSnapshot(Path path) throws IOException {
+        final long now = System.nanoTime();
+        final long bytesReceived = this.aggregate.getBytesReceived();
+        final long goodput = (bytesReceived - this.previousBytesReceived) * 1_000_000_000L
+                / Math.max(1, now - this.previousSnapshotNanos);
+        this.previousBytesReceived = bytesReceived;
+        this.previousSnapshotNanos = now;
+
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath)) {
+            writer.write("# " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+            writer.newLine();
+            writer.write("aggregate.currentGoodputBytesPerSecond=" + goodput);
+            writer.newLine();
+            writeMetrics(writer, "aggregate", this.aggregate);
+            for (Map.Entry<SessionKey, TransferMetrics> session : this.sessions.entrySet()) {
+                writeMetrics(writer, "session." + session.getKey(), session.getValue());
+            }
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeMetrics(BufferedWriter writer, String prefix, TransferMetrics metrics) throws IOException {
+        writer.write(prefix + ".packetsReceived=" + metrics.getPacketsReceived());
+        writer.newLine();
+        writer.write(prefix + ".packetsSent=" + metrics.getPacketsSent());
+        writer.newLine();
+        writer.write(prefix + ".acksSent=" + metrics.getAcksSent());
+        writer.newLine();
+        writer.write(prefix + ".bytesReceived=" + metrics.getBytesReceived());
+        writer.newLine();
+        writer.write(prefix + ".duplicatePackets=" + metrics.getDuplicatePackets());
+        writer.newLine();
+        writer.write(prefix + ".checksumFailures=" + metrics.getChecksumFailures());
+        writer.newLine();
+        writer.write(prefix + ".digestFailures=" + metrics.getDigestFailures());
+        writer.newLine();
+        writer.write(prefix + ".droppedPackets=" + metrics.getDroppedPackets());
+        writer.newLine();
+        writer.write(prefix + ".outOfOrderPackets=" + metrics.getOutOfOrderPackets());
+        writer.newLine();
+        writer.write(prefix + ".kernelDrops=" + metrics.getKernelDrops());
+        writer.newLine();
+        writer.write(prefix + ".sinkStalls=" + metrics.getSinkStalls());
+        writer.newLine();
+        writer.write(prefix + ".parityPackets=" + metrics.getParityPackets());
+        writer.newLine();
+        writer.write(prefix + ".recoveredPackets=" + metrics.getRecoveredPackets());
+        writer.newLine();
+        writer.write(prefix + ".streamMessages=" + metrics.getStreamMessages());
+        writer.newLine();
+        writer.write(prefix + ".chunksVerified=" + metrics.getChunksVerified());
+        writer.newLine();
+        writer.write(prefix + ".chunkFailures=" + metrics.getChunkFailures());
+        writer.newLine();
+        writer.write(prefix + ".sessionsOpened=" + metrics.getSessionsOpened());
+        writer.newLine();
+        writer.write(prefix + ".sessionsCompleted=" + metrics.getSessionsCompleted());
+        writer.newLine();
+        writer.write(prefix + ".sessionsExpired=" + metrics.getSessionsExpired());
+        writer.newLine();
+        writer.write(prefix + ".sessionsRefused=" + metrics.getSessionsRefused());
+        writer.newLine();
+        writer.write(prefix + ".spilledTransfers=" + metrics.getSpilledTransfers());
+        writer.newLine();
+        writer.write(prefix + ".handshakeLatencyMicros=" + metrics.getHandshakeLatencyMicros());
+        writer.newLine();
+        writer.write(prefix + ".transferDurationMillis=" + metrics.getTransferDurationMillis());
+        writer.newLine();
+        writer.write(prefix + ".goodputBytesPerSecond=" + metrics.getGoodputBytesPerSecond());
+        writer.newLine();
+        writer.write(prefix + ".outOfOrderDepthBytes=" + metrics.getOutOfOrderDepthBytes());
+        writer.newLine();
+        writer.write(prefix + ".jitterMicros=" + metrics.getJitterMicros());
+        writer.newLine();
+    }
+
+    /**
+     * Stops the snapshots and removes the metrics from JMX.
+     */
+    public synchronized void close() {
+        if (this.snapshotExecutor != null) {
+            this.snapshotExecutor.shutdownNow();
+            this.snapshotExecutor = null;
+        }
+        final MBeanServer server = this.mBeanServer;
+        if (server != null) {
+            this.mBeanServer = null;
+            this.unregister(server, aggregateName());
+            for (SessionKey key : this.sessions.keySet()) {
+                this.unregister(server, sessionName(key));
+            }
+        }
+    }
+
+    public TransferMetrics getAggregate() {
+        return aggregate;
+    }
+
+    private void register(MBeanServer server, ObjectName name, TransferMetrics metrics) {
+        try {
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            logger.error("Could not register the metrics " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void unregister(MBeanServer server, ObjectName name) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.error("Could not unregister the metrics " + name + ": " + e.getMessage());
+        }
+    }
+
+    private static ObjectName aggregateName() {
+        return objectName("type=Transfers,name=all");
+    }
+
+    private static ObjectName sessionName(SessionKey key) {
+        return objectName("type=Sessions,name=" + ObjectName.quote(key.toString()));
+    }
+
+    private static ObjectName objectName(String properties) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":" + properties);
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds lost data packets from the parity packets of forward error correction.
+ * The data packets are in groups of groupSize packets of payloadLength bytes, and the parity packet of a group is
+ * the XOR of their data, the shorter ones padded with zeros. The parity packet is kept until its group is complete,
+ * so one lost packet of the group can be rebuilt from the parity and the data of the other packets, read back from
+ * the reassembly target, without a retransmission.
+ * The number of kept parity packets is limited, and each one is reserved from the memory budget, if there is one;
+ * a parity packet that is not kept is only a lost optimization, since the lost packet is retransmitted instead.
+ */
+public class ParityRecovery {
+
+    // The maximum number of parity packets kept at the same time
+    public static final int MAXIMUM_PENDING_PARITY_PACKETS = 1024;
+
+    private final int groupSize;
+    private final int payloadLength;
+    private final long dataLength;
+    private final MemoryBudget budget;
+
+    private final Map<Long, byte[]> parityByGroup = new HashMap<>();
+
+    // The data packets of a group are read back into the buffer, and the rebuilt packet is kept until it's accepted
+    private ByteBuffer readBackBuffer;
+    private ByteBuffer recoveredData;
+    private long recoveredOffset;
+
+    /**
+     * @param groupSize     - the number of data packets in a group.
+     * @param payloadLength - the length of the data of each packet of a group; only the last packet may be shorter.
+     * @param dataLength    - the length of the data of the message.
+     * @param budget        - the budget the kept parity packets are reserved from, or null.
+     */
+    public ParityRecovery(int groupSize, int payloadLength, long dataLength, MemoryBudget budget) {
+        this.groupSize = groupSize;
+        this.payloadLength = payloadLength;
+        this.dataLength = dataLength;
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the group of the data at an offset.
+     *
+     * @param offset - the offset of the data in the message.
+     * @return the index of the group in the message.
+     */
+    public long getGroup(long offset) {
+        return offset / this.getGroupLength();
+    }
+
+    /**
+     * Checks whether a parity packet matches a group of the message: it starts at the start of a group and
+     * is no longer than a data packet.
+     *
+     * @param groupStart - the offset of the first data packet of the group, from the sequence number of the parity packet.
+     * @param length     - the length of the data of the parity packet.
+     * @return true if the parity packet can be kept.
+     */
+    public boolean isValidGroup(long groupStart, int length) {
+        return groupStart >= 0 && groupStart < this.dataLength && groupStart % this.getGroupLength() == 0
+                && length <= this.payloadLength;
+    }
+
+    /**
+     * Checks whether the parity packet of a group is still needed: it's not kept yet, there is room for it,
+     * and the group still misses data.
+     *
+     * @param group          - the index of the group in the message.
+     * @param receivedRanges - the data received so far.
+     * @return true if the parity packet should be kept.
+     */
+    public boolean isNeeded(long group, ReceivedRanges receivedRanges) {
+        final long groupStart = group * this.getGroupLength();
+        return !this.parityByGroup.containsKey(group) && this.parityByGroup.size() < MAXIMUM_PENDING_PARITY_PACKETS
+                && !receivedRanges.contains(groupStart, Math.min(groupStart + this.getGroupLength(), this.dataLength));
+    }
+
+    /**
+     * Keeps the parity packet of a group until the group is complete.
+     *
+     * @param group  - the index of the group in the message.
+     * @param parity - the data of the parity packet. The remaining bytes of the buffer are consumed.
+     * @return true if the parity packet is kept; false if the memory budget has no room for it.
+     */
+    public boolean keep(long group, ByteBuffer parity) {
+        final int length = parity.remaining();
+        if (this.budget != null && !this.budget.tryReserve(length)) {
+            return false;
+        }
+        final byte[] copy = new byte[length];
+        parity.get(copy);
+        this.parityByGroup.put(group, copy);
+        return true;
+    }
+
+    /**
+     * Rebuilds the lost data packet of a group whose parity packet is kept, if it's the only one missing:
+     * the XOR of the parity and the data of the other packets of the group, read back from the reassembly target.
+     * The parity packet is discarded once the group is complete or its lost packet has been rebuilt.
+     *
+     * @param group          - the index of the group in the message.
+     * @param receivedRanges - the data received so far.
+     * @param target         - the reassembly target the data of the group is read back from.
+     * @return true if a packet was rebuilt; its data is then returned by getRecoveredData.
+     * @throws IOException - if the data could not be read back.
+     */
+    public boolean recover(long group, ReceivedRanges receivedRanges, ReassemblyTarget target) throws IOException {
+        final byte[] parity = this.parityByGroup.get(group);
+        if (parity == null) {
+            return false;
+        }
+
+        final long groupStart = group * this.getGroupLength();
+        long lostStart = -1;
+        int lostLength = 0;
+        for (int i = 0; i < this.groupSize; i++) {
+            final long start = groupStart + (long) i * this.payloadLength;
+            if (start >= this.dataLength) {
+                break;
+            }
+            final int length = (int) Math.min(this.payloadLength, this.dataLength - start);
+            if (!receivedRanges.contains(start, start + length)) {
+                if (lostStart >= 0) {
+                    return false; // More than one packet is missing, so the group waits for more packets
+                }
+                lostStart = start;
+                lostLength = length;
+            }
+        }
+        this.remove(group);
+        if (lostStart < 0 || lostLength > parity.length) {
+            return false; // The group is complete, or the parity packet is too short to rebuild the lost packet
+        }
+
+        // The shorter packets of the group were padded with zeros when the parity was calculated
+        if (this.readBackBuffer == null) {
+            this.readBackBuffer = ByteBuffer.allocate(this.payloadLength);
+        }
+        for (int i = 0; i < this.groupSize; i++) {
+            final long start = groupStart + (long) i * this.payloadLength;
+            if (start >= this.dataLength) {
+                break;
+            }
+            if (start == lostStart) {
+                continue;
+            }
+            final int length = (int) Math.min(this.payloadLength, this.dataLength - start);
+            this.readBackBuffer.clear().limit(length);
+            target.read(start, this.readBackBuffer);
+            for (int j = 0; j < length; j++) {
+                parity[j] ^= this.readBackBuffer.get(j);
+            }
+        }
+        this.recoveredOffset = lostStart;
+        this.recoveredData = ByteBuffer.wrap(parity, 0, lostLength);
+        return true;
+    }
+
+    /**
+     * Gets the data of the packet rebuilt by the last call of recover.
+     *
+     * @return the data of the packet, whose remaining bytes are the data.
+     */
+    public ByteBuffer getRecoveredData() {
+        return recoveredData;
+    }
+
+    /**
+     * Gets the offset of the packet rebuilt by the last call of recover.
+     *
+     * @return the offset of the data in the message.
+     */
+    public long getRecoveredOffset() {
+        return recoveredOffset;
+    }
+
+    /**
+     * Removes the parity packet of a group and returns its memory to the budget.
+     *
+     * @param group - the index of the group in the message.
+     */
+    private void remove(long group) {
+        final byte[] parity = this.parityByGroup.remove(group);
+        if (parity != null && this.budget != null) {
+            this.budget.release(parity.length);
+        }
+    }
+
+    /**
+     * Removes all the kept parity packets once the session no longer needs them.
+     */
+    public void discard() {
+        if (this.budget != null) {
+            for (byte[] parity : this.parityByGroup.values()) {
+                this.budget.release(parity.length);
+            }
+        }
+        this.parityByGroup.clear();
+        this.recoveredData = null;
+    }
+
+    private long getGroupLength() {
+        return (long) this.groupSize * this.payloadLength;
+    }
+}
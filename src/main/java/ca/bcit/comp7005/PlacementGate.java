@@ -0,0 +1,57 @@
+package ca.bcit.comp7005;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets the placement workers write data into a reassembly target while the session closes parts of the data to them,
+ * e.g. the data received without gaps before it's digested, or a chunk before it's verified.
+ * A worker enters the gate, checks whether the data may still be written, writes it and leaves the gate.
+ * The session first publishes which data is closed and then waits for the workers that entered before,
+ * so once it returns no worker writes the closed data any more. The workers never wait for the session.
+ * The workers are counted by epoch: the session starts a new epoch and waits only for the workers of the previous one,
+ * which write one packet each, so the wait is short even while the workers keep writing other packets.
+ */
+public class PlacementGate {
+
+    private volatile int epoch;
+    // The number of workers in the gate, by the parity of the epoch they entered in
+    private final AtomicInteger[] writers = {new AtomicInteger(), new AtomicInteger()};
+
+    /**
+     * Enters the gate before checking and writing data. Called by a placement worker.
+     *
+     * @return the epoch the worker entered in, to leave the gate with.
+     */
+    public int enter() {
+        while (true) {
+            final int current = this.epoch;
+            this.writers[current & 1].incrementAndGet();
+            if (this.epoch == current) {
+                return current;
+            }
+            // The session started a new epoch meanwhile and may not have counted this worker, so it enters again
+            this.writers[current & 1].decrementAndGet();
+        }
+    }
+
+    /**
+     * Leaves the gate after the data has been written or skipped. Called by a placement worker.
+     *
+     * @param epoch - the epoch returned by enter().
+     */
+    public void leave(int epoch) {
+        this.writers[epoch & 1].decrementAndGet();
+    }
+
+    /**
+     * Waits until the workers that entered the gate before the call have left it. Called by the session, only by one
+     * thread at a time, after it has published the data that is closed.
+     */
+    public void awaitWriters() {
+        final int previous = this.epoch;
+        this.epoch = previous + 1;
+        while (this.writers[previous & 1].get() != 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Describes where a session puts the data of the validated packets.
+ * The data of each packet is written at its offset in the whole message as soon as the packet arrives.
+ */
+public interface ReassemblyTarget {
+
+    /**
+     * Writes the data of a packet at its offset in the whole message.
+     *
+     * @param offset - the offset of the data in the whole message.
+     * @param data   - the data of the packet. All the remaining bytes of the buffer are written.
+     * @throws IOException - if an I/O error occurs.
+     */
+    void write(long offset, ByteBuffer data) throws IOException;
+
+    /**
+     * Reads back data that has already been written, e.g. to digest data that arrived out of order.
+     *
+     * @param offset      - the offset of the data in the whole message.
+     * @param destination - the buffer the data is read into. All the remaining bytes of the buffer are filled.
+     * @throws IOException - if an I/O error occurs.
+     */
+    void read(long offset, ByteBuffer destination) throws IOException;
+
+    /**
+     * Checks whether the data of different packets can be written from several threads at the same time.
+     * The packets never overlap, except for duplicates that carry the same bytes.
+     *
+     * @return true if the writes may run concurrently.
+     */
+    default boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Called when the whole message has been written.
+     *
+     * @throws IOException - if an I/O error occurs.
+     */
+    void complete() throws IOException;
+
+    /**
+     * Called when the session is closed before the whole message has been received.
+     * The data written so far is discarded.
+     */
+    void abort();
+
+    /**
+     * Called when the sink has consumed the whole message, so the memory reserved for it can be reused.
+     */
+    default void release() {
+        // Nothing to do: the target doesn't hold memory from the budget of the receiver
+    }
+}
@@ -0,0 +1,206 @@
+package ca.bcit.comp7005;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of the byte ranges of the whole message that have been received.
+ * The ranges are kept sorted and merged in primitive arrays, so in-order data extends the last range without
+ * searching or allocating.
+ */
+public class ReceivedRanges {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The start (inclusive) and the end (exclusive) offsets of the disjoint ranges, sorted by the start offset
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Adds a range of received bytes.
+     *
+     * @param start - the offset of the first byte.
+     * @param end   - the offset after the last byte.
+     * @return the number of bytes in the range that had not been received before.
+     */
+    public long add(long start, long end) {
+        if (start >= end) {
+            return 0;
+        }
+
+        // In-order data: extend the last range
+        if (this.count > 0 && start == this.ends[this.count - 1]) {
+            this.ends[this.count - 1] = end;
+            return end - start;
+        }
+
+        // Find the first range that ends at or after the start of the new range
+        int first = this.lowerBound(start);
+
+        // The new range is already covered
+        if (first < this.count && this.starts[first] <= start && end <= this.ends[first]) {
+            return 0;
+        }
+
+        // Merge the ranges that overlap or touch the new range
+        long newStart = start;
+        long newEnd = end;
+        long alreadyReceived = 0;
+        int last = first;
+        while (last < this.count && this.starts[last] <= end) {
+            alreadyReceived += Math.min(this.ends[last], end) - Math.max(this.starts[last], start);
+            newStart = Math.min(newStart, this.starts[last]);
+            newEnd = Math.max(newEnd, this.ends[last]);
+            last++;
+        }
+
+        final int merged = last - first;
+        if (merged == 0) {
+            this.insertAt(first, newStart, newEnd);
+        } else {
+            this.starts[first] = newStart;
+            this.ends[first] = newEnd;
+            this.removeRange(first + 1, last);
+        }
+        return (end - start) - alreadyReceived;
+    }
+
+    /**
+     * Removes a range of bytes, e.g. data that failed its verification and must be received again.
+     * The ranges that overlap it are cut, or split in two.
+     *
+     * @param start - the offset of the first byte.
+     * @param end   - the offset after the last byte.
+     * @return the number of bytes in the range that had been received.
+     */
+    public long remove(long start, long end) {
+        if (start >= end) {
+            return 0;
+        }
+
+        // The ranges that end after the start of the removed range and start before its end overlap it
+        final int first = this.lowerBound(start + 1);
+        int last = first;
+        long removed = 0;
+        while (last < this.count && this.starts[last] < end) {
+            removed += Math.min(this.ends[last], end) - Math.max(this.starts[last], start);
+            last++;
+        }
+        if (first == last) {
+            return 0;
+        }
+
+        // Keep the parts of the first and the last overlapping ranges outside of the removed range
+        final long firstStart = this.starts[first];
+        final long lastEnd = this.ends[last - 1];
+        this.removeRange(first, last);
+        int index = first;
+        if (firstStart < start) {
+            this.insertAt(index++, firstStart, start);
+        }
+        if (lastEnd > end) {
+            this.insertAt(index, end, lastEnd);
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether all the bytes of the range have been received.
+     * Data below the contiguous end and data in the last range are checked in constant time,
+     * other data with a binary search over the gaps.
+     *
+     * @param start - the offset of the first byte.
+     * @param end   - the offset after the last byte.
+     * @return true if the range is a duplicate, false otherwise.
+     */
+    public boolean contains(long start, long end) {
+        if (start >= end) {
+            return true;
+        }
+        if (this.count == 0) {
+            return false;
+        }
+        if (this.starts[0] <= start && end <= this.ends[0]) {
+            return true;
+        }
+        if (this.starts[this.count - 1] <= start && end <= this.ends[this.count - 1]) {
+            return true;
+        }
+        final int index = this.lowerBound(end);
+        return index < this.count && this.starts[index] <= start;
+    }
+
+    /**
+     * Gets the number of bytes received from the start of the message without gaps.
+     *
+     * @return the offset of the first byte that has not been received.
+     */
+    public long getContiguousEnd() {
+        return this.count > 0 && this.starts[0] == 0 ? this.ends[0] : 0;
+    }
+
+    /**
+     * Finds the range that contains the offset.
+     *
+     * @param offset - the offset of a byte.
+     * @return the index of the range or -1 if the byte has not been received.
+     */
+    public int indexOf(long offset) {
+        final int index = this.lowerBound(offset + 1);
+        return index < this.count && this.starts[index] <= offset ? index : -1;
+    }
+
+    public int getRangeCount() {
+        return count;
+    }
+
+    public long getStart(int index) {
+        return this.starts[index];
+    }
+
+    public long getEnd(int index) {
+        return this.ends[index];
+    }
+
+    /**
+     * Removes all the ranges.
+     */
+    public void clear() {
+        this.count = 0;
+    }
+
+    /**
+     * Finds the index of the first range that ends at or after the offset.
+     */
+    private int lowerBound(long offset) {
+        int low = 0;
+        int high = this.count;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (this.ends[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insertAt(int index, long start, long end) {
+        if (this.count == this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, this.count * 2);
+            this.ends = Arrays.copyOf(this.ends, this.count * 2);
+        }
+        System.arraycopy(this.starts, index, this.starts, index + 1, this.count - index);
+        System.arraycopy(this.ends, index, this.ends, index + 1, this.count - index);
+        this.starts[index] = start;
+        this.ends[index] = end;
+        this.count++;
+    }
+
+    private void removeRange(int from, int to) {
+        System.arraycopy(this.starts, to, this.starts, from, this.count - to);
+        System.arraycopy(this.ends, to, this.ends, from, this.count - to);
+        this.count -= to - from;
+    }
+}
@@ -3,106 +3,350 @@ package ca.bcit.comp7005;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class that receives data from a sender.
  */
-public class Receiver {
+public class Receiver implements TransferHandler {
     private static final Logger logger = LoggerFactory.getLogger(Receiver.class);
 
     private final String directoryPath;
+    private final ReceiverConfig config;
 
-    private static final String logFilePath = "log.txt";
+    // The metrics of the transfers, exposed over JMX and written to the snapshot file
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    // The data transfer of each shard; without sharding there is one data transfer
+    private final List<DataTransfer> shards = new ArrayList<>();
+
+    // The sink of the completed messages, or null to use the sink chosen in the settings
+    private final TransferSink sink;
+    private SinkStage sinkStage;
+
+    // The memory the messages reassembled in memory may take together, until the sink has consumed them
+    private final MemoryBudget memoryBudget;
+
+    // How often the datagrams dropped by the kernel are checked
+    private static final long KERNEL_DROP_CHECK_INTERVAL_MILLISECONDS = 1000;
 
     /**
      * @param directoryPath - the path to the directory where the received files will be saved.
+     * @param config - the settings of the receiver.
      */
-    public Receiver(String directoryPath) {
+    public Receiver(String directoryPath, ReceiverConfig config) {
+        this(directoryPath, config, null);
+    }
+
+    /**
+     * Creates a receiver that hands the completed messages over to a custom sink, e.g. a callback.
+     * @param directoryPath - the path to the directory where the files streamed to disk will be saved.
+     * @param config - the settings of the receiver.
+     * @param sink - the sink of the completed messages, or null to use the sink chosen in the settings.
+     */
+    public Receiver(String directoryPath, ReceiverConfig config, TransferSink sink) {
         this.directoryPath = directoryPath;
+        this.config = config;
+        this.sink = sink;
+        this.memoryBudget = new MemoryBudget(config.getMemoryBudget());
+    }
+
+    /**
+     * @param directoryPath - the path to the directory where the received files will be saved.
+     */
+    public Receiver(String directoryPath) {
+        this(directoryPath, new ReceiverConfig());
     }
 
     /**
      * Run the receiver.
+     * The transfers from different senders are received concurrently until a "quit" message is received.
+     * In the sharded mode, each shard receives on its own channel bound to the same port and runs on its own thread.
      * @param port - the port to listen on.
      * @param timeout - the timeout for receiving data packets.
+     * @throws IOException - if the socket could not be opened.
      */
-    public void run(int port, int timeout) throws SocketException {
+    public void run(int port, int timeout) throws IOException {
         logger.info("Receiver started");
 
-        DataTransfer dataTransfer = new DataTransfer(timeout, port);
+        this.metrics.registerMBeans();
+        final Path metricsPath = Paths.get(this.config.getMetricsFile());
+        this.metrics.startSnapshots(metricsPath, this.config.getMetricsIntervalSeconds());
 
+        // The completed messages are consumed by the sink on its own thread
+        final TransferSink sink = this.sink != null ? this.sink : this.createSink();
+        this.sinkStage = SinkStage.start(sink, this.config.getSinkQueueCapacity(), this.metrics.getAggregate());
+
+        KernelDropMonitor kernelDropMonitor = null;
         try {
+            final int shardCount = Math.max(1, this.config.getShards());
+            for (int i = 0; i < shardCount; i++) {
+                this.shards.add(new DataTransfer(timeout, this.createTransport(port, shardCount > 1), this, this.config, this.metrics));
+            }
+            if (KernelDropMonitor.isSupported()) {
+                kernelDropMonitor = new KernelDropMonitor(port, this.metrics.getAggregate());
+                kernelDropMonitor.start(KERNEL_DROP_CHECK_INTERVAL_MILLISECONDS);
+            }
 
-            boolean isRunning = true;
-            while (isRunning) {
-                // Accept a SYN packet from the sender and respond with a SYN-ACK packet
-                dataTransfer.accept();
-
-                // Receive data packets from the sender
-                // If the sender sends another SYN packet, DataTransferRestartException is thrown and the connection is restarted
-                byte[] data = dataTransfer.readData();
-
-                // If the file type is tex, it's a text string
-                if (dataTransfer.getFileType().equals("textstring")) {
-                    String receivedMessage = new String(data);
-                    logger.info("Received message: " + receivedMessage + "\n");
-
-                    if (receivedMessage.equals("quit")) {
-                        isRunning = false;
-                    }
-                } else {
-                    // If the file type is different, it's a file and we save it
-                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
-                    String timestamp = LocalDateTime.now().format(formatter);
-
-                    String filePath = this.directoryPath + "/" + timestamp + "." + dataTransfer.getFileType(); // Replace with the desired path for the output file
-                    Path path = Paths.get(filePath);
-                    Files.write(path, data);
-                    logger.info("Received file: " + filePath + "\n");
+            if (shardCount == 1) {
+                this.listen(this.shards.get(0));
+            } else {
+                // The kernel hashes the address and port of each sender to one of the channels,
+                // so all the packets of a sender are received and acknowledged by the same shard
+                final List<Thread> listeners = new ArrayList<>();
+                for (int i = 0; i < shardCount; i++) {
+                    final DataTransfer shard = this.shards.get(i);
+                    listeners.add(Thread.ofPlatform().name("shard-" + i).start(() -> this.listen(shard)));
                 }
-
-                this.writeStatistics(dataTransfer.getStatistics());
+                for (Thread listener : listeners) {
+                    listener.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (kernelDropMonitor != null) {
+                kernelDropMonitor.close();
             }
-            dataTransfer.close();
+            for (DataTransfer shard : this.shards) {
+                shard.close();
+            }
+            // The messages of the sessions completed before the shards closed are still consumed
+            this.sinkStage.close();
+            this.metrics.close();
+            this.writeMetrics(metricsPath);
+        }
 
-        } catch (SocketTimeoutException e) {
-            logger.error("Message data was not received");
+        logger.info("Receiver stopped");
+    }
+
+    /**
+     * Receives the packets of a shard until the receiver is stopped.
+     * If receiving fails, the whole receiver is stopped.
+     * @param shard - the data transfer of the shard.
+     */
+    private void listen(DataTransfer shard) {
+        try {
+            // Accept SYN packets from the senders and receive their data packets
+            // If a sender sends another SYN packet, its session is restarted
+            shard.listen();
         } catch (IOException e) {
             logger.error("Error receiving message: " + e.getMessage());
+            this.stop();
         }
+    }
 
-        logger.info("Receiver stopped");
+    /**
+     * Stops receiving on all the shards, e.g. when the receiver is embedded in another program.
+     * Sessions that are being processed are completed, and run() returns once they're done.
+     */
+    public void stop() {
+        for (DataTransfer shard : this.shards) {
+            shard.stop();
+        }
     }
 
     /**
-     * Writes the statistics to the log file.
-     * The entry in the log file contains the number of sent and received packets
-     * @param line - the statistics to write.
+     * Creates the transport chosen in the settings.
+     * @param port      - the port to listen on.
+     * @param reusePort - whether the port is shared by the channels of several shards.
+     * @return the transport.
+     * @throws IOException - if the socket could not be opened.
      */
-    private void writeStatistics(String line) {
-        // Get the current timestamp for the log entry
-        LocalDateTime currentTime = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        String timestamp = currentTime.format(formatter);
-
-        // Append the log message with timestamp
-        String logEntry = timestamp + " - " + line;
-
-        // Write the log entry to the file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFilePath, true))) {
-            writer.write(logEntry);
-            writer.newLine(); // Add a newline for the next entry
+    private Transport createTransport(int port, boolean reusePort) throws IOException {
+        // The receive buffers fit the largest data packet the receiver accepts
+        final int segmentSize = this.config.getMaximumSegmentSize();
+        final Transport transport;
+        if (this.config.isNio() || reusePort) {
+            BufferPool bufferPool = new BufferPool(this.config.getReceiveBuffers(), segmentSize);
+            transport = new DatagramChannelTransport(port, bufferPool, reusePort);
+        } else {
+            transport = new DatagramSocketTransport(port, segmentSize);
+        }
+
+        // The socket receive buffer holds a window of the largest data packets while the receive loop is busy
+        final int requestedSize = (int) Math.min(Integer.MAX_VALUE, (long) segmentSize * this.config.getReceiveWindow());
+        final int actualSize = transport.setReceiveBufferSize(requestedSize);
+        if (actualSize < requestedSize) {
+            logger.error("The socket receive buffer is limited to " + actualSize + " of " + requestedSize
+                    + " bytes; raise net.core.rmem_max to avoid kernel drops");
+        } else {
+            logger.info("Socket receive buffer: " + actualSize + " bytes");
+        }
+        return transport;
+    }
+
+    /**
+     * Chooses where the data of a new session is reassembled.
+     * In the streaming mode, files are written straight to their final location, so the memory used by the session
+     * doesn't depend on the size of the file. Files too large for an array are always written straight to disk,
+     * and text strings are always reassembled in memory. The files of resumable transfers are always written
+     * straight to disk into a partial file named after the transfer id, so a later session can find it.
+     * The messages in memory are reserved from the memory budget: a file that doesn't fit is spilled to disk,
+     * even if it's larger than the whole budget, and a text string or a stream that doesn't fit is refused until
+     * the sink has consumed enough messages. A text string larger than the whole budget is never accepted.
+     * The messages of a stream are reserved as their frames are parsed and spilled to disk the same way.
+     * @param session - the new session.
+     * @return the reassembly target of the session.
+     * @throws AdmissionException - if the memory budget has no room for the session at the moment.
+     * @throws IOException        - if the file could not be created or the text string is too large.
+     */
+    @Override
+    public ReassemblyTarget openTarget(Session session) throws IOException {
+        if (session.isStream()) {
+            this.admit(session, session.getStreamCapacity());
+            return new StreamReassemblyTarget(session.getStreamCapacity(), this.memoryBudget,
+                    (offset, mimeType, length) -> this.spillMessage(session, offset, mimeType, length));
+        }
+        if (session.isResumable()) {
+            final Path partialPath = Paths.get(this.directoryPath, session.getTransferId() + ".part");
+            return new FileReassemblyTarget(this.getFilePath(session), partialPath, session.getMessageLength());
+        }
+        final boolean isTextString = session.getFileType().equals("textstring");
+        final boolean fitsInMemory = session.getMessageLength() <= HeapReassemblyTarget.MAXIMUM_LENGTH;
+        if (!isTextString && (this.config.isStreaming() || !fitsInMemory)) {
+            return new FileReassemblyTarget(this.getFilePath(session), session.getMessageLength());
+        }
+        if (isTextString && !fitsInMemory) {
+            throw new IOException("The text string of " + session.getMessageLength() + " bytes is too large for memory");
+        }
+        if (isTextString && session.getMessageLength() > this.memoryBudget.getCapacity()) {
+            throw new IOException("The text string of " + session.getMessageLength() + " bytes is larger than the memory budget of "
+                    + this.memoryBudget.getCapacity() + " bytes");
+        }
+        if (!isTextString && !this.memoryBudget.tryReserve(session.getMessageLength())) {
+            // The file is written to disk instead of waiting for memory
+            this.metrics.getAggregate().onTransferSpilled();
+            logger.debug("Spilling " + session.getKey() + " of " + session.getMessageLength() + " bytes to disk");
+            return new FileReassemblyTarget(this.getFilePath(session), session.getMessageLength());
+        }
+        if (isTextString) {
+            this.admit(session, session.getMessageLength());
+        }
+        return new HeapReassemblyTarget((int) session.getMessageLength(), this.memoryBudget);
+    }
+
+    /**
+     * Creates the file of a message of a stream that the memory budget has no room for.
+     * @param session  - the session of the stream.
+     * @param offset   - the offset of the frame of the message in the stream.
+     * @param mimeType - the MIME type of the message.
+     * @param length   - the length of the message.
+     * @return the target of the message, or null for a text string, which waits for memory instead.
+     * @throws IOException - if the file could not be created.
+     */
+    private ReassemblyTarget spillMessage(Session session, long offset, String mimeType, int length) throws IOException {
+        final String fileType = DataTransfer.toFileType(mimeType);
+        if (fileType.equals("textstring")) {
+            return null;
+        }
+        final SessionKey key = session.getMessageKey(offset);
+        this.metrics.getAggregate().onTransferSpilled();
+        logger.debug("Spilling message " + key + " of " + length + " bytes to disk");
+        return new FileReassemblyTarget(FileSink.getFilePath(this.directoryPath, key, fileType), length);
+    }
+
+    /**
+     * Reserves the memory of a session that can't be written to disk.
+     * @param session - the new session.
+     * @param bytes   - the memory the session needs.
+     * @throws AdmissionException - if the memory budget has no room for the session.
+     */
+    private void admit(Session session, long bytes) throws AdmissionException {
+        if (!this.memoryBudget.tryReserve(bytes)) {
+            throw new AdmissionException("No memory for " + bytes + " bytes of " + session.getKey() + ": " + this.memoryBudget.getReserved() + "/"
+                    + this.memoryBudget.getCapacity() + " bytes reserved", this.config.getAdmissionBackoffMillis());
+        }
+    }
+
+    /**
+     * Hands the data of a completed session over to the sink stage and stops the receiver on a "quit" message.
+     * It's called concurrently by the sessions of different senders.
+     * @param session - the completed session.
+     * @param target - the reassembly target that contains the whole message.
+     * @throws IOException - if the receiver is stopping and the sink no longer accepts messages.
+     */
+    @Override
+    public void onTransferComplete(Session session, ReassemblyTarget target) throws IOException {
+        final CompletedTransfer transfer = new CompletedTransfer(session.getKey(), session.getFileType(), target,
+                session.getStatistics());
+        logger.info(transfer.statistics());
+        this.submit(transfer);
+    }
+
+    /**
+     * Hands a message of a persistent session over to the sink stage like a completed session.
+     * @param session  - the session of the stream.
+     * @param key      - the key of the message.
+     * @param fileType - the file extension of the message.
+     * @param target   - the reassembly target that contains the message.
+     * @throws IOException - if the receiver is stopping and the sink no longer accepts messages.
+     */
+    @Override
+    public void onMessage(Session session, SessionKey key, String fileType, ReassemblyTarget target) throws IOException {
+        final CompletedTransfer transfer = new CompletedTransfer(key, fileType, target, "Message " + key + " of stream " + session.getKey());
+        logger.debug(transfer.statistics());
+        this.submit(transfer);
+    }
+
+    private void submit(CompletedTransfer transfer) throws IOException {
+        try {
+            this.sinkStage.submit(transfer);
+        } catch (IOException e) {
+            // The message is dropped, so its memory is returned to the budget
+            transfer.target().release();
+            throw e;
+        }
+
+        if (transfer.isTextString() && transfer.target() instanceof HeapReassemblyTarget heapTarget
+                && new String(heapTarget.getData()).equals("quit")) {
+            this.stop();
+        }
+    }
+
+    @Override
+    public double getSinkLoad() {
+        return this.sinkStage != null ? this.sinkStage.getLoad() : 0;
+    }
+
+    @Override
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the path of the file for the data of the session.
+     * @param session - the session.
+     * @return the path of the file.
+     */
+    private Path getFilePath(Session session) {
+        return FileSink.getFilePath(this.directoryPath, session.getKey(), session.getFileType());
+    }
+
+    /**
+     * Creates the sink chosen in the settings.
+     * @return the sink.
+     */
+    private TransferSink createSink() {
+        if (this.config.getSink().equals("console")) {
+            return new ConsoleSink();
+        }
+        return new FileSink(this.directoryPath);
+    }
+
+    /**
+     * Writes the final snapshot of the metrics when the receiver stops.
+     * @param path - the snapshot file.
+     */
+    private void writeMetrics(Path path) {
+        try {
+            this.metrics.writeSnapshot(path);
         } catch (IOException e) {
-            System.err.println("Error writing to the log file: " + e.getMessage());
+            logger.error("Error writing the metrics snapshot: " + e.getMessage());
         }
     }
 }
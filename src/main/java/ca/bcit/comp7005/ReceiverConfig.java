@@ -0,0 +1,199 @@
+package ca.bcit.comp7005;
+
+/**
+ * The settings of the receiver that can be changed from the command line.
+ */
+public class ReceiverConfig {
+
+    // The default number of pooled receive buffers of the NIO transport
+    public static final int DEFAULT_RECEIVE_BUFFERS = 1024;
+
+    // The default maximum time a data packet waits for its ACK packet with the delayed ACK policy
+    public static final int DEFAULT_ACK_DELAY_MILLISECONDS = 10;
+
+    // The default number of the largest data packets the socket receive buffer holds
+    public static final int DEFAULT_RECEIVE_WINDOW = 256;
+
+    // The default time between the checkpoints of a resumable transfer
+    public static final int DEFAULT_CHECKPOINT_INTERVAL_MILLISECONDS = 1000;
+
+    // The default sink and the default number of completed messages waiting for it
+    public static final String DEFAULT_SINK = "file";
+    public static final int DEFAULT_SINK_QUEUE_CAPACITY = 64;
+
+    // The default share of the maximum heap size the messages reassembled in memory may take together,
+    // and the default time a refused sender is told to wait before it sends its SYN packet again
+    public static final int DEFAULT_MEMORY_BUDGET_PERCENT = 50;
+    public static final int DEFAULT_ADMISSION_BACKOFF_MILLISECONDS = 500;
+
+    // The default snapshot file of the metrics and the default time between the snapshots
+    public static final String DEFAULT_METRICS_FILE = "metrics.txt";
+    public static final int DEFAULT_METRICS_INTERVAL_SECONDS = 10;
+
+    // Whether the received files are written straight to disk as the packets arrive
+    private boolean streaming;
+
+    // Whether the datagrams are received by the DatagramChannel transport with pooled direct buffers
+    private boolean nio;
+    private int receiveBuffers = DEFAULT_RECEIVE_BUFFERS;
+
+    // The size of the largest data packet the receiver accepts, and the number of such packets the socket receive
+    // buffer (SO_RCVBUF) holds while the receive loop is busy
+    private int maximumSegmentSize = AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES;
+    private int receiveWindow = DEFAULT_RECEIVE_WINDOW;
+
+    // The number of channels bound to the port with SO_REUSEPORT, each one received by its own shard
+    private int shards = 1;
+
+    // The number of threads of each shard that validate the data packets of large transfers and write them into
+    // their targets, so one transfer uses several cores; 0 processes the packets on the thread of the session
+    private int placementWorkers;
+
+    // The number of data packets acknowledged by one cumulative ACK packet; 1 acknowledges each packet
+    private int ackEvery = 1;
+    private int ackDelayMillis = DEFAULT_ACK_DELAY_MILLISECONDS;
+
+    // The time between the checkpoints of the received ranges of a resumable transfer
+    private int checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLISECONDS;
+
+    // The sink of the completed messages ("file" or "console"), and the number of completed messages waiting for it
+    private String sink = DEFAULT_SINK;
+    private int sinkQueueCapacity = DEFAULT_SINK_QUEUE_CAPACITY;
+
+    // The number of bytes the messages reassembled in memory may take together, and how long a sender refused
+    // for the lack of memory is told to wait
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_BUDGET_PERCENT;
+    private int admissionBackoffMillis = DEFAULT_ADMISSION_BACKOFF_MILLISECONDS;
+
+    // The file the snapshot of the metrics is written to, and the time between the snapshots
+    private String metricsFile = DEFAULT_METRICS_FILE;
+    private int metricsIntervalSeconds = DEFAULT_METRICS_INTERVAL_SECONDS;
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isNio() {
+        return nio;
+    }
+
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    public int getReceiveBuffers() {
+        return receiveBuffers;
+    }
+
+    public void setReceiveBuffers(int receiveBuffers) {
+        this.receiveBuffers = receiveBuffers;
+    }
+
+    public int getMaximumSegmentSize() {
+        return maximumSegmentSize;
+    }
+
+    public void setMaximumSegmentSize(int maximumSegmentSize) {
+        this.maximumSegmentSize = maximumSegmentSize;
+    }
+
+    public int getReceiveWindow() {
+        return receiveWindow;
+    }
+
+    public void setReceiveWindow(int receiveWindow) {
+        this.receiveWindow = receiveWindow;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public int getPlacementWorkers() {
+        return placementWorkers;
+    }
+
+    public void setPlacementWorkers(int placementWorkers) {
+        this.placementWorkers = placementWorkers;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getAdmissionBackoffMillis() {
+        return admissionBackoffMillis;
+    }
+
+    public void setAdmissionBackoffMillis(int admissionBackoffMillis) {
+        this.admissionBackoffMillis = admissionBackoffMillis;
+    }
+
+    public int getAckEvery() {
+        return ackEvery;
+    }
+
+    public void setAckEvery(int ackEvery) {
+        this.ackEvery = ackEvery;
+    }
+
+    public int getAckDelayMillis() {
+        return ackDelayMillis;
+    }
+
+    public void setAckDelayMillis(int ackDelayMillis) {
+        this.ackDelayMillis = ackDelayMillis;
+    }
+
+    public int getCheckpointIntervalMillis() {
+        return checkpointIntervalMillis;
+    }
+
+    public void setCheckpointIntervalMillis(int checkpointIntervalMillis) {
+        this.checkpointIntervalMillis = checkpointIntervalMillis;
+    }
+
+    public String getSink() {
+        return sink;
+    }
+
+    public void setSink(String sink) {
+        this.sink = sink;
+    }
+
+    public int getSinkQueueCapacity() {
+        return sinkQueueCapacity;
+    }
+
+    public void setSinkQueueCapacity(int sinkQueueCapacity) {
+        this.sinkQueueCapacity = sinkQueueCapacity;
+    }
+
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    public void setMetricsFile(String metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    public int getMetricsIntervalSeconds() {
+        return metricsIntervalSeconds;
+    }
+
+    public void setMetricsIntervalSeconds(int metricsIntervalSeconds) {
+        this.metricsIntervalSeconds = metricsIntervalSeconds;
+    }
+}
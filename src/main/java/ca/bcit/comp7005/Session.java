@@ -0,0 +1,1568 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * This class describes a single data transfer from one sender.
+ * The packets of the session are queued by the DataTransfer and processed one at a time by the session's executor,
+ * so sessions of different senders progress independently of each other.
+ */
+public class Session {
+
+    private static final Logger logger = LoggerFactory.getLogger(Session.class);
+
+    private final SessionKey key;
+    private final DataTransfer dataTransfer;
+    private final Executor executor;
+
+    // The following properties are used for data transfer meta-data
+    private final int initialSequenceNumber;
+    private final long dataLength;
+    private final String fileType;
+
+    // The length of the message after it's decompressed; the same as the length of the data if it's not compressed
+    // and has no manifest
+    private final long messageLength;
+
+    // Where the data is written and the length of the data received so far.
+    // A compressed message is written through an inflating target into the output target.
+    // The targets are set when the session is opened, before the session is published
+    private ReassemblyTarget target;
+    private ReassemblyTarget output;
+    private InflatingReassemblyTarget inflating;
+
+    // The on-disk record of the received ranges of a resumable transfer, or null if the transfer is not resumable.
+    // The record is updated at most once per interval while data is arriving
+    private final boolean resumable;
+    private TransferCheckpoint checkpoint;
+    private final long checkpointIntervalMillis;
+    private volatile HashedWheelTimer.Timeout checkpointTimeout;
+    private volatile boolean checkpointRequested;
+    private long receivedDataLength;
+    private final ReceivedRanges receivedRanges = new ReceivedRanges();
+    private volatile boolean completed;
+    private boolean released;
+    // The digest of the whole message is verified before the last data is acknowledged. A message that doesn't match
+    // fails the session: the retransmitted data packets are answered with a RST packet until the session is removed
+    private boolean digestVerified;
+    private boolean failed;
+
+    // Large uncompressed messages are validated and written by the placement workers of the data transfer before
+    // the session processes their packets in the order of arrival, so one transfer uses several cores.
+    // Each worker keeps its own codec. The executor is null for the other sessions
+    private static final long MINIMUM_PLACEMENT_LENGTH = 1024 * 1024;
+    private static final ThreadLocal<AZRPCodec> placementCodecs = ThreadLocal.withInitial(AZRPCodec::new);
+    private Executor placementExecutor;
+    // The data received without gaps, for the workers to map the sequence numbers to offsets. The workers don't
+    // write below it: the data there is a duplicate and may be digested at the moment. The session waits at the gate
+    // for the workers that may still be writing below it before it reads the data back
+    private volatile long placementBase;
+    private PlacementGate placementGate;
+
+    // Packets waiting to be processed and whether a task to process them is scheduled on the executor
+    private final Queue<Datagram> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedPackets = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Reads the received packets and encodes the ACK and SYN-ACK packets without allocating
+    private final AZRPCodec codec = new AZRPCodec();
+    private final ByteBuffer controlBuffer = AZRPCodec.allocateControlBuffer();
+
+    // The parameters negotiated in the SYN packet and the digest of the whole message, or null if it's not verified
+    private final ConnectionOptions options;
+    private final ContiguousDigest digest;
+
+    // The size of the largest data packet the sender may send
+    private final int segmentSize;
+
+    // Decides when the received data packets are acknowledged
+    private final AckPolicy ackPolicy;
+    private volatile boolean ackFlushRequested;
+    // The offset of the latest packet that waits for the cumulative ACK packet
+    private long latestOffset = -1;
+
+    // Whether the ACK packets carry the receive window, and the offset of the end of the latest advertised window
+    private final boolean flowControl;
+    private long windowEnd;
+
+    // Timestamps: the data packets end with the clock of the sender, and every ACK packet echoes the timestamp
+    // of the earliest packet received since the previous ACK packet with the time the receiver held that packet,
+    // so the sender measures the round-trip time of any packet, including the retransmitted ones.
+    // The SYN-ACK packet echoes the latest SYN packet the same way.
+    private final boolean timestamps;
+    private long packetReceivedNanos;
+    // Whether a placement worker validated the packet and wrote its data
+    private boolean packetChecksumVerified;
+    private boolean packetPlaced;
+    private boolean echoPending;
+    private int echoTimestamp;
+    private long echoReceivedNanos;
+    private int synTimestamp;
+    private long synReceivedNanos;
+    // The position of the TIMESTAMP option in the encoded SYN-ACK packet, updated before each transmission
+    private int synAckTimestampPosition = -1;
+
+    // The inter-arrival jitter like in RTP: the smoothed difference between the time between two packets at the
+    // receiver and at the sender, in microseconds
+    private boolean previousTimestampReceived;
+    private int previousTimestamp;
+    private long previousReceivedMicros;
+    private double jitterMicros;
+
+    // The ACK packets carry an options block, so they don't echo the checksum of the data packet
+    private final boolean ackOptions;
+
+    // The stream of a persistent session, which carries framed messages until its end frame instead of one message
+    // of the length of the SYN packet, and the delivery of its messages, or null
+    private StreamReassemblyTarget stream;
+    private StreamDelivery streamDelivery;
+
+    // How much data a stream or a compressed message keeps ahead of the data it has parsed or inflated
+    private final int bufferCapacity;
+
+    // The budget the memory filled as packets arrive is reserved from, or null if the memory is not limited
+    private final MemoryBudget memoryBudget;
+
+    // Forward error correction rebuilds one lost packet of a group from its parity packet, or null without FEC.
+    // The checksum of a rebuilt packet is calculated for its ACK packet if the ACK packets echo the checksums
+    private final ParityRecovery parityRecovery;
+    private Checksum fecChecksum;
+
+    // The manifest of a message with chunk hashes and its verifier, or null. The data starts with the manifest,
+    // then the manifest and the chunks are verified as their data arrives. A chunk that doesn't match its hash is
+    // discarded and requested again in every ACK packet until it has been received again. The last ACK packet is sent
+    // only when every chunk has been verified, so the sender never stops before a chunk has been requested again
+    private static final int MAXIMUM_VERIFICATION_ATTEMPTS = 4;
+    private ManifestReassemblyTarget manifest;
+    private ManifestVerifier manifestVerifier;
+    private volatile boolean chunkResultsRequested;
+
+    private volatile long lastActivityNanos;
+    private volatile boolean closed;
+
+    // The pending deadlines of the session on the timer of the data transfer
+    private HashedWheelTimer.Timeout idleTimeout;
+    private volatile HashedWheelTimer.Timeout synAckTimeout;
+    private volatile HashedWheelTimer.Timeout ackFlushTimeout;
+
+    // The SYN-ACK packet is retransmitted with an exponential backoff until the first data packet arrives,
+    // in case it was lost and the sender waits for it
+    private static final int INITIAL_SYN_ACK_TIMEOUT_MILLISECONDS = 1000;
+    private static final int MAXIMUM_SYN_ACK_RETRANSMISSIONS = 4;
+    private ByteBuffer synAck;
+    private int synAckRetransmissions;
+    private volatile boolean synAckRetransmitRequested;
+
+    // The metrics of the session and the times used to calculate them
+    private TransferMetrics metrics;
+    private final long openedNanos;
+    private long synAckSentNanos;
+    private boolean dataReceived;
+
+    // The progress of the transfer is logged at most once per interval
+    private static final long PROGRESS_LOG_INTERVAL_NANOS = 1_000_000_000L;
+    private long lastProgressLogNanos;
+
+    // The flight recorder events that span packets: the lifetime of the session, and the current gap in the data
+    // if the gap event is enabled
+    private final TransferEvents.TransferCompleted completedEvent = new TransferEvents.TransferCompleted();
+    private TransferEvents.GapFilled gapEvent;
+
+    /**
+     * Opens a session for a SYN packet: creates the session and the reassembly target of its message.
+     * If the session can't be set up, the target is aborted, so its memory reservation and its file are released.
+     * @param key          - the sender's endpoint and initial sequence number.
+     * @param synAzrp      - the SYN packet that opened the session.
+     * @param options      - the options negotiated in the SYN packet.
+     * @param dataTransfer - the data transfer used to send ACK packets and to report the session's completion.
+     * @param executor     - the executor that processes the packets of the session.
+     * @return the new session.
+     * @throws AdmissionException - if the receiver has no memory for the session at the moment.
+     * @throws IOException        - if the file type could not be determined or the reassembly target could not be created.
+     */
+    public static Session open(SessionKey key, AZRP synAzrp, ConnectionOptions options, DataTransfer dataTransfer,
+                               Executor executor) throws IOException {
+        final Session session = new Session(key, synAzrp, options, dataTransfer, executor);
+        session.openTarget();
+        return session;
+    }
+
+    /**
+     * @param key          - the sender's endpoint and initial sequence number.
+     * @param synAzrp      - the SYN packet that opened the session.
+     * @param options      - the options negotiated in the SYN packet.
+     * @param dataTransfer - the data transfer used to send ACK packets and to report the session's completion.
+     * @param executor     - the executor that processes the packets of the session.
+     * @throws IOException - if the file type could not be determined.
+     */
+    private Session(SessionKey key, AZRP synAzrp, ConnectionOptions options, DataTransfer dataTransfer, Executor executor)
+            throws IOException {
+        this.key = key;
+        this.dataTransfer = dataTransfer;
+        this.executor = executor;
+
+        this.initialSequenceNumber = synAzrp.getSequenceNumber();
+        // A stream has no length: it ends with its end frame. The manifest of a message precedes the message
+        final long sentLength = options.getMessageLength(synAzrp.getLength());
+        this.dataLength = options.isStream() ? Long.MAX_VALUE : sentLength + options.getManifestLength(sentLength);
+        this.fileType = DataTransfer.toFileType(new String(synAzrp.getData()));
+
+        this.options = options;
+        this.codec.setDataChecksumAlgorithm(options.getChecksumAlgorithm());
+        this.digest = options.getDigestAlgorithm() != null
+                ? new ContiguousDigest(options.getDigestAlgorithm(), options.getExpectedDigest())
+                : null;
+
+        final ReceiverConfig config = dataTransfer.getConfig();
+        this.segmentSize = options.getSegmentSize(config.getMaximumSegmentSize());
+        this.ackPolicy = new AckPolicy(config.getAckEvery(), config.getAckDelayMillis());
+        this.flowControl = options.isFlowControl();
+        this.timestamps = options.isTimestamps();
+        this.ackOptions = this.flowControl || this.timestamps;
+        this.codec.setDataTimestamps(this.timestamps);
+
+        final CompressionAlgorithm compressionAlgorithm = options.getCompressionAlgorithm();
+        this.messageLength = compressionAlgorithm != null ? options.getDecompressedLength()
+                : options.isStream() ? Long.MAX_VALUE : sentLength;
+        // The state of the decompressor can't be restored, so only uncompressed files can be resumed
+        this.resumable = options.getTransferId() != null && compressionAlgorithm == null && !this.fileType.equals("textstring");
+        this.checkpointIntervalMillis = config.getCheckpointIntervalMillis();
+        // A stream or a compressed message buffers as much data ahead of the parsed or inflated data as the receive
+        // window of the session
+        this.bufferCapacity = (int) Math.min(StreamReassemblyTarget.MAXIMUM_CAPACITY,
+                Math.max(StreamReassemblyTarget.MINIMUM_CAPACITY, (long) config.getReceiveWindow() * this.segmentSize));
+        this.memoryBudget = dataTransfer.getMemoryBudget();
+        this.parityRecovery = options.getFecGroupSize() > 0
+                ? new ParityRecovery(options.getFecGroupSize(), options.getFecPayloadLength(), this.dataLength, this.memoryBudget)
+                : null;
+        this.openedNanos = System.nanoTime();
+        this.lastActivityNanos = this.openedNanos;
+        this.lastProgressLogNanos = this.openedNanos;
+    }
+
+    /**
+     * Creates the reassembly target of the message and the state that depends on it.
+     * The target holds memory from the budget of the receiver or a file, so it's aborted if the rest fails.
+     * @throws IOException - if the reassembly target could not be created or set up.
+     */
+    private void openTarget() throws IOException {
+        this.output = this.dataTransfer.openTarget(this);
+        try {
+            this.setUpTarget();
+        } catch (IOException | RuntimeException e) {
+            this.output.abort();
+            this.output.release();
+            throw e;
+        }
+        this.metrics = this.dataTransfer.getMetrics().openSession(this.key);
+        this.completedEvent.begin();
+    }
+
+    /**
+     * Wraps the output target into the target the packets are written into, and restores the checkpoint.
+     * @throws IOException - if the target doesn't fit the session or the checkpoint could not be read.
+     */
+    private void setUpTarget() throws IOException {
+        final CompressionAlgorithm compressionAlgorithm = this.options.getCompressionAlgorithm();
+        if (!this.options.isStream()) {
+            this.stream = null;
+            this.streamDelivery = null;
+        } else if (this.output instanceof StreamReassemblyTarget streamTarget) {
+            this.stream = streamTarget;
+            this.streamDelivery = new StreamDelivery(streamTarget, this.key, this.initialSequenceNumber,
+                    this.dataTransfer.getReadDataTimeOut(), this::deliverMessage);
+        } else {
+            throw new IOException("The target of a stream must parse its frames");
+        }
+        if (this.resumable && this.output instanceof FileReassemblyTarget file && file.isResumable()) {
+            this.checkpoint = new TransferCheckpoint(file);
+            this.receivedDataLength = this.checkpoint.restore(this.receivedRanges, this.dataLength);
+            if (this.receivedDataLength > 0) {
+                logger.info("Resuming " + this.key + " with " + this.receivedDataLength + "/" + this.dataLength + " bytes");
+            }
+        } else {
+            this.checkpoint = null;
+        }
+        // The digest of a compressed message is calculated over the decompressed data
+        if (compressionAlgorithm != null) {
+            this.manifest = null;
+            this.inflating = new InflatingReassemblyTarget(this.output, compressionAlgorithm, this.messageLength,
+                    this.digest, this.bufferCapacity, this.memoryBudget);
+            this.target = this.inflating;
+        } else if (this.options.getManifestAlgorithm() != null) {
+            this.manifest = new ManifestReassemblyTarget(this.output, this.options.getManifestAlgorithm(),
+                    this.options.getChunkSize(), this.messageLength, this.options.getManifestRoot());
+            this.target = this.manifest;
+        } else {
+            this.manifest = null;
+            this.target = this.output;
+        }
+        this.manifestVerifier = this.manifest != null
+                ? new ManifestVerifier(this.manifest, this.key, this.receivedRanges,
+                        this.manifest.isConcurrent() ? this.dataTransfer.getPlacementExecutor() : null,
+                        this::awaitPlacementWriters, this::requestChunkResults, () -> this.metrics.onChunkVerified(),
+                        this::discardData)
+                : null;
+        this.placementExecutor = this.target.isConcurrent()
+                && this.dataLength >= MINIMUM_PLACEMENT_LENGTH ? this.dataTransfer.getPlacementExecutor() : null;
+        this.placementGate = this.placementExecutor != null ? new PlacementGate() : null;
+        this.placementBase = this.receivedRanges.getContiguousEnd();
+    }
+
+    /**
+     * Queues a datagram received from the sender and schedules its processing if it's not scheduled yet.
+     * @param datagram - the received datagram.
+     */
+    public void offer(Datagram datagram) {
+        this.lastActivityNanos = System.nanoTime();
+        if (this.placementExecutor != null) {
+            datagram.beginPlacement();
+        }
+        this.inbox.add(datagram);
+        this.queuedPackets.incrementAndGet();
+        if (this.placementExecutor == null) {
+            this.schedule();
+            return;
+        }
+        try {
+            // The worker schedules the processing when the packet has been placed
+            this.placementExecutor.execute(() -> this.place(datagram));
+        } catch (RejectedExecutionException e) {
+            // The receiver is stopping
+            datagram.finishPlacement(false, false);
+            this.schedule();
+        }
+    }
+
+    /**
+     * Validates a data packet and writes its data into the reassembly target on a placement worker.
+     * The data of different packets never overlaps, except for duplicates, so the workers write concurrently;
+     * the session then records and acknowledges the packets in the order they arrived.
+     * A duplicate of the data received without gaps or of a sealed chunk is not written, and is left to the session
+     * like the other packets.
+     * @param datagram - the received datagram.
+     */
+    private void place(Datagram datagram) {
+        boolean checksumVerified = false;
+        boolean placed = false;
+        try {
+            // The session reads the datagram again, so the worker reads a view of its buffer
+            final AZRPCodec codec = placementCodecs.get().wrap(datagram.getBuffer().duplicate());
+            codec.setDataChecksumAlgorithm(this.options.getChecksumAlgorithm());
+            codec.setDataTimestamps(this.timestamps);
+            if (codec.hasHeader() && codec.getFlags() == 0 && codec.getSize() <= this.segmentSize && codec.isChecksumValid()) {
+                checksumVerified = true;
+                final int epoch = this.placementGate.enter();
+                try {
+                    final long base = this.placementBase;
+                    final long offset = base + (codec.getSequenceNumber() - (this.initialSequenceNumber + (int) base));
+                    final long end = offset + codec.getPayloadLength();
+                    if (offset >= base && end <= this.dataLength && !this.completed && !this.closed
+                            && (this.manifest == null || !this.manifest.isSealed(offset, end))) {
+                        this.target.write(offset, codec.payload());
+                        placed = true;
+                    }
+                } finally {
+                    this.placementGate.leave(epoch);
+                }
+            }
+        } catch (IOException e) {
+            // The target has been completed or discarded meanwhile; the session sees a duplicate or drops the packet
+            logger.debug("Could not place data packet from " + this.key + ": " + e.getMessage());
+        } finally {
+            datagram.finishPlacement(checksumVerified, placed);
+            this.schedule();
+        }
+    }
+
+    /**
+     * Schedules the processing of the inbox on the executor if it's not scheduled yet.
+     */
+    private void schedule() {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Processes the queued packets until the inbox is empty.
+     */
+    private void drain() {
+        do {
+            Datagram datagram;
+            while ((datagram = this.inbox.peek()) != null) {
+                if (datagram.isPlacementPending()) {
+                    break; // The packets are processed in the order they arrived
+                }
+                this.inbox.poll();
+                this.queuedPackets.decrementAndGet();
+                try {
+                    if (this.closed) {
+                        continue;
+                    }
+                    this.codec.wrap(datagram.getBuffer());
+                    this.packetReceivedNanos = datagram.getReceivedNanos();
+                    this.packetChecksumVerified = datagram.isChecksumVerified();
+                    this.packetPlaced = datagram.isPlaced();
+                    if (this.codec.isSYN()) {
+                        this.acknowledgeConnectionRequest();
+                    } else if (this.codec.isParity()) {
+                        this.handleParity();
+                    } else {
+                        this.handleData();
+                    }
+                } finally {
+                    datagram.release();
+                }
+            }
+            if (this.ackFlushRequested) {
+                this.flushAck();
+            }
+            if (this.synAckRetransmitRequested) {
+                this.retransmitSynAck();
+            }
+            if (this.checkpointRequested) {
+                this.saveCheckpoint();
+            }
+            if (this.chunkResultsRequested) {
+                this.onChunkResults();
+            }
+            if (this.closed) {
+                this.releaseTarget();
+            }
+            this.scheduled.set(false);
+            // A packet could have been queued or placed after the last poll but before the flag was cleared
+        } while ((this.hasReadyPacket() || this.chunkResultsRequested) && this.scheduled.compareAndSet(false, true));
+    }
+
+    /**
+     * Checks whether the next packet of the inbox can be processed.
+     * @return true if the inbox has a packet that is not being placed.
+     */
+    private boolean hasReadyPacket() {
+        final Datagram datagram = this.inbox.peek();
+        return datagram != null && !datagram.isPlacementPending();
+    }
+
+    /**
+     * Sends a SYN-ACK packet to the sender. If the SYN packet carried options, the SYN-ACK packet confirms
+     * the accepted ones.
+     * The SYN packet is queued again if the sender did not receive the SYN-ACK packet and retransmitted its SYN.
+     * The codec is pointed at the SYN packet received from the sender.
+     */
+    private void acknowledgeConnectionRequest() {
+        this.metrics.onPacketReceived();
+        if (this.timestamps) {
+            // The SYN-ACK packet answers the latest SYN packet
+            final ByteBuffer timestampOption = this.codec.getOption(AZRP.OPTION_TIMESTAMP);
+            if (timestampOption != null && timestampOption.remaining() == AZRP.TIMESTAMP_LENGTH) {
+                this.synTimestamp = timestampOption.getInt(0);
+                this.synReceivedNanos = this.packetReceivedNanos;
+            }
+        }
+        if (this.synAck == null) {
+            // The SYN-ACK packet is encoded once and kept for the retransmissions
+            final ByteBuffer synAck;
+            if (this.options.isNegotiated()) {
+                this.codec.beginSynAck(this.controlBuffer);
+                this.options.writeSynAckOptions(this.controlBuffer);
+                if (this.checkpoint != null) {
+                    this.writeResumeOption();
+                }
+                if (this.flowControl) {
+                    this.writeWindowOption();
+                }
+                if (this.timestamps) {
+                    final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_TIMESTAMP);
+                    this.synAckTimestampPosition = this.controlBuffer.position();
+                    this.controlBuffer.putLong(0);
+                    AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+                }
+                synAck = this.codec.finishControlPacket(this.controlBuffer);
+            } else {
+                synAck = this.codec.encodeSynAck(this.controlBuffer);
+            }
+            this.synAck = ByteBuffer.allocate(synAck.remaining()).put(synAck).flip();
+        }
+        this.sendSynAck();
+        if (this.synAckTimeout == null && !this.dataReceived) {
+            this.synAckTimeout = this.dataTransfer.schedule(this::requestSynAckRetransmit, INITIAL_SYN_ACK_TIMEOUT_MILLISECONDS);
+        }
+
+        if (!this.completed && this.isWholeMessageReceived()) {
+            // The whole message was received by an earlier session of the resumed transfer
+            try {
+                this.completeTransfer(System.nanoTime());
+            } catch (IOException e) {
+                logger.error("Error receiving message from " + this.key + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the RESUME option into the SYN-ACK packet: the offset the sender resumes from and the ranges
+     * received after it, restored from the checkpoint of the transfer.
+     */
+    private void writeResumeOption() {
+        final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_RESUME);
+        final long contiguousEnd = this.receivedRanges.getContiguousEnd();
+        this.controlBuffer.putLong(contiguousEnd);
+        final int firstRange = contiguousEnd > 0 ? 1 : 0;
+        final int lastRange = Math.min(this.receivedRanges.getRangeCount(), firstRange + AckPolicy.MAXIMUM_SACK_RANGES);
+        for (int i = firstRange; i < lastRange; i++) {
+            this.controlBuffer.putLong(this.receivedRanges.getStart(i));
+            this.controlBuffer.putLong(this.receivedRanges.getEnd(i));
+        }
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+    }
+
+    /**
+     * Sends the encoded SYN-ACK packet to the sender.
+     */
+    private void sendSynAck() {
+        try {
+            if (this.synAckTimestampPosition >= 0) {
+                // The echoed timestamp and the hold time change with every SYN packet and retransmission
+                this.synAck.putInt(this.synAckTimestampPosition, this.synTimestamp);
+                this.synAck.putInt(this.synAckTimestampPosition + Integer.BYTES, toHoldMicros(this.synReceivedNanos));
+                this.codec.finishControlPacket(this.synAck.position(this.synAck.limit()));
+            }
+            this.dataTransfer.sendDatagram(this.synAck.rewind(), this.key.sender());
+            this.synAckSentNanos = System.nanoTime();
+            this.metrics.onPacketSent();
+            logger.debug("Sent SYN-ACK packet to " + this.key);
+        } catch (IOException e) {
+            logger.error("Error sending SYN-ACK packet to " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called by the timer when the SYN-ACK packet has not been followed by a data packet.
+     * The SYN-ACK packet is retransmitted by the executor of the session.
+     */
+    private void requestSynAckRetransmit() {
+        this.synAckRetransmitRequested = true;
+        this.schedule();
+    }
+
+    /**
+     * Retransmits the SYN-ACK packet if no data packet has been received yet,
+     * and doubles the time to wait for the data packet.
+     */
+    private void retransmitSynAck() {
+        this.synAckRetransmitRequested = false;
+        if (this.closed || this.dataReceived || this.synAckRetransmissions >= MAXIMUM_SYN_ACK_RETRANSMISSIONS) {
+            return;
+        }
+        this.synAckRetransmissions++;
+        logger.debug("Retransmitting SYN-ACK packet to " + this.key + " (" + this.synAckRetransmissions + ")");
+        this.sendSynAck();
+        this.synAckTimeout = this.dataTransfer.schedule(this::requestSynAckRetransmit,
+                (long) INITIAL_SYN_ACK_TIMEOUT_MILLISECONDS << this.synAckRetransmissions);
+    }
+
+    /**
+     * Validates a data packet, writes it into the reassembly target and sends an ACK packet to the sender.
+     * The header is read in place and the payload is copied straight from the receive buffer into the target.
+     * The codec is pointed at the data packet received from the sender.
+     */
+    private void handleData() {
+        final long now = System.nanoTime();
+        this.metrics.onPacketReceived();
+
+        if (this.isOversized()) {
+            return;
+        }
+
+        if (!this.packetChecksumVerified && !this.codec.isValidData()) {
+            // Drop the packet
+            this.metrics.onChecksumFailure();
+            this.traceChecksumFailure("data");
+            logger.error("Received invalid data packet from " + this.key);
+            return;
+        }
+
+        if (this.failed) {
+            // The RST packet may have been lost, so the sender retransmits the last data
+            this.sendReset();
+            return;
+        }
+
+        this.onTimestamp();
+
+        if (!this.dataReceived && this.synAckSentNanos != 0) {
+            // The first data packet completes the handshake
+            this.dataReceived = true;
+            this.metrics.onHandshakeCompleted(now - this.synAckSentNanos);
+            cancel(this.synAckTimeout);
+        }
+
+        final int sequenceNumber = this.codec.getSequenceNumber();
+        final int payloadLength = this.codec.getPayloadLength();
+        final int checksum = this.codec.getCheckSum();
+
+        final long dataPosition = this.toOffset(sequenceNumber);
+        if (dataPosition < 0 || dataPosition + payloadLength > this.dataLength) {
+            // Drop the packet that doesn't fit into the message
+            this.metrics.onPacketDropped();
+            logger.error("Received data packet out of the message window from " + this.key);
+            return;
+        }
+        if (this.flowControl && this.stream == null && dataPosition + payloadLength > this.windowEnd) {
+            // Drop the packet the sender was not allowed to send yet; the window of a stream is its ring buffer
+            this.metrics.onPacketDropped();
+            logger.debug("Received data packet beyond the advertised window from " + this.key);
+            return;
+        }
+        if (this.streamDelivery != null && this.streamDelivery.isWaitingForMemory() && !this.closed) {
+            // The budget may have room for the next message of the stream now
+            try {
+                this.advanceStream();
+            } catch (IOException e) {
+                logger.error("Error receiving message from " + this.key + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (this.stream != null && !this.stream.fits(dataPosition, payloadLength)
+                || this.inflating != null && !this.inflating.reserve(dataPosition, payloadLength)) {
+            // Drop the packet that is too far ahead of the parsed or inflated data, or that the memory budget has
+            // no room for; the sender retransmits it
+            this.metrics.onPacketDropped();
+            logger.debug("Received data packet the reassembly buffer has no room for from " + this.key);
+            return;
+        }
+
+        try {
+            final long contiguousEnd = this.receivedRanges.getContiguousEnd();
+            final boolean isDuplicate = this.receivedRanges.contains(dataPosition, dataPosition + payloadLength);
+            if (isDuplicate) {
+                // The data has already been written, so only the ACK packet is sent again
+                this.metrics.onDuplicatePacket();
+            } else {
+                if (dataPosition > contiguousEnd) {
+                    this.metrics.onOutOfOrderPacket(dataPosition - contiguousEnd);
+                }
+
+                // Write this packet into the reassembly target at the correct position
+                this.acceptData(dataPosition, this.codec.payload(), this.packetPlaced, now);
+                if (this.failed) {
+                    return; // The RST packet has been sent instead of the ACK packet
+                }
+            }
+
+            // The message is complete when every byte of it has been received
+            final boolean isComplete = this.isWholeMessageReceived();
+            if (this.isAckPerPacket()) {
+                // Send an ACK packet to the sender
+                this.sendAck(sequenceNumber + payloadLength, payloadLength, checksum);
+            } else {
+                // Gaps, duplicates and the last packet are acknowledged at once
+                final boolean urgent = dataPosition != contiguousEnd || isDuplicate || isComplete
+                        || this.receivedRanges.getRangeCount() > 1;
+                this.latestOffset = dataPosition;
+                if (this.ackPolicy.onDataPacket(now, urgent)) {
+                    this.sendCumulativeAck(dataPosition);
+                } else if (this.ackPolicy.isFirstUnacknowledged()) {
+                    this.ackFlushTimeout = this.dataTransfer.schedule(this::requestAckFlush, this.ackPolicy.getAckDelayMillis());
+                }
+            }
+
+            if (!isDuplicate && this.parityRecovery != null) {
+                // The packet may be the last one but one of a group whose parity packet has arrived
+                this.recoverLostPacket(this.parityRecovery.getGroup(dataPosition), now);
+            }
+
+            if (this.isWholeMessageReceived() && !this.completed) {
+                this.completeTransfer(now);
+            }
+        } catch (IOException e) {
+            logger.error("Error receiving message from " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether the data or parity packet is larger than the negotiated segment size, and drops it if it is.
+     * The codec is pointed at the packet received from the sender.
+     * @return true if the packet is dropped.
+     */
+    private boolean isOversized() {
+        // A datagram larger than the receive buffer is truncated by the kernel, so the length field is checked too
+        final long packetSize = Math.max(this.codec.getSize(), AZRP.PAYLOAD_OFFSET + Integer.toUnsignedLong(this.codec.getLength()));
+        if (packetSize > this.segmentSize) {
+            // Drop the packet that is larger than the negotiated segment size
+            this.metrics.onPacketDropped();
+            logger.error("Received packet of " + packetSize + " bytes larger than the segment size from " + this.key);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes new data into the reassembly target and records it as received.
+     * @param offset - the offset of the data in the whole message.
+     * @param data   - the data; all the remaining bytes of the buffer are written.
+     * @param placed - whether a placement worker has already written the data.
+     * @param now    - the current time in nanoseconds.
+     * @throws IOException - if the data could not be written.
+     */
+    private void acceptData(long offset, ByteBuffer data, boolean placed, long now) throws IOException {
+        final int position = data.position();
+        final int length = data.remaining();
+        if (!placed) {
+            try {
+                this.target.write(offset, data);
+            } catch (IOException e) {
+                if (this.inflating != null && this.inflating.isFailed()) {
+                    // The data before it has been acknowledged, but the message can't be decompressed any more
+                    this.failTransfer("can't be decompressed (" + e.getMessage() + ")");
+                    return;
+                }
+                throw e;
+            }
+        }
+        final long previousContiguousEnd = this.receivedRanges.getContiguousEnd();
+        final long newBytes = this.receivedRanges.add(offset, offset + length);
+        this.traceSegment(offset, length, previousContiguousEnd);
+        if (this.placementExecutor != null) {
+            this.placementBase = this.receivedRanges.getContiguousEnd();
+            if (this.placementBase > offset + length) {
+                // The data after the packet is read back from the target, so no worker may still be writing a duplicate of it
+                this.awaitPlacementWriters();
+            }
+        }
+        this.receivedDataLength += newBytes;
+        this.metrics.onDataReceived(newBytes);
+        if (this.checkpoint != null && this.checkpointTimeout == null) {
+            this.checkpointTimeout = this.dataTransfer.schedule(this::requestCheckpoint, this.checkpointIntervalMillis);
+        }
+        if (this.digest != null && this.target == this.output) {
+            this.digest.update(offset, data.position(position), this.receivedRanges.getContiguousEnd(), this.target);
+        }
+        if (this.stream != null && !this.closed) {
+            this.advanceStream();
+        }
+        if (this.manifestVerifier != null && !this.closed) {
+            this.manifestVerifier.onDataReceived(offset, length, this.receivedDataLength == this.dataLength);
+        }
+        if (this.stream == null && !this.completed && this.isWholeMessageReceived()) {
+            // The last data is acknowledged only if the message is whole and matches its digest
+            this.verifyMessage();
+        }
+        this.logProgress(now);
+    }
+
+    /**
+     * Waits for the placement workers that may still be writing data the session has just sealed or passed.
+     */
+    private void awaitPlacementWriters() {
+        if (this.placementGate != null) {
+            this.placementGate.awaitWriters();
+        }
+    }
+
+    /**
+     * Called by a placement worker when it has verified a chunk.
+     * The result is collected by the executor of the session.
+     */
+    private void requestChunkResults() {
+        this.chunkResultsRequested = true;
+        this.schedule();
+    }
+
+    /**
+     * Collects the chunks verified by the placement workers, and tells the sender at once which data it must send
+     * again if a chunk was discarded.
+     */
+    private void onChunkResults() {
+        this.chunkResultsRequested = false;
+        if (this.closed || this.completed) {
+            return;
+        }
+        try {
+            if (this.manifestVerifier.collectResults(false) && !this.closed) {
+                this.sendCumulativeAck(this.latestOffset);
+            }
+        } catch (IOException e) {
+            logger.error("Error sending ACK packet to " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Discards data that doesn't match its hash, so it's received again, or closes the session if the same data
+     * has failed too many times, e.g. because the manifest of the sender doesn't match its message.
+     * @param start    - the offset of the data.
+     * @param end      - the offset after the data.
+     * @param name     - the name of the data for the log.
+     * @param failures - the number of times the data has failed.
+     * @return true if the data was discarded; false if the session was closed.
+     */
+    private boolean discardData(long start, long end, String name, int failures) {
+        this.metrics.onChunkFailure();
+        if (failures >= MAXIMUM_VERIFICATION_ATTEMPTS) {
+            logger.error("The " + name + " of " + this.key + " failed its verification " + failures + " times, closing the session");
+            this.dataTransfer.abort(this);
+            return false;
+        }
+        logger.error("The " + name + " of " + this.key + " doesn't match its hash, requesting it again");
+        this.receivedDataLength -= this.receivedRanges.remove(start, end);
+        if (this.placementExecutor != null) {
+            this.placementBase = this.receivedRanges.getContiguousEnd();
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether each data packet is acknowledged by its own ACK packet. While discarded data has not been
+     * received again, the ACK packets are cumulative, so each one of them requests the discarded data again.
+     * @return true if the ACK packets acknowledge one data packet each.
+     */
+    private boolean isAckPerPacket() {
+        return this.ackPolicy.isImmediate()
+                && (this.manifestVerifier == null || this.manifestVerifier.getDiscardedRanges().getRangeCount() == 0);
+    }
+
+    /**
+     * Records the flight recorder events of new data: the segment, and the gap in the data if the segment opened
+     * or filled one. A gap is open while data has been received beyond the data received without gaps.
+     * @param offset                - the offset of the data.
+     * @param length                - the length of the data.
+     * @param previousContiguousEnd - the end of the data received without gaps before the segment.
+     */
+    private void traceSegment(long offset, int length, long previousContiguousEnd) {
+        final TransferEvents.SegmentPlaced event = new TransferEvents.SegmentPlaced();
+        if (event.shouldCommit()) {
+            event.session = this.key.toString();
+            event.offset = offset;
+            event.length = length;
+            event.outOfOrderDistance = Math.max(0, offset - previousContiguousEnd);
+            event.commit();
+        }
+
+        final long contiguousEnd = this.receivedRanges.getContiguousEnd();
+        final boolean gap = this.receivedRanges.getEnd(this.receivedRanges.getRangeCount() - 1) > contiguousEnd;
+        if (gap && this.gapEvent == null) {
+            final TransferEvents.GapFilled gapEvent = new TransferEvents.GapFilled();
+            if (gapEvent.isEnabled()) {
+                gapEvent.begin();
+                gapEvent.offset = contiguousEnd;
+                this.gapEvent = gapEvent;
+            }
+        } else if (!gap && this.gapEvent != null) {
+            this.gapEvent.end();
+            if (this.gapEvent.shouldCommit()) {
+                this.gapEvent.session = this.key.toString();
+                this.gapEvent.contiguousEnd = contiguousEnd;
+                this.gapEvent.commit();
+            }
+            this.gapEvent = null;
+        }
+    }
+
+    /**
+     * Records the flight recorder event of a dropped data or parity packet.
+     * The codec is pointed at the packet received from the sender.
+     * @param packetType - the type of the packet.
+     */
+    private void traceChecksumFailure(String packetType) {
+        final TransferEvents.ChecksumFailure event = new TransferEvents.ChecksumFailure();
+        if (event.shouldCommit()) {
+            event.sender = this.key.toString();
+            event.packetType = packetType;
+            event.sequenceNumber = this.codec.getSequenceNumber();
+            event.length = this.codec.getLength();
+            event.commit();
+        }
+    }
+
+    /**
+     * Parses the frames of the stream in the data received without gaps and delivers the complete messages.
+     * A malformed stream, or one that has waited too long for memory for its next message, closes the session.
+     * @throws IOException - if a message could not be delivered.
+     */
+    private void advanceStream() throws IOException {
+        try {
+            if (!this.streamDelivery.advance(this.receivedRanges.getContiguousEnd())) {
+                logger.error("No memory for the next message of the stream from " + this.key + ", closing the session");
+                this.dataTransfer.abort(this);
+            }
+        } catch (ProtocolException e) {
+            // The rest of the stream can't be parsed, so the session is closed
+            logger.error("Malformed stream from " + this.key + ": " + e.getMessage());
+            this.dataTransfer.abort(this);
+        }
+    }
+
+    /**
+     * Hands a message cut out of the stream over to the sink.
+     * @param key      - the key of the message.
+     * @param fileType - the file extension of the message.
+     * @param message  - the message.
+     * @throws IOException - if the sink no longer accepts messages.
+     */
+    private void deliverMessage(SessionKey key, String fileType, ReassemblyTarget message) throws IOException {
+        this.metrics.onStreamMessage();
+        this.dataTransfer.deliver(this, key, fileType, message);
+    }
+
+    /**
+     * Gets the key of a message of the stream: the sender and the sequence number of the frame of the message.
+     * @param offset - the offset of the frame in the stream.
+     * @return the key of the message.
+     */
+    public SessionKey getMessageKey(long offset) {
+        return this.streamDelivery.getMessageKey(offset);
+    }
+
+    /**
+     * Checks whether the whole message, or the whole stream up to its end frame, has been received.
+     * @return true if the session can be completed.
+     */
+    private boolean isWholeMessageReceived() {
+        return this.stream != null ? this.stream.isFinished() : this.receivedDataLength == this.dataLength;
+    }
+
+    /**
+     * Sends the ACK packet of one data packet.
+     * @param sequenceNumber - the sequence number that follows the data of the packet.
+     * @param payloadLength  - the length of the data of the packet.
+     * @param checksum       - the checksum of the packet, echoed if the ACK packet carries no options.
+     * @throws IOException - if an I/O error occurs.
+     */
+    private void sendAck(int sequenceNumber, int payloadLength, int checksum) throws IOException {
+        if (this.ackOptions) {
+            AZRPCodec.beginControlPacket(this.controlBuffer, AZRP.ACK_FLAG, sequenceNumber, payloadLength);
+            if (this.flowControl) {
+                this.writeWindowOption();
+            }
+            if (this.timestamps) {
+                this.writeTimestampOption();
+            }
+            this.codec.finishControlPacket(this.controlBuffer);
+        } else {
+            AZRPCodec.encodeAck(this.controlBuffer, sequenceNumber, payloadLength, checksum);
+        }
+        final TransferEvents.AckSent event = new TransferEvents.AckSent();
+        event.begin();
+        this.dataTransfer.sendDatagram(this.controlBuffer, this.key.sender());
+        if (event.shouldCommit()) {
+            event.session = this.key.toString();
+            event.acknowledgedOffset = this.toOffset(sequenceNumber);
+            event.commit();
+        }
+        this.metrics.onAckSent();
+    }
+
+    /**
+     * Keeps a parity packet until its group of data packets is complete, and rebuilds the lost packet of the group
+     * if all the others have arrived.
+     * The codec is pointed at the parity packet received from the sender.
+     */
+    private void handleParity() {
+        final long now = System.nanoTime();
+        this.metrics.onPacketReceived();
+
+        if (this.isOversized()) {
+            return;
+        }
+
+        if (this.parityRecovery == null || !this.codec.isValidParity()) {
+            // Drop the packet
+            this.metrics.onChecksumFailure();
+            this.traceChecksumFailure("parity");
+            logger.error("Received invalid parity packet from " + this.key);
+            return;
+        }
+        this.metrics.onParityPacket();
+        this.onTimestamp();
+
+        // The parity packet has the sequence number of the first data packet of its group
+        final long groupStart = this.toOffset(this.codec.getSequenceNumber());
+        if (!this.parityRecovery.isValidGroup(groupStart, this.codec.getPayloadLength())) {
+            // Drop the packet that doesn't match a group of the message
+            this.metrics.onPacketDropped();
+            logger.error("Received parity packet out of the message window from " + this.key);
+            return;
+        }
+
+        final long group = this.parityRecovery.getGroup(groupStart);
+        if (this.completed || !this.parityRecovery.isNeeded(group, this.receivedRanges)) {
+            // The group is complete, or the parity packet is a duplicate
+            return;
+        }
+        if (!this.parityRecovery.keep(group, this.codec.payload())) {
+            // The parity packet is only an optimization, so the lost packet is retransmitted instead
+            this.metrics.onPacketDropped();
+            logger.debug("No memory for the parity packet of " + this.key);
+            return;
+        }
+
+        try {
+            this.recoverLostPacket(group, now);
+            if (this.isWholeMessageReceived() && !this.completed) {
+                this.completeTransfer(now);
+            }
+        } catch (IOException e) {
+            logger.error("Error receiving message from " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the lost data packet of a group whose parity packet has arrived, if it's the only one missing.
+     * The rebuilt packet is acknowledged as if it had arrived, so the sender doesn't retransmit it.
+     * @param group - the index of the group in the message.
+     * @param now   - the current time in nanoseconds.
+     * @throws IOException - if the data could not be read or written.
+     */
+    private void recoverLostPacket(long group, long now) throws IOException {
+        if (!this.parityRecovery.recover(group, this.receivedRanges, this.target)) {
+            return;
+        }
+        final long lostStart = this.parityRecovery.getRecoveredOffset();
+        final ByteBuffer lostData = this.parityRecovery.getRecoveredData();
+        final int lostLength = lostData.remaining();
+
+        this.metrics.onPacketRecovered();
+        logger.debug("Rebuilt the data at " + lostStart + " from the parity packet of " + this.key);
+        this.acceptData(lostStart, lostData, false, now);
+        if (this.failed) {
+            return; // The RST packet has been sent instead of the ACK packet
+        }
+
+        if (this.isAckPerPacket()) {
+            int checksum = 0;
+            if (!this.ackOptions) {
+                // The ACK packet echoes the checksum the lost packet had
+                if (this.fecChecksum == null) {
+                    this.fecChecksum = this.options.getChecksumAlgorithm().newChecksum();
+                }
+                this.fecChecksum.reset();
+                this.fecChecksum.update(lostData.array(), 0, lostLength);
+                checksum = (int) this.fecChecksum.getValue();
+            }
+            this.sendAck(this.initialSequenceNumber + (int) (lostStart + lostLength), lostLength, checksum);
+        } else {
+            this.latestOffset = lostStart;
+            this.sendCumulativeAck(lostStart);
+        }
+    }
+
+    /**
+     * Removes all the kept parity packets once the session no longer needs them.
+     */
+    private void discardParity() {
+        if (this.parityRecovery != null) {
+            this.parityRecovery.discard();
+        }
+    }
+
+    /**
+     * Verifies and completes the whole message and hands it over to the data transfer.
+     * The session stays in the session table for a while to acknowledge retransmitted packets.
+     * @param now - the current time in nanoseconds.
+     * @throws IOException - if the message could not be completed.
+     */
+    private void completeTransfer(long now) throws IOException {
+        this.completed = true;
+        this.discardParity();
+        // The target is handed over to the sink, so no worker may still be writing into it
+        this.awaitPlacementWriters();
+        if (this.stream != null) {
+            // The messages of the stream have been handed over one by one
+            this.stream.complete();
+            this.traceCompleted(true);
+            this.metrics.onSessionCompleted(this.receivedDataLength, now - this.openedNanos);
+            logger.info("Stream from " + this.key + " ended: " + this.stream.getMessages() + " messages, "
+                    + this.receivedDataLength + " bytes");
+            this.dataTransfer.complete(this, null);
+            return;
+        }
+        if (!this.verifyMessage()) {
+            return;
+        }
+        this.metrics.onSessionCompleted(this.dataLength, now - this.openedNanos);
+        logger.info("Downloaded from " + this.key + ": " + this.receivedDataLength + "/" + this.dataLength + " bytes");
+        try {
+            this.target.complete();
+        } catch (IOException e) {
+            this.discardTarget();
+            throw e;
+        }
+        if (this.checkpoint != null) {
+            this.checkpoint.delete();
+        }
+        this.traceCompleted(true);
+        this.dataTransfer.complete(this, this.output);
+    }
+
+    /**
+     * Verifies the whole message once all its data has arrived, before the last data is acknowledged:
+     * a compressed message must decompress to its announced length, and the message must match its digest.
+     * @return true if the message can be delivered.
+     * @throws IOException - if the data restored from a checkpoint could not be read back.
+     */
+    private boolean verifyMessage() throws IOException {
+        if (!this.failed && this.inflating != null && !this.inflating.isFinished()) {
+            this.failTransfer("can't be decompressed (the compressed data ends before the message)");
+            return false;
+        }
+        return this.verifyDigest();
+    }
+
+    /**
+     * Verifies the digest of the whole message once all its data has arrived, before the last data is acknowledged.
+     * A message that doesn't match the digest sent by the sender fails the session.
+     * @return true if the message matches its digest or has none.
+     * @throws IOException - if the data restored from a checkpoint could not be read back.
+     */
+    private boolean verifyDigest() throws IOException {
+        if (this.digest == null || this.digestVerified) {
+            return !this.failed;
+        }
+        if (this.target == this.output) {
+            // Digest the data restored from the checkpoint of a resumed transfer that has not been digested yet
+            this.digest.update(this.dataLength, ByteBuffer.allocate(0), this.dataLength, this.target);
+        }
+        if (this.digest.verify()) {
+            this.digestVerified = true;
+            return true;
+        }
+        this.metrics.onDigestFailure();
+        this.failTransfer("doesn't match its digest");
+        return false;
+    }
+
+    /**
+     * Fails a session whose message can't be delivered although its data has arrived: the message is discarded,
+     * and the sender is told with a RST packet instead of the ACK packet of the last data, so it sends the message
+     * again in a new session. The session lingers like a completed one to answer retransmitted data packets.
+     * @param reason - why the message can't be delivered, for the log.
+     */
+    private void failTransfer(String reason) {
+        this.completed = true;
+        this.failed = true;
+        this.discardParity();
+        // The target is discarded, so no worker may still be writing into it
+        this.awaitPlacementWriters();
+        this.traceCompleted(false);
+        logger.error("The message from " + this.key + " " + reason + ", resetting the transfer");
+        this.discardTarget();
+        this.sendReset();
+        try {
+            this.dataTransfer.complete(this, null);
+        } catch (IOException e) {
+            logger.error("Error completing session " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the RST packet of a failed session.
+     */
+    private void sendReset() {
+        try {
+            AZRPCodec.beginControlPacket(this.controlBuffer, AZRP.RST_FLAG, this.initialSequenceNumber, 0);
+            this.dataTransfer.sendDatagram(this.codec.finishControlPacket(this.controlBuffer), this.key.sender());
+            this.metrics.onPacketSent();
+            logger.debug("Sent RST packet to " + this.key);
+        } catch (IOException e) {
+            logger.error("Error sending RST packet to " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records the flight recorder event of the completed session, which began when the session was opened.
+     * @param digestVerified - whether the message matched its digest or had none.
+     */
+    private void traceCompleted(boolean digestVerified) {
+        if (this.completedEvent.shouldCommit()) {
+            this.completedEvent.session = this.key.toString();
+            this.completedEvent.fileType = this.fileType;
+            this.completedEvent.receivedBytes = this.receivedDataLength;
+            this.completedEvent.digestVerified = digestVerified;
+            this.completedEvent.commit();
+        }
+    }
+
+    /**
+     * Discards the data of the message, including the partial file and the checkpoint of a resumable transfer,
+     * so the transfer starts over.
+     */
+    private void discardTarget() {
+        this.released = true;
+        if (this.checkpoint != null) {
+            this.checkpoint.discard();
+        } else {
+            this.target.abort();
+        }
+    }
+
+    /**
+     * Called by the timer when the checkpoint of a resumable transfer is due.
+     * The checkpoint is saved by the executor of the session.
+     */
+    private void requestCheckpoint() {
+        this.checkpointRequested = true;
+        this.schedule();
+    }
+
+    /**
+     * Saves the ranges received so far into the checkpoint of the resumable transfer.
+     */
+    private void saveCheckpoint() {
+        this.checkpointRequested = false;
+        this.checkpointTimeout = null;
+        if (this.closed || this.completed) {
+            return;
+        }
+        try {
+            this.checkpoint.save(this.receivedRanges, this.dataLength);
+        } catch (IOException e) {
+            logger.error("Error saving the checkpoint of " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Calculates the offset of the data in the whole message from the sequence number of a data packet.
+     * The sequence numbers are the 64-bit offsets shifted by the initial sequence number and truncated to 32 bits,
+     * so they wrap around every 4 GB. Like TCP, the offset is taken as the one closest to the data received without
+     * gaps, which is unambiguous while the sender stays less than 2 GB ahead of the cumulative ACK.
+     * @param sequenceNumber - the sequence number of the packet.
+     * @return the offset of the data; negative if the packet is older than the start of the message.
+     */
+    private long toOffset(int sequenceNumber) {
+        final long contiguousEnd = this.receivedRanges.getContiguousEnd();
+        return contiguousEnd + (sequenceNumber - (this.initialSequenceNumber + (int) contiguousEnd));
+    }
+
+    /**
+     * Logs the progress of the transfer if it has not been logged during the interval,
+     * so large transfers don't log a line for every packet.
+     * @param now - the current time in nanoseconds.
+     */
+    private void logProgress(long now) {
+        if (now - this.lastProgressLogNanos >= PROGRESS_LOG_INTERVAL_NANOS) {
+            this.lastProgressLogNanos = now;
+            if (this.stream != null) {
+                logger.info("Streamed from " + this.key + ": " + this.stream.getMessages() + " messages, "
+                        + this.receivedDataLength + " bytes");
+            } else {
+                logger.info("Downloaded from " + this.key + ": " + this.receivedDataLength + "/" + this.dataLength + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Sends a cumulative ACK packet: the sequence number that follows the data received without gaps,
+     * and the SACK option with the ranges received after it, so the sender retransmits only the missing data.
+     * Like in TCP, the range that contains the latest packet is reported first, and then the lowest ranges.
+     * @param latestOffset - the offset of the latest accepted packet.
+     * @throws IOException - if an I/O error occurs.
+     */
+    private void sendCumulativeAck(long latestOffset) throws IOException {
+        final long contiguousEnd = this.receivedRanges.getContiguousEnd();
+        AZRPCodec.beginControlPacket(this.controlBuffer, AZRP.ACK_FLAG, this.initialSequenceNumber + (int) contiguousEnd, 0);
+
+        // The first range is covered by the cumulative ACK
+        final int firstRange = contiguousEnd > 0 ? 1 : 0;
+        final int rangeCount = this.receivedRanges.getRangeCount();
+        if (rangeCount > firstRange) {
+            final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_SACK);
+            final int latestRange = latestOffset >= contiguousEnd ? this.receivedRanges.indexOf(latestOffset) : -1;
+            int ranges = 0;
+            if (latestRange >= firstRange) {
+                this.putSackRange(latestRange);
+                ranges++;
+            }
+            for (int i = firstRange; i < rangeCount && ranges < AckPolicy.MAXIMUM_SACK_RANGES; i++) {
+                if (i != latestRange) {
+                    this.putSackRange(i);
+                    ranges++;
+                }
+            }
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        final ReceivedRanges discardedRanges = this.manifestVerifier != null ? this.manifestVerifier.getDiscardedRanges() : null;
+        if (discardedRanges != null && discardedRanges.getRangeCount() > 0) {
+            // The data that failed its verification is sent again even though it was acknowledged
+            final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_MANIFEST);
+            for (int i = 0; i < Math.min(discardedRanges.getRangeCount(), AckPolicy.MAXIMUM_SACK_RANGES); i++) {
+                this.controlBuffer.putInt(this.initialSequenceNumber + (int) discardedRanges.getStart(i));
+                this.controlBuffer.putInt(this.initialSequenceNumber + (int) discardedRanges.getEnd(i));
+            }
+            AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+        }
+        if (this.flowControl) {
+            this.writeWindowOption();
+        }
+        if (this.timestamps) {
+            this.writeTimestampOption();
+        }
+
+        final TransferEvents.AckSent event = new TransferEvents.AckSent();
+        event.begin();
+        this.dataTransfer.sendDatagram(this.codec.finishControlPacket(this.controlBuffer), this.key.sender());
+        if (event.shouldCommit()) {
+            event.session = this.key.toString();
+            event.acknowledgedOffset = contiguousEnd;
+            event.cumulative = true;
+            event.sackRanges = Math.min(rangeCount - firstRange, AckPolicy.MAXIMUM_SACK_RANGES);
+            event.commit();
+        }
+        this.metrics.onAckSent();
+        this.ackPolicy.onAckSent();
+        this.latestOffset = -1;
+        // The delayed ACK packet is no longer needed
+        cancel(this.ackFlushTimeout);
+        this.ackFlushTimeout = null;
+    }
+
+    /**
+     * Writes the WINDOW option into the SYN-ACK or ACK packet: the sequence number that follows the last byte
+     * the sender may send. The window starts at the data received without gaps, and its size depends on how busy
+     * the receiver is. Like in TCP, the end of the window never moves back, so the data already sent within
+     * the previous window is never dropped for being outside the window.
+     */
+    private void writeWindowOption() {
+        final long window = this.dataTransfer.getReceiveWindow(this.queuedPackets.get(), this.segmentSize);
+        long end = this.receivedRanges.getContiguousEnd() + window;
+        if (this.stream != null) {
+            // The sender may not send more than the stream can buffer
+            end = Math.min(end, this.stream.getWritableEnd());
+        } else if (this.inflating != null) {
+            end = Math.min(end, this.inflating.getWritableEnd());
+        }
+        this.windowEnd = Math.max(this.windowEnd, end);
+        final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_WINDOW);
+        this.controlBuffer.putInt(this.initialSequenceNumber + (int) this.windowEnd);
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+    }
+
+    /**
+     * Reads the timestamp of a valid data or parity packet: keeps it for the next ACK packet if it's the earliest
+     * packet not acknowledged yet, and updates the inter-arrival jitter.
+     * The codec is pointed at the packet received from the sender.
+     */
+    private void onTimestamp() {
+        if (!this.timestamps) {
+            return;
+        }
+        final int timestamp = this.codec.getDataTimestamp();
+        if (!this.echoPending) {
+            this.echoPending = true;
+            this.echoTimestamp = timestamp;
+            this.echoReceivedNanos = this.packetReceivedNanos;
+        }
+
+        final long receivedMicros = this.packetReceivedNanos / 1_000;
+        if (this.previousTimestampReceived) {
+            // The clocks are compared only as differences, so the clock of the sender may wrap around
+            final long transitDifference = (receivedMicros - this.previousReceivedMicros) - (timestamp - this.previousTimestamp);
+            this.jitterMicros += (Math.abs(transitDifference) - this.jitterMicros) / 16;
+            this.metrics.onJitterSample((long) this.jitterMicros);
+        }
+        this.previousTimestampReceived = true;
+        this.previousTimestamp = timestamp;
+        this.previousReceivedMicros = receivedMicros;
+    }
+
+    /**
+     * Writes the TIMESTAMP option into the ACK packet: the timestamp of the earliest packet received since
+     * the previous ACK packet and how long ago it was received. The option is left out if no packet with
+     * a timestamp has been received since the previous ACK packet.
+     */
+    private void writeTimestampOption() {
+        if (!this.echoPending) {
+            return;
+        }
+        this.echoPending = false;
+        final int lengthPosition = AZRPCodec.beginOption(this.controlBuffer, AZRP.OPTION_TIMESTAMP);
+        this.controlBuffer.putInt(this.echoTimestamp);
+        this.controlBuffer.putInt(toHoldMicros(this.echoReceivedNanos));
+        AZRPCodec.endOption(this.controlBuffer, lengthPosition);
+    }
+
+    /**
+     * Calculates the time from receiving a packet until now.
+     * @param receivedNanos - the time the packet was received.
+     * @return the time in microseconds, at most Integer.MAX_VALUE.
+     */
+    private static int toHoldMicros(long receivedNanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, (System.nanoTime() - receivedNanos) / 1_000));
+    }
+
+    /**
+     * Writes a received range as a pair of sequence numbers into the SACK option.
+     * @param index - the index of the range.
+     */
+    private void putSackRange(int index) {
+        this.controlBuffer.putInt(this.initialSequenceNumber + (int) this.receivedRanges.getStart(index));
+        this.controlBuffer.putInt(this.initialSequenceNumber + (int) this.receivedRanges.getEnd(index));
+    }
+
+    /**
+     * Called by the timer when the delay of the oldest unacknowledged packet is over.
+     * The ACK packet is sent by the executor of the session.
+     */
+    private void requestAckFlush() {
+        this.ackFlushRequested = true;
+        this.schedule();
+    }
+
+    /**
+     * Sends the delayed ACK packet if there are unacknowledged packets.
+     */
+    private void flushAck() {
+        this.ackFlushRequested = false;
+        if (this.closed || !this.ackPolicy.hasUnacknowledgedPackets()) {
+            return;
+        }
+        try {
+            this.sendCumulativeAck(this.latestOffset);
+        } catch (IOException e) {
+            logger.error("Error sending ACK packet to " + this.key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the time since the last packet was received from the sender.
+     * @param nowNanos - the current time in nanoseconds.
+     * @return the time in milliseconds.
+     */
+    public long getIdleMillis(long nowNanos) {
+        return (nowNanos - this.lastActivityNanos) / 1_000_000L;
+    }
+
+    /**
+     * Sets the timeout that checks whether the session is idle, cancelling the previous one.
+     * Called by the data transfer while holding the lock of the session.
+     * @param idleTimeout - the new timeout.
+     */
+    void setIdleTimeout(HashedWheelTimer.Timeout idleTimeout) {
+        cancel(this.idleTimeout);
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Closes the session and cancels its timers. Packets that are still queued are dropped.
+     * The reassembly target of an incomplete session is aborted by the executor of the session,
+     * so it's never released while a packet is being written into it.
+     */
+    public void close() {
+        this.closed = true;
+        synchronized (this) {
+            cancel(this.idleTimeout);
+        }
+        cancel(this.synAckTimeout);
+        cancel(this.ackFlushTimeout);
+        cancel(this.checkpointTimeout);
+        this.schedule();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private static void cancel(HashedWheelTimer.Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Aborts the reassembly target if the session was closed before the whole message was received.
+     * The partial file of a resumable transfer is kept with the final checkpoint, so a later session can resume it.
+     */
+    private void releaseTarget() {
+        this.discardParity();
+        if (!this.completed && !this.released) {
+            this.released = true;
+            if (this.checkpoint != null) {
+                try {
+                    this.checkpoint.save(this.receivedRanges, this.dataLength);
+                } catch (IOException e) {
+                    logger.error("Error saving the checkpoint of " + this.key + ": " + e.getMessage());
+                }
+            }
+            this.target.abort();
+        }
+    }
+
+    /**
+     * Checks whether the whole message has been received.
+     * @return true if the session is complete, false otherwise.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public SessionKey getKey() {
+        return key;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getMessageLength() {
+        return messageLength;
+    }
+
+    /**
+     * Checks whether the session carries a persistent stream of framed messages, whose target must be
+     * a StreamReassemblyTarget.
+     * @return true if the session is a stream.
+     */
+    public boolean isStream() {
+        return options.isStream();
+    }
+
+    /**
+     * Gets the size of the ring buffer of a stream, which follows the receive window of the session.
+     * @return the capacity in bytes.
+     */
+    public int getStreamCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * Checks whether the sender can resume the transfer in a later session, so its data is written into a partial
+     * file named after the transfer id.
+     * @return true if the transfer is resumable.
+     */
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    public String getTransferId() {
+        return this.options.getTransferId();
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getStatistics() {
+        return "Session " + this.key + ": packets sent: " + this.metrics.getPacketsSent()
+                + "; packets received: " + this.metrics.getPacketsReceived()
+                + "; duplicate packets: " + this.metrics.getDuplicatePackets()
+                + "; checksum failures: " + this.metrics.getChecksumFailures()
+                + "; out-of-order packets: " + this.metrics.getOutOfOrderPackets()
+                + "; transfer duration: " + this.metrics.getTransferDurationMillis().max() + " ms"
+                + "; goodput: " + this.metrics.getGoodputBytesPerSecond().max() + " bytes/s";
+    }
+}
@@ -0,0 +1,17 @@
+package ca.bcit.comp7005;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Identifies a data transfer session by the sender's endpoint and the initial sequence number from its SYN packet.
+ *
+ * @param sender                - the address and port of the sender.
+ * @param initialSequenceNumber - the initial sequence number of the transfer.
+ */
+public record SessionKey(InetSocketAddress sender, int initialSequenceNumber) {
+
+    @Override
+    public String toString() {
+        return sender.getAddress() + ":" + sender.getPort() + "#" + Integer.toUnsignedString(initialSequenceNumber);
+    }
+}
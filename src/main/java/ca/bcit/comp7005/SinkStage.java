@@ -0,0 +1,139 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The stage between the sessions and the sink: the completed messages are put into a bounded ring and consumed
+ * by the sink on its own thread, so writing a message to disk never holds back the processing of packets.
+ * The sessions take turns as the single producer of the ring, and the thread of the stage is its single consumer.
+ * When the ring is full, the completing session waits for the sink instead of piling up messages in memory;
+ * the other sessions and the receive loop keep going.
+ */
+public class SinkStage implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SinkStage.class);
+
+    // How long a session waits before it checks the full ring again
+    private static final long FULL_RING_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // How long the thread of the stage sleeps when the ring is empty, unless a session wakes it up
+    private static final long EMPTY_RING_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final TransferSink sink;
+    private final SpscRing<CompletedTransfer> ring;
+    private final TransferMetrics metrics;
+
+    // Serializes the sessions that complete at the same time, so the ring has one producer at a time
+    private final Object producerLock = new Object();
+    private boolean closed;
+
+    private Thread worker;
+
+    /**
+     * Creates the stage and starts its thread.
+     * @param sink     - the sink that consumes the completed messages.
+     * @param capacity - the number of completed messages waiting for the sink.
+     * @param metrics  - the metrics of all the sessions.
+     * @return the running stage.
+     */
+    public static SinkStage start(TransferSink sink, int capacity, TransferMetrics metrics) {
+        final SinkStage stage = new SinkStage(sink, capacity, metrics);
+        // The thread is started once the stage is fully constructed
+        stage.worker = Thread.ofPlatform().name("sink").start(stage::run);
+        return stage;
+    }
+
+    private SinkStage(TransferSink sink, int capacity, TransferMetrics metrics) {
+        this.sink = sink;
+        this.ring = new SpscRing<>(capacity);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hands a completed message over to the sink. Waits while the ring is full.
+     * @param transfer - the completed message.
+     * @throws IOException - if the stage has been closed.
+     */
+    public void submit(CompletedTransfer transfer) throws IOException {
+        boolean stalled = false;
+        while (true) {
+            synchronized (this.producerLock) {
+                if (this.closed) {
+                    throw new IOException("The sink stage is closed");
+                }
+                if (this.ring.offer(transfer)) {
+                    break;
+                }
+            }
+            if (!stalled) {
+                stalled = true;
+                this.metrics.onSinkStall();
+                logger.debug("The sink is " + this.ring.capacity() + " messages behind; " + transfer.key() + " waits");
+            }
+            LockSupport.parkNanos(this, FULL_RING_WAIT_NANOS);
+        }
+        LockSupport.unpark(this.worker);
+    }
+
+    /**
+     * Gets how full the ring is. It may be out of date as soon as it returns.
+     * @return the number of waiting messages divided by the capacity of the ring.
+     */
+    public double getLoad() {
+        return (double) this.ring.size() / this.ring.capacity();
+    }
+
+    /**
+     * Stops accepting messages, waits until the sink has consumed the messages in the ring and stops the thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this.producerLock) {
+            this.closed = true;
+        }
+        LockSupport.unpark(this.worker);
+        try {
+            this.worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            final CompletedTransfer transfer = this.ring.poll();
+            if (transfer != null) {
+                this.consume(transfer);
+            } else if (this.isClosed()) {
+                // Nothing is offered after the stage is closed, so the ring stays empty
+                if (this.ring.size() == 0) {
+                    return;
+                }
+            } else {
+                LockSupport.parkNanos(this, EMPTY_RING_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void consume(CompletedTransfer transfer) {
+        try {
+            this.sink.accept(transfer);
+        } catch (IOException | RuntimeException e) {
+            // A failing message must not stop the sink for the other messages
+            logger.error("Error handling the message from " + transfer.key() + ": " + e.getMessage());
+        } finally {
+            // The memory of the message can be reserved for new sessions
+            transfer.target().release();
+        }
+    }
+
+    private boolean isClosed() {
+        synchronized (this.producerLock) {
+            return this.closed;
+        }
+    }
+}
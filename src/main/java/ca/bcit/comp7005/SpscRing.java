@@ -0,0 +1,90 @@
+package ca.bcit.comp7005;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded ring buffer with one producer and one consumer.
+ * The producer only writes the tail and the consumer only writes the head, so neither takes a lock:
+ * the element is published by the release store of the tail and handed back by the release store of the head.
+ * Each side caches the last index it read of the other side, so it only reads the shared index when the ring
+ * looks full or empty.
+ *
+ * @param <T> - the type of the elements.
+ */
+public class SpscRing<T> {
+
+    private final Object[] elements;
+    private final int mask;
+
+    // The index of the next element to poll; written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // The index of the next element to offer; written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // The head last read by the producer and the tail last read by the consumer
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * @param capacity - the maximum number of elements; rounded up to a power of two.
+     */
+    public SpscRing(int capacity) {
+        final int size = capacity <= 1 ? 1 : Integer.highestOneBit((capacity - 1) << 1);
+        this.elements = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an element. Must be called only by the producer.
+     *
+     * @param element - the element.
+     * @return true if the element was added, false if the ring is full.
+     */
+    public boolean offer(T element) {
+        final long tail = this.tail.get();
+        if (tail - this.cachedHead >= this.elements.length) {
+            this.cachedHead = this.head.get();
+            if (tail - this.cachedHead >= this.elements.length) {
+                return false;
+            }
+        }
+        this.elements[(int) (tail & this.mask)] = element;
+        this.tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest element. Must be called only by the consumer.
+     *
+     * @return the element, or null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        final long head = this.head.get();
+        if (head >= this.cachedTail) {
+            this.cachedTail = this.tail.get();
+            if (head >= this.cachedTail) {
+                return null;
+            }
+        }
+        final int index = (int) (head & this.mask);
+        final T element = (T) this.elements[index];
+        // Release the element, so the ring doesn't keep the message in memory
+        this.elements[index] = null;
+        this.head.lazySet(head + 1);
+        return element;
+    }
+
+    /**
+     * Gets the number of elements in the ring. It may be out of date as soon as it returns.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        return (int) (this.tail.get() - this.head.get());
+    }
+
+    public int capacity() {
+        return this.elements.length;
+    }
+}
@@ -0,0 +1,100 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+
+/**
+ * Delivers the messages of the stream of a persistent session as the data received without gaps grows.
+ * Each message is named after the sequence number of its frame, so the messages of a stream have distinct keys.
+ * The stream stops parsing while the memory budget has no room for its next message; a stream that waits for
+ * memory as long as a session waits for its next packet has to be closed, so it doesn't hold its ring buffer forever.
+ */
+public class StreamDelivery {
+
+    /**
+     * Receives the messages of the stream.
+     */
+    @FunctionalInterface
+    public interface MessageSink {
+
+        /**
+         * Called for each complete message in the order of the stream.
+         *
+         * @param key      - the key of the message.
+         * @param fileType - the file extension of the message.
+         * @param message  - the reassembly target that contains the message.
+         * @throws IOException - if the sink no longer accepts messages.
+         */
+        void deliver(SessionKey key, String fileType, ReassemblyTarget message) throws IOException;
+    }
+
+    private final StreamReassemblyTarget stream;
+    private final SessionKey key;
+    private final int initialSequenceNumber;
+    private final long waitTimeoutNanos;
+    private final MessageSink sink;
+
+    // When the stream started waiting for memory for its next message
+    private long waitStartNanos;
+
+    /**
+     * @param stream                - the target the stream is reassembled in.
+     * @param key                   - the key of the session.
+     * @param initialSequenceNumber - the sequence number of the first byte of the stream.
+     * @param waitTimeoutMillis     - how long the stream may wait for memory for its next message.
+     * @param sink                  - the sink of the messages.
+     */
+    public StreamDelivery(StreamReassemblyTarget stream, SessionKey key, int initialSequenceNumber, long waitTimeoutMillis,
+                          MessageSink sink) {
+        this.stream = stream;
+        this.key = key;
+        this.initialSequenceNumber = initialSequenceNumber;
+        this.waitTimeoutNanos = waitTimeoutMillis * 1_000_000L;
+        this.sink = sink;
+    }
+
+    /**
+     * Parses the frames of the stream in the data received without gaps and delivers the complete messages.
+     *
+     * @param contiguousEnd - the end of the data received without gaps.
+     * @return false if the stream has waited too long for memory for its next message and must be closed.
+     * @throws ProtocolException - if the rest of the stream can't be parsed.
+     * @throws IOException       - if a message could not be delivered.
+     */
+    public boolean advance(long contiguousEnd) throws IOException {
+        final boolean wasWaiting = this.stream.isWaitingForMemory();
+        this.stream.advance(contiguousEnd, this::deliver);
+        if (!this.stream.isWaitingForMemory()) {
+            return true;
+        }
+        final long now = System.nanoTime();
+        if (!wasWaiting) {
+            this.waitStartNanos = now;
+            return true;
+        }
+        return now - this.waitStartNanos < this.waitTimeoutNanos;
+    }
+
+    private void deliver(long offset, String mimeType, ReassemblyTarget message) throws IOException {
+        this.sink.deliver(this.getMessageKey(offset), DataTransfer.toFileType(mimeType), message);
+    }
+
+    /**
+     * Gets the key of a message of the stream: the sender and the sequence number of the frame of the message.
+     *
+     * @param offset - the offset of the frame in the stream.
+     * @return the key of the message.
+     */
+    public SessionKey getMessageKey(long offset) {
+        return new SessionKey(this.key.sender(), this.initialSequenceNumber + (int) offset);
+    }
+
+    /**
+     * Checks whether the stream stopped parsing because the memory budget had no room for its next message.
+     *
+     * @return true if the stream should be advanced again, e.g. when the next packet arrives.
+     */
+    public boolean isWaitingForMemory() {
+        return this.stream.isWaitingForMemory();
+    }
+}
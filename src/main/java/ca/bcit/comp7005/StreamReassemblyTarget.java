@@ -0,0 +1,317 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reassembles the byte stream of a persistent session and cuts it into framed messages.
+ * Each frame is the length of the message (4 bytes), the length of its MIME type (1 byte), the MIME type and the
+ * message; an empty frame without a MIME type ends the stream.
+ * The stream has no length, so only the data ahead of the parsed bytes is kept, in a ring buffer: a packet that
+ * doesn't fit into the ring is dropped and retransmitted by the sender. As the data received without gaps grows,
+ * the frames are parsed and the message being parsed is copied out of the ring, so a message may be larger
+ * than the ring. The ring and each message are reserved from the memory budget of the receiver, if there is one.
+ * A message the budget has no room for is written into a spill target instead, e.g. a file; a message that can only
+ * be kept in memory waits: the stream stops parsing, so the ring fills up and the sender waits until the sink has
+ * consumed enough messages.
+ */
+public class StreamReassemblyTarget implements ReassemblyTarget {
+
+    // The length of the message and the length of its MIME type
+    public static final int FRAME_HEADER_LENGTH = Integer.BYTES + 1;
+
+    // The largest message of a stream, which is kept in memory or spilled until it's complete
+    public static final int MAXIMUM_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    // The bounds of the ring buffer of a stream, which follows the receive window; the header of a frame always fits
+    public static final int MINIMUM_CAPACITY = 64 * 1024;
+    public static final int MAXIMUM_CAPACITY = 4 * 1024 * 1024;
+
+    /**
+     * Receives the messages cut out of the stream.
+     */
+    @FunctionalInterface
+    public interface MessageHandler {
+
+        /**
+         * Called for each complete message in the order of the stream.
+         *
+         * @param offset   - the offset of the frame of the message in the stream.
+         * @param mimeType - the MIME type of the message.
+         * @param message  - the message in memory, which returns its memory to the budget when it's released,
+         *                 or in its spill target.
+         * @throws IOException - if the message could not be handled.
+         */
+        void onMessage(long offset, String mimeType, ReassemblyTarget message) throws IOException;
+    }
+
+    /**
+     * Creates the target of a message the memory budget has no room for.
+     */
+    @FunctionalInterface
+    public interface SpillTargetFactory {
+
+        /**
+         * Called when the header of a frame has been parsed and the budget has no room for its message.
+         *
+         * @param offset   - the offset of the frame of the message in the stream.
+         * @param mimeType - the MIME type of the message.
+         * @param length   - the length of the message.
+         * @return the target, e.g. a file, or null if the message can only be kept in memory.
+         * @throws IOException - if the target could not be created.
+         */
+        ReassemblyTarget open(long offset, String mimeType, int length) throws IOException;
+    }
+
+    private final byte[] ring;
+
+    // The budget the ring and the messages are reserved from, or null, and where the messages that don't fit go
+    private final MemoryBudget budget;
+    private final SpillTargetFactory spillTargets;
+    private boolean released;
+
+    // The offset of the first byte that has not been parsed yet; the ring holds the data up to capacity bytes after it
+    private long parsedEnd;
+
+    // The frame being parsed: its offset, MIME type and message, or a negative length while the header is parsed
+    private long frameOffset;
+    private String mimeType;
+    private int messageLength = -1;
+    private ReassemblyTarget message;
+    private int messageFilled;
+
+    private boolean finished;
+    private long messages;
+
+    // Whether the header of the next frame has been parsed but its message has no room in the budget or a spill target
+    private boolean waitingForMemory;
+
+    /**
+     * @param capacity - the size of the ring buffer, i.e. how far ahead of the parsed data the packets may arrive.
+     */
+    public StreamReassemblyTarget(int capacity) {
+        this(capacity, null, null);
+    }
+
+    /**
+     * @param capacity     - the size of the ring buffer, i.e. how far ahead of the parsed data the packets may arrive.
+     * @param budget       - the budget the capacity has been reserved from, or null.
+     * @param spillTargets - creates the targets of the messages the budget has no room for, or null.
+     */
+    public StreamReassemblyTarget(int capacity, MemoryBudget budget, SpillTargetFactory spillTargets) {
+        this.ring = new byte[capacity];
+        this.budget = budget;
+        this.spillTargets = spillTargets;
+    }
+
+    /**
+     * Checks whether the data of a packet fits into the ring buffer.
+     *
+     * @param offset - the offset of the data in the stream.
+     * @param length - the length of the data.
+     * @return true if the data can be written.
+     */
+    public boolean fits(long offset, int length) {
+        return offset + length <= this.getWritableEnd();
+    }
+
+    /**
+     * Gets the offset that follows the last byte the ring buffer can hold.
+     *
+     * @return the offset in the stream.
+     */
+    public long getWritableEnd() {
+        return this.parsedEnd + this.ring.length;
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer data) throws IOException {
+        if (offset + data.remaining() > this.getWritableEnd()) {
+            throw new IOException("The data at " + offset + " is ahead of the stream buffer");
+        }
+        // The data that has already been parsed is not written again
+        if (offset < this.parsedEnd) {
+            data.position(data.position() + (int) Math.min(data.remaining(), this.parsedEnd - offset));
+            offset = this.parsedEnd;
+        }
+        while (data.hasRemaining()) {
+            final int index = (int) (offset % this.ring.length);
+            final int length = Math.min(data.remaining(), this.ring.length - index);
+            data.get(this.ring, index, length);
+            offset += length;
+        }
+    }
+
+    @Override
+    public void read(long offset, ByteBuffer destination) throws IOException {
+        if (offset < this.parsedEnd || offset + destination.remaining() > this.getWritableEnd()) {
+            throw new IOException("The data at " + offset + " is no longer in the stream buffer");
+        }
+        while (destination.hasRemaining()) {
+            final int index = (int) (offset % this.ring.length);
+            final int length = Math.min(destination.remaining(), this.ring.length - index);
+            destination.put(this.ring, index, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Parses the frames in the data received without gaps and hands the complete messages to the handler.
+     *
+     * @param contiguousEnd - the end of the data received without gaps.
+     * @param handler       - the handler of the messages.
+     * @throws ProtocolException - if a frame is malformed or its message can never fit into the memory budget.
+     * @throws IOException       - if the spill target or the handler fails.
+     */
+    public void advance(long contiguousEnd, MessageHandler handler) throws IOException {
+        while (!this.finished) {
+            if (this.messageLength < 0) {
+                // The header and the MIME type are parsed once they have all arrived
+                if (contiguousEnd - this.parsedEnd < FRAME_HEADER_LENGTH) {
+                    return;
+                }
+                final long length = Integer.toUnsignedLong(this.getInt(this.parsedEnd));
+                final int typeLength = this.ring[this.indexOf(this.parsedEnd + Integer.BYTES)] & 0xFF;
+                if (length > MAXIMUM_MESSAGE_LENGTH) {
+                    throw new ProtocolException("The message of " + length + " bytes at " + this.parsedEnd + " is too large");
+                }
+                if (contiguousEnd - this.parsedEnd < FRAME_HEADER_LENGTH + typeLength) {
+                    return;
+                }
+                final byte[] type = new byte[typeLength];
+                for (int i = 0; i < typeLength; i++) {
+                    type[i] = this.ring[this.indexOf(this.parsedEnd + FRAME_HEADER_LENGTH + i)];
+                }
+                if (length == 0 && typeLength == 0) {
+                    // The end of the stream
+                    this.parsedEnd += FRAME_HEADER_LENGTH;
+                    this.finished = true;
+                    return;
+                }
+                final String mimeType = new String(type, StandardCharsets.US_ASCII);
+                final ReassemblyTarget message = this.openMessage(this.parsedEnd, mimeType, (int) length);
+                // Without room, the frame is parsed again later, e.g. once the sink has returned memory to the budget
+                this.waitingForMemory = message == null;
+                if (this.waitingForMemory) {
+                    return;
+                }
+                this.frameOffset = this.parsedEnd;
+                this.parsedEnd += FRAME_HEADER_LENGTH + typeLength;
+                this.mimeType = mimeType;
+                this.messageLength = (int) length;
+                this.message = message;
+                this.messageFilled = 0;
+            }
+
+            // The received part of the message is copied out, so the ring can take the next packets
+            final int length = (int) Math.min(this.messageLength - this.messageFilled, contiguousEnd - this.parsedEnd);
+            for (int copied = 0; copied < length; ) {
+                final int index = this.indexOf(this.parsedEnd);
+                final int part = Math.min(length - copied, this.ring.length - index);
+                this.message.write(this.messageFilled, ByteBuffer.wrap(this.ring, index, part));
+                this.messageFilled += part;
+                this.parsedEnd += part;
+                copied += part;
+            }
+            if (this.messageFilled < this.messageLength) {
+                return;
+            }
+
+            final ReassemblyTarget completeMessage = this.message;
+            this.message = null;
+            this.messageLength = -1;
+            this.messages++;
+            completeMessage.complete();
+            handler.onMessage(this.frameOffset, this.mimeType, completeMessage);
+        }
+    }
+
+    /**
+     * Creates the target of the message of a frame: in memory if the budget has room for it, otherwise in a spill
+     * target if the message can be spilled.
+     *
+     * @param offset   - the offset of the frame in the stream.
+     * @param mimeType - the MIME type of the message.
+     * @param length   - the length of the message.
+     * @return the target, or null if the message has to wait for memory.
+     * @throws ProtocolException - if the message can only be kept in memory and is larger than the budget.
+     * @throws IOException       - if the spill target could not be created.
+     */
+    private ReassemblyTarget openMessage(long offset, String mimeType, int length) throws IOException {
+        if (this.budget == null) {
+            return new HeapReassemblyTarget(length);
+        }
+        if (this.budget.tryReserve(length)) {
+            return new HeapReassemblyTarget(length, this.budget);
+        }
+        final ReassemblyTarget spilled = this.spillTargets != null ? this.spillTargets.open(offset, mimeType, length) : null;
+        if (spilled == null && length > this.budget.getCapacity() - this.ring.length) {
+            throw new ProtocolException("The message of " + length + " bytes at " + offset + " is larger than the memory budget");
+        }
+        return spilled;
+    }
+
+    private int indexOf(long offset) {
+        return (int) (offset % this.ring.length);
+    }
+
+    private int getInt(long offset) {
+        int value = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            value = (value << Byte.SIZE) | (this.ring[this.indexOf(offset + i)] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether the frame that ends the stream has been parsed.
+     *
+     * @return true if the stream is finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Checks whether the stream stopped parsing because the memory budget had no room for the next message.
+     *
+     * @return true if the stream should be advanced again, e.g. when the next packet arrives.
+     */
+    public boolean isWaitingForMemory() {
+        return waitingForMemory;
+    }
+
+    /**
+     * Gets the number of messages cut out of the stream so far.
+     *
+     * @return the number of messages.
+     */
+    public long getMessages() {
+        return messages;
+    }
+
+    @Override
+    public void complete() {
+        // The messages have been handed over one by one
+        this.releaseRing();
+    }
+
+    @Override
+    public void abort() {
+        // The ring is garbage collected with the session, and the incomplete message is discarded
+        if (this.message != null) {
+            this.message.abort();
+            this.message = null;
+        }
+        this.releaseRing();
+    }
+
+    private void releaseRing() {
+        if (this.budget != null && !this.released) {
+            this.released = true;
+            this.budget.release(this.ring.length);
+        }
+    }
+}
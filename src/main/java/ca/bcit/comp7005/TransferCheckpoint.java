@@ -0,0 +1,121 @@
+package ca.bcit.comp7005;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The on-disk record of the byte ranges of a resumable transfer that have been written into its partial file.
+ * The record is written next to the partial file, and a later session for the same transfer restores the ranges
+ * from it, so the sender has to send only the missing data.
+ * The partial file is forced to the storage device before the record is written, so the record never claims data
+ * that could be lost in a crash.
+ */
+public class TransferCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferCheckpoint.class);
+
+    // The suffix of the record and the value its first 4 bytes must have ("AZRC")
+    private static final String RECORD_SUFFIX = ".ranges";
+    private static final int MAGIC = 0x415A5243;
+
+    private final FileReassemblyTarget file;
+    private final Path path;
+
+    /**
+     * @param file - the partial file of the resumable transfer.
+     */
+    public TransferCheckpoint(FileReassemblyTarget file) {
+        this.file = file;
+        this.path = file.getPartialPath().resolveSibling(file.getPartialPath().getFileName() + RECORD_SUFFIX);
+    }
+
+    /**
+     * Restores the ranges written by an earlier session. The record is ignored if the partial file was created by
+     * this session or the record belongs to a message of another length.
+     *
+     * @param ranges     - the empty ranges of the session.
+     * @param dataLength - the length of the whole message.
+     * @return the number of bytes restored.
+     */
+    public long restore(ReceivedRanges ranges, long dataLength) {
+        if (!this.file.isExisting() || !Files.exists(this.path)) {
+            return 0;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path)))) {
+            if (input.readInt() != MAGIC || input.readLong() != dataLength) {
+                logger.error("Ignoring the checkpoint " + this.path + " of another message");
+                return 0;
+            }
+            final int count = input.readInt();
+            long restored = 0;
+            for (int i = 0; i < count; i++) {
+                final long start = input.readLong();
+                final long end = input.readLong();
+                if (start < 0 || end > dataLength) {
+                    throw new IOException("Invalid range " + start + "-" + end);
+                }
+                restored += ranges.add(start, end);
+            }
+            return restored;
+        } catch (IOException e) {
+            logger.error("Ignoring the checkpoint " + this.path + ": " + e.getMessage());
+            ranges.clear();
+            return 0;
+        }
+    }
+
+    /**
+     * Forces the partial file to the storage device and replaces the record with the current ranges.
+     * The record is written to a temporary file first, so a crash never leaves a partial record.
+     *
+     * @param ranges     - the ranges written into the partial file.
+     * @param dataLength - the length of the whole message.
+     * @throws IOException - if an I/O error occurs.
+     */
+    public void save(ReceivedRanges ranges, long dataLength) throws IOException {
+        if (!Files.exists(this.file.getPartialPath())) {
+            return; // The transfer has been completed or discarded by another session
+        }
+        this.file.force();
+        final Path temporaryPath = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            output.writeInt(MAGIC);
+            output.writeLong(dataLength);
+            output.writeInt(ranges.getRangeCount());
+            for (int i = 0; i < ranges.getRangeCount(); i++) {
+                output.writeLong(ranges.getStart(i));
+                output.writeLong(ranges.getEnd(i));
+            }
+        }
+        Files.move(temporaryPath, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the record, e.g. when the transfer is complete.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) {
+            logger.error("Error deleting the checkpoint " + this.path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the record and the partial file, so the transfer starts over, e.g. when the message doesn't match
+     * its digest.
+     */
+    public void discard() {
+        this.delete();
+        this.file.discard();
+    }
+}
@@ -0,0 +1,172 @@
+package ca.bcit.comp7005;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of the packet path, recorded with any flight recording, e.g.
+ * -XX:StartFlightRecording:filename=receiver.jfr, and read with the standard tools (jfr print, JDK Mission Control).
+ * An event is created, checked with shouldCommit() and only then filled in and committed, so a disabled event
+ * costs a branch: the JIT removes the allocation of the event object. The stack traces are not recorded.
+ */
+public final class TransferEvents {
+
+    private static final String CATEGORY = "AZRP Receiver";
+
+    private TransferEvents() {
+    }
+
+    @Name("ca.bcit.comp7005.SynReceived")
+    @Label("SYN Received")
+    @Description("A valid SYN packet that opens a session or is retransmitted for an open one")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SynReceived extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Initial Sequence Number")
+        public int initialSequenceNumber;
+
+        @Label("Length")
+        @Description("The length field of the SYN packet")
+        @DataAmount
+        public long length;
+
+        @Label("Retransmitted")
+        @Description("Whether the session of the SYN packet is already open")
+        public boolean retransmitted;
+    }
+
+    @Name("ca.bcit.comp7005.SessionRestarted")
+    @Label("Session Restarted")
+    @Description("A SYN packet with a new initial sequence number replaced an incomplete session of the sender")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SessionRestarted extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Previous Initial Sequence Number")
+        public int previousInitialSequenceNumber;
+
+        @Label("Initial Sequence Number")
+        public int initialSequenceNumber;
+
+        @Label("Received Bytes")
+        @Description("The data the replaced session had received")
+        @DataAmount
+        public long receivedBytes;
+    }
+
+    @Name("ca.bcit.comp7005.ChecksumFailure")
+    @Label("Checksum Failure")
+    @Description("A packet dropped because its checksum or its length is invalid")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class ChecksumFailure extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Packet Type")
+        public String packetType;
+
+        @Label("Sequence Number")
+        public int sequenceNumber;
+
+        @Label("Length")
+        @Description("The length field of the packet")
+        public int length;
+    }
+
+    @Name("ca.bcit.comp7005.SegmentPlaced")
+    @Label("Segment Placed")
+    @Description("New data written into the reassembly target of a session, received or rebuilt from a parity packet")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class SegmentPlaced extends Event {
+        @Label("Session")
+        public String session;
+
+        @Label("Offset")
+        @DataAmount
+        public long offset;
+
+        @Label("Length")
+        @DataAmount
+        public int length;
+
+        @Label("Out-of-Order Distance")
+        @Description("How far ahead of the data received without gaps the segment arrived")
+        @DataAmount
+        public long outOfOrderDistance;
+    }
+
+    @Name("ca.bcit.comp7005.GapFilled")
+    @Label("Gap Filled")
+    @Description("The data received without gaps caught up with the data received out of order; "
+            + "the duration is how long the data had a gap")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class GapFilled extends Event {
+        @Label("Session")
+        public String session;
+
+        @Label("Gap Offset")
+        @Description("The end of the data received without gaps when the gap opened")
+        @DataAmount
+        public long offset;
+
+        @Label("Contiguous End")
+        @Description("The end of the data received without gaps when the gap was filled")
+        @DataAmount
+        public long contiguousEnd;
+    }
+
+    @Name("ca.bcit.comp7005.AckSent")
+    @Label("ACK Sent")
+    @Description("An ACK packet; the duration is how long sending it blocked the session")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class AckSent extends Event {
+        @Label("Session")
+        public String session;
+
+        @Label("Acknowledged Offset")
+        @Description("The offset that follows the acknowledged data")
+        @DataAmount
+        public long acknowledgedOffset;
+
+        @Label("Cumulative")
+        public boolean cumulative;
+
+        @Label("SACK Ranges")
+        public int sackRanges;
+    }
+
+    @Name("ca.bcit.comp7005.TransferCompleted")
+    @Label("Transfer Completed")
+    @Description("A message or a stream received completely; the duration is the lifetime of the session")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static class TransferCompleted extends Event {
+        @Label("Session")
+        public String session;
+
+        @Label("File Type")
+        public String fileType;
+
+        @Label("Received Bytes")
+        @DataAmount
+        public long receivedBytes;
+
+        @Label("Digest Verified")
+        @Description("Whether the message matched the digest sent by the sender, or had none")
+        public boolean digestVerified;
+    }
+}
@@ -0,0 +1,58 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+
+/**
+ * Provides the reassembly target of each new session and receives the session once the whole message has arrived.
+ */
+public interface TransferHandler {
+
+    /**
+     * Called when a new session is opened to choose where its data is reassembled.
+     *
+     * @param session - the new session.
+     * @return the reassembly target of the session.
+     * @throws IOException - if the reassembly target could not be created.
+     */
+    ReassemblyTarget openTarget(Session session) throws IOException;
+
+    /**
+     * Called by the session when all the data from the SYN packet has been received.
+     *
+     * @param session - the completed session.
+     * @param target  - the reassembly target that contains the whole message.
+     * @throws IOException - if an I/O error occurs while handling the data.
+     */
+    void onTransferComplete(Session session, ReassemblyTarget target) throws IOException;
+
+    /**
+     * Called by a persistent session for each message of its stream as soon as the message is complete.
+     *
+     * @param session  - the session of the stream.
+     * @param key      - the key of the message: the sender and the sequence number of the frame of the message.
+     * @param fileType - the file extension of the MIME type of the message, or "textstring" for a text string.
+     * @param target   - the reassembly target that contains the message.
+     * @throws IOException - if an I/O error occurs while handling the data.
+     */
+    void onMessage(Session session, SessionKey key, String fileType, ReassemblyTarget target) throws IOException;
+
+    /**
+     * Gets how full the stage that consumes the completed messages is, so the sessions shrink their receive windows
+     * before it's full.
+     *
+     * @return the load from 0 (empty) to 1 (full).
+     */
+    default double getSinkLoad() {
+        return 0;
+    }
+
+    /**
+     * Gets the budget the sessions reserve the memory they fill as packets arrive from, e.g. the parity packets
+     * kept for forward error correction.
+     *
+     * @return the budget, or null if the memory is not limited.
+     */
+    default MemoryBudget getMemoryBudget() {
+        return null;
+    }
+}
@@ -0,0 +1,414 @@
+package ca.bcit.comp7005;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and histograms of the transfers, either of one session or of all the sessions together.
+ * The metrics of a session also update the metrics of all the sessions, so the aggregate is always up to date.
+ * The counters are striped, so the sessions that record their metrics at the same time don't contend.
+ */
+public class TransferMetrics implements TransferMetricsMXBean {
+
+    // The metrics of all the sessions, or null if these are the metrics of all the sessions
+    private final TransferMetrics aggregate;
+
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder acksSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder duplicatePackets = new LongAdder();
+    private final LongAdder checksumFailures = new LongAdder();
+    private final LongAdder digestFailures = new LongAdder();
+    private final LongAdder droppedPackets = new LongAdder();
+    private final LongAdder outOfOrderPackets = new LongAdder();
+    private final LongAdder kernelDrops = new LongAdder();
+    private final LongAdder sinkStalls = new LongAdder();
+    private final LongAdder parityPackets = new LongAdder();
+    private final LongAdder recoveredPackets = new LongAdder();
+    private final LongAdder streamMessages = new LongAdder();
+    private final LongAdder chunksVerified = new LongAdder();
+    private final LongAdder chunkFailures = new LongAdder();
+    private final LongAdder sessionsOpened = new LongAdder();
+    private final LongAdder sessionsCompleted = new LongAdder();
+    private final LongAdder sessionsExpired = new LongAdder();
+    private final LongAdder sessionsRefused = new LongAdder();
+    private final LongAdder spilledTransfers = new LongAdder();
+
+    private final Histogram handshakeLatencyMicros;
+    private final Histogram transferDurationMillis;
+    private final Histogram goodputBytesPerSecond;
+    private final Histogram outOfOrderDepthBytes;
+    private final Histogram jitterMicros;
+
+    /**
+     * Creates the metrics of all the sessions. Their histograms are striped over the processors.
+     */
+    public TransferMetrics() {
+        this(null, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates the metrics of a session. Only the executor of the session updates them, so they're not striped.
+     *
+     * @param aggregate - the metrics of all the sessions.
+     */
+    public TransferMetrics(TransferMetrics aggregate) {
+        this(aggregate, 1);
+    }
+
+    private TransferMetrics(TransferMetrics aggregate, int stripes) {
+        this.aggregate = aggregate;
+        this.handshakeLatencyMicros = new Histogram(stripes);
+        this.transferDurationMillis = new Histogram(stripes);
+        this.goodputBytesPerSecond = new Histogram(stripes);
+        this.outOfOrderDepthBytes = new Histogram(stripes);
+        this.jitterMicros = new Histogram(stripes);
+    }
+
+    public void onPacketReceived() {
+        this.packetsReceived.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onPacketReceived();
+        }
+    }
+
+    /**
+     * Records a control packet sent to the sender other than an ACK packet, e.g. a SYN-ACK packet.
+     */
+    public void onPacketSent() {
+        this.packetsSent.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onPacketSent();
+        }
+    }
+
+    public void onAckSent() {
+        this.packetsSent.increment();
+        this.acksSent.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onAckSent();
+        }
+    }
+
+    /**
+     * Records the data of a packet received for the first time.
+     *
+     * @param bytes - the number of bytes of the message that had not been received before.
+     */
+    public void onDataReceived(long bytes) {
+        this.bytesReceived.add(bytes);
+        if (this.aggregate != null) {
+            this.aggregate.onDataReceived(bytes);
+        }
+    }
+
+    public void onDuplicatePacket() {
+        this.duplicatePackets.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onDuplicatePacket();
+        }
+    }
+
+    public void onChecksumFailure() {
+        this.checksumFailures.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onChecksumFailure();
+        }
+    }
+
+    public void onDigestFailure() {
+        this.digestFailures.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onDigestFailure();
+        }
+    }
+
+    public void onPacketDropped() {
+        this.droppedPackets.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onPacketDropped();
+        }
+    }
+
+    /**
+     * Records the datagrams dropped by the kernel before they reached the receiver.
+     *
+     * @param drops - the number of datagrams.
+     */
+    public void onKernelDrops(long drops) {
+        this.kernelDrops.add(drops);
+    }
+
+    /**
+     * Records a completed session that waited for the sink because the sink stage was full.
+     */
+    public void onSinkStall() {
+        this.sinkStalls.increment();
+    }
+
+    /**
+     * Records a packet that arrived ahead of the data received without gaps.
+     *
+     * @param depthBytes - the distance from the end of the data received without gaps to the packet.
+     */
+    public void onOutOfOrderPacket(long depthBytes) {
+        this.outOfOrderPackets.increment();
+        this.outOfOrderDepthBytes.record(depthBytes);
+        if (this.aggregate != null) {
+            this.aggregate.onOutOfOrderPacket(depthBytes);
+        }
+    }
+
+    public void onParityPacket() {
+        this.parityPackets.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onParityPacket();
+        }
+    }
+
+    /**
+     * Records a lost data packet rebuilt from a parity packet instead of being retransmitted.
+     */
+    public void onPacketRecovered() {
+        this.recoveredPackets.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onPacketRecovered();
+        }
+    }
+
+    /**
+     * Records a message cut out of the stream of a persistent session and handed over to the sink.
+     */
+    public void onStreamMessage() {
+        this.streamMessages.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onStreamMessage();
+        }
+    }
+
+    /**
+     * Records a chunk of a message that matched its hash in the manifest.
+     */
+    public void onChunkVerified() {
+        this.chunksVerified.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onChunkVerified();
+        }
+    }
+
+    /**
+     * Records a chunk of a message, or the manifest itself, that didn't match its hash and was requested again.
+     */
+    public void onChunkFailure() {
+        this.chunkFailures.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onChunkFailure();
+        }
+    }
+
+    /**
+     * Records the inter-arrival jitter of a session after a packet with a timestamp.
+     *
+     * @param jitterMicros - the smoothed variation of the one-way delay of the packets.
+     */
+    public void onJitterSample(long jitterMicros) {
+        this.jitterMicros.record(jitterMicros);
+        if (this.aggregate != null) {
+            this.aggregate.onJitterSample(jitterMicros);
+        }
+    }
+
+    public void onSessionOpened() {
+        this.sessionsOpened.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onSessionOpened();
+        }
+    }
+
+    /**
+     * Records the first data packet after the SYN-ACK packet.
+     *
+     * @param latencyNanos - the time from sending the SYN-ACK packet to receiving the first data packet.
+     */
+    public void onHandshakeCompleted(long latencyNanos) {
+        this.handshakeLatencyMicros.record(latencyNanos / 1_000);
+        if (this.aggregate != null) {
+            this.aggregate.onHandshakeCompleted(latencyNanos);
+        }
+    }
+
+    /**
+     * Records a completed transfer.
+     *
+     * @param messageLength - the length of the whole message.
+     * @param durationNanos - the time from receiving the SYN packet to receiving the whole message.
+     */
+    public void onSessionCompleted(long messageLength, long durationNanos) {
+        this.sessionsCompleted.increment();
+        this.transferDurationMillis.record(durationNanos / 1_000_000);
+        this.goodputBytesPerSecond.record(messageLength * 1_000_000_000L / Math.max(1, durationNanos));
+        if (this.aggregate != null) {
+            this.aggregate.onSessionCompleted(messageLength, durationNanos);
+        }
+    }
+
+    /**
+     * Records a session that was closed before the whole message was received.
+     */
+    public void onSessionExpired() {
+        this.sessionsExpired.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onSessionExpired();
+        }
+    }
+
+    /**
+     * Records a SYN packet refused because the memory budget had no room for its session.
+     */
+    public void onSessionRefused() {
+        this.sessionsRefused.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onSessionRefused();
+        }
+    }
+
+    /**
+     * Records a file written to disk because the memory budget had no room for it.
+     */
+    public void onTransferSpilled() {
+        this.spilledTransfers.increment();
+        if (this.aggregate != null) {
+            this.aggregate.onTransferSpilled();
+        }
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return packetsReceived.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packetsSent.sum();
+    }
+
+    @Override
+    public long getAcksSent() {
+        return acksSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getDuplicatePackets() {
+        return duplicatePackets.sum();
+    }
+
+    @Override
+    public long getChecksumFailures() {
+        return checksumFailures.sum();
+    }
+
+    @Override
+    public long getDigestFailures() {
+        return digestFailures.sum();
+    }
+
+    @Override
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    @Override
+    public long getOutOfOrderPackets() {
+        return outOfOrderPackets.sum();
+    }
+
+    @Override
+    public long getKernelDrops() {
+        return kernelDrops.sum();
+    }
+
+    @Override
+    public long getSinkStalls() {
+        return sinkStalls.sum();
+    }
+
+    @Override
+    public long getParityPackets() {
+        return parityPackets.sum();
+    }
+
+    @Override
+    public long getRecoveredPackets() {
+        return recoveredPackets.sum();
+    }
+
+    @Override
+    public long getStreamMessages() {
+        return streamMessages.sum();
+    }
+
+    @Override
+    public long getChunksVerified() {
+        return chunksVerified.sum();
+    }
+
+    @Override
+    public long getChunkFailures() {
+        return chunkFailures.sum();
+    }
+
+    @Override
+    public long getSessionsOpened() {
+        return sessionsOpened.sum();
+    }
+
+    @Override
+    public long getSessionsCompleted() {
+        return sessionsCompleted.sum();
+    }
+
+    @Override
+    public long getSessionsExpired() {
+        return sessionsExpired.sum();
+    }
+
+    @Override
+    public long getSessionsRefused() {
+        return sessionsRefused.sum();
+    }
+
+    @Override
+    public long getSpilledTransfers() {
+        return spilledTransfers.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getHandshakeLatencyMicros() {
+        return handshakeLatencyMicros.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getTransferDurationMillis() {
+        return transferDurationMillis.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getGoodputBytesPerSecond() {
+        return goodputBytesPerSecond.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getOutOfOrderDepthBytes() {
+        return outOfOrderDepthBytes.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getJitterMicros() {
+        return jitterMicros.snapshot();
+    }
+}
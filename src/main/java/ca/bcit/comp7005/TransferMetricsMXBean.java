@@ -0,0 +1,143 @@
+package ca.bcit.comp7005;
+
+/**
+ * The metrics of the transfers exposed over JMX, either of one session or of all the sessions together.
+ */
+public interface TransferMetricsMXBean {
+
+    long getPacketsReceived();
+
+    long getPacketsSent();
+
+    long getAcksSent();
+
+    /**
+     * Gets the number of bytes of the messages received for the first time, without duplicates.
+     *
+     * @return the number of bytes.
+     */
+    long getBytesReceived();
+
+    long getDuplicatePackets();
+
+    long getChecksumFailures();
+
+    /**
+     * Gets the number of transfers whose whole message didn't match the digest sent by the sender.
+     *
+     * @return the number of transfers.
+     */
+    long getDigestFailures();
+
+    /**
+     * Gets the number of packets that were dropped without checking the checksum,
+     * e.g. because they were malformed or didn't belong to any session or message.
+     *
+     * @return the number of packets.
+     */
+    long getDroppedPackets();
+
+    long getOutOfOrderPackets();
+
+    /**
+     * Gets the number of datagrams dropped by the kernel because the socket receive buffer was full.
+     * They're counted only in the metrics of all the sessions.
+     *
+     * @return the number of datagrams.
+     */
+    long getKernelDrops();
+
+    /**
+     * Gets the number of completed sessions that waited for the sink because the sink stage was full.
+     * They're counted only in the metrics of all the sessions.
+     *
+     * @return the number of sessions.
+     */
+    long getSinkStalls();
+
+    long getParityPackets();
+
+    /**
+     * Gets the number of lost data packets rebuilt from the parity packets of forward error correction.
+     *
+     * @return the number of packets.
+     */
+    long getRecoveredPackets();
+
+    /**
+     * Gets the number of messages delivered from the streams of persistent sessions.
+     *
+     * @return the number of messages.
+     */
+    long getStreamMessages();
+
+    /**
+     * Gets the number of chunks of the messages with a manifest that matched their hashes.
+     *
+     * @return the number of chunks.
+     */
+    long getChunksVerified();
+
+    /**
+     * Gets the number of chunks, and of manifests, that didn't match their hashes and were requested again.
+     *
+     * @return the number of failed verifications.
+     */
+    long getChunkFailures();
+
+    long getSessionsOpened();
+
+    long getSessionsCompleted();
+
+    long getSessionsExpired();
+
+    /**
+     * Gets the number of SYN packets refused because the memory budget had no room for their sessions.
+     *
+     * @return the number of refused SYN packets.
+     */
+    long getSessionsRefused();
+
+    /**
+     * Gets the number of files written to disk because the memory budget had no room for them.
+     *
+     * @return the number of spilled files.
+     */
+    long getSpilledTransfers();
+
+    /**
+     * Gets the time from sending the SYN-ACK packet to receiving the first data packet.
+     *
+     * @return the histogram in microseconds.
+     */
+    HistogramSnapshot getHandshakeLatencyMicros();
+
+    /**
+     * Gets the time from receiving the SYN packet to receiving the whole message.
+     *
+     * @return the histogram in milliseconds.
+     */
+    HistogramSnapshot getTransferDurationMillis();
+
+    /**
+     * Gets the goodput of the completed transfers: the length of the message divided by the transfer duration.
+     *
+     * @return the histogram in bytes per second.
+     */
+    HistogramSnapshot getGoodputBytesPerSecond();
+
+    /**
+     * Gets how far ahead of the data received without gaps the out-of-order packets arrived.
+     *
+     * @return the histogram in bytes.
+     */
+    HistogramSnapshot getOutOfOrderDepthBytes();
+
+    /**
+     * Gets the inter-arrival jitter of the sessions with timestamps, sampled at every data and parity packet:
+     * the smoothed variation of the one-way delay, calculated like in RTP.
+     *
+     * @return the histogram in microseconds.
+     */
+    HistogramSnapshot getJitterMicros();
+}
@@ -0,0 +1,20 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+
+/**
+ * Consumes the completed messages on the thread of the sink stage, e.g. saves them or prints them.
+ * A sink is called by one thread at a time, so it doesn't need to be thread-safe,
+ * and it may block on I/O without holding back the sessions.
+ */
+@FunctionalInterface
+public interface TransferSink {
+
+    /**
+     * Consumes a completed message.
+     *
+     * @param transfer - the completed message.
+     * @throws IOException - if the message could not be consumed.
+     */
+    void accept(CompletedTransfer transfer) throws IOException;
+}
@@ -0,0 +1,53 @@
+package ca.bcit.comp7005;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends and receives the UDP datagrams of the receiver.
+ * The datagrams can be sent by any thread while another thread is receiving.
+ */
+public interface Transport {
+
+    /**
+     * Waits for the next datagram.
+     *
+     * @return the received datagram.
+     * @throws IOException - if an I/O error occurs or the transport is closed.
+     */
+    Datagram receive() throws IOException;
+
+    /**
+     * Sends a datagram.
+     *
+     * @param data     - the remaining bytes of the buffer are sent.
+     * @param receiver - the address and port of the receiver of the datagram.
+     * @throws IOException - if an I/O error occurs.
+     */
+    void send(ByteBuffer data, InetSocketAddress receiver) throws IOException;
+
+    /**
+     * Sets the size of the socket receive buffer (SO_RCVBUF), which holds the datagrams that arrive while
+     * the receive loop is busy. The operating system may limit the size.
+     *
+     * @param size - the requested size in bytes.
+     * @return the size set by the operating system.
+     * @throws IOException - if the size could not be set.
+     */
+    int setReceiveBufferSize(int size) throws IOException;
+
+    /**
+     * Gets the port the transport is bound to.
+     *
+     * @return the local port.
+     */
+    int getLocalPort();
+
+    boolean isClosed();
+
+    /**
+     * Closes the transport. A thread waiting for a datagram gets an exception.
+     */
+    void close();
+}
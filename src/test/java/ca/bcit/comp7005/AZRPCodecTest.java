@@ -0,0 +1,134 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AZRPCodecTest {
+
+    @Test
+    void ackRoundTrips() {
+        final ByteBuffer packet = AZRPCodec.encodeAck(AZRPCodec.allocateControlBuffer(), 1234, 567, 0xCAFEBABE);
+        assertEquals(AZRPCodec.CONTROL_PACKET_SIZE_IN_BYTES, packet.remaining());
+
+        final AZRPCodec codec = new AZRPCodec().wrap(packet);
+        assertTrue(codec.hasHeader());
+        assertTrue(codec.isACK());
+        assertFalse(codec.isSYN());
+        assertFalse(codec.isRST());
+        assertEquals(AZRP.ACK_FLAG, codec.getFlags());
+        assertEquals(1234, codec.getSequenceNumber());
+        assertEquals(567, codec.getLength());
+        assertEquals(0xCAFEBABE, codec.getCheckSum());
+    }
+
+    @Test
+    void controlPacketOptionsAreFound() {
+        final ByteBuffer packet = AZRPCodec.allocateControlBuffer();
+        final AZRPCodec codec = new AZRPCodec();
+        AZRPCodec.beginControlPacket(packet, AZRP.SYN_FLAG, 1, 2);
+        int lengthPosition = AZRPCodec.beginOption(packet, AZRP.OPTION_SEGMENT_SIZE);
+        packet.putInt(4000);
+        AZRPCodec.endOption(packet, lengthPosition);
+        lengthPosition = AZRPCodec.beginOption(packet, AZRP.OPTION_WINDOW);
+        AZRPCodec.endOption(packet, lengthPosition);
+        codec.wrap(codec.finishControlPacket(packet));
+
+        assertTrue(codec.isValidSyn());
+        assertTrue(codec.hasOptions());
+        assertEquals(AZRP.SYN_FLAG | AZRP.OPTIONS_FLAG, codec.getFlags());
+        assertEquals(2 + Integer.BYTES + 2, codec.getOptionsLength());
+        assertEquals(AZRPCodec.OPTIONS_OFFSET + codec.getOptionsLength() - AZRP.PAYLOAD_OFFSET, codec.getPayloadLength());
+        assertEquals(4000, codec.getOption(AZRP.OPTION_SEGMENT_SIZE).getInt(0));
+        assertEquals(0, codec.getOption(AZRP.OPTION_WINDOW).remaining());
+        assertNull(codec.getOption(AZRP.OPTION_STREAM));
+
+        // A changed option no longer matches the checksum
+        packet.put(AZRPCodec.OPTIONS_OFFSET + 2, (byte) 1);
+        assertFalse(codec.isChecksumValid());
+    }
+
+    @Test
+    void truncatedOptionIsNotFound() {
+        final ByteBuffer packet = AZRPCodec.allocateControlBuffer();
+        final AZRPCodec codec = new AZRPCodec();
+        AZRPCodec.beginControlPacket(packet, AZRP.SYN_FLAG, 1, 2);
+        packet.put((byte) AZRP.OPTION_SEGMENT_SIZE).put((byte) 10).putShort((short) 0);
+        codec.wrap(codec.finishControlPacket(packet));
+        assertNull(codec.getOption(AZRP.OPTION_SEGMENT_SIZE));
+    }
+
+    @Test
+    void dataPacketIsValidatedWithTheNegotiatedChecksum() {
+        final byte[] data = "The data of the packet".getBytes();
+        final ByteBuffer packet = dataPacket(0, 100, data, ChecksumAlgorithm.CRC32C, null);
+        final AZRPCodec codec = new AZRPCodec().wrap(packet);
+
+        // The default CRC32 doesn't match the CRC32C checksum
+        assertFalse(codec.isValidData());
+        codec.setDataChecksumAlgorithm(ChecksumAlgorithm.CRC32C);
+        assertTrue(codec.isValidData());
+        assertFalse(codec.isParity());
+        assertEquals(data.length, codec.getPayloadLength());
+
+        final ByteBuffer payload = codec.payload();
+        final byte[] received = new byte[payload.remaining()];
+        payload.get(received);
+        assertEquals(new String(data), new String(received));
+    }
+
+    @Test
+    void timestampFollowsTheDataAndIsCovered() {
+        final byte[] data = {1, 2, 3, 4, 5};
+        final ByteBuffer packet = dataPacket(0, 100, data, ChecksumAlgorithm.CRC32, 987_654);
+        final AZRPCodec codec = new AZRPCodec().wrap(packet);
+        codec.setDataTimestamps(true);
+        assertTrue(codec.isValidData());
+        assertEquals(987_654, codec.getDataTimestamp());
+        assertEquals(data.length, codec.getPayloadLength());
+
+        packet.putInt(AZRP.PAYLOAD_OFFSET + data.length, 1);
+        assertFalse(codec.isValidData());
+    }
+
+    @Test
+    void parityPacketIsValidatedLikeData() {
+        final ByteBuffer packet = dataPacket(AZRP.PARITY_FLAG, 200, new byte[]{9, 8, 7}, ChecksumAlgorithm.CRC32, null);
+        final AZRPCodec codec = new AZRPCodec().wrap(packet);
+        assertTrue(codec.isParity());
+        assertTrue(codec.isValidParity());
+        assertFalse(codec.isValidData());
+    }
+
+    @Test
+    void packetLongerThanTheBufferIsInvalid() {
+        final ByteBuffer packet = dataPacket(0, 100, new byte[]{1, 2, 3}, ChecksumAlgorithm.CRC32, null);
+        packet.putInt(AZRP.LENGTH_OFFSET, 1000);
+        final AZRPCodec codec = new AZRPCodec().wrap(packet);
+        assertEquals(-1, codec.getPayloadLength());
+        assertFalse(codec.isValidData());
+    }
+
+    /**
+     * Encodes a data or parity packet, optionally followed by a timestamp, the way a sender does.
+     */
+    private static ByteBuffer dataPacket(int flags, int sequenceNumber, byte[] data, ChecksumAlgorithm algorithm,
+                                         Integer timestamp) {
+        final int trailerLength = timestamp == null ? 0 : AZRP.TIMESTAMP_LENGTH;
+        final ByteBuffer packet = ByteBuffer.allocate(AZRP.PAYLOAD_OFFSET + data.length + trailerLength);
+        packet.putInt(flags).putInt(sequenceNumber).putInt(data.length).putInt(0).put(data);
+        if (timestamp != null) {
+            packet.putInt(timestamp);
+        }
+        final Checksum checksum = algorithm.newChecksum();
+        checksum.update(packet.array(), AZRP.PAYLOAD_OFFSET, data.length + trailerLength);
+        packet.putInt(AZRP.CHECKSUM_OFFSET, (int) checksum.getValue());
+        return packet.flip();
+    }
+}
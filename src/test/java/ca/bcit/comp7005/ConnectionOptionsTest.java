@@ -0,0 +1,163 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionOptionsTest {
+
+    private static final int INITIAL_SEQUENCE_NUMBER = 1000;
+    private static final int MAXIMUM_SEGMENT_SIZE = 9000;
+
+    @Test
+    void synWithoutOptionsGetsTheDefaults() {
+        final byte[] syn = new AZRP(new byte[AZRP.FILE_EXTENSION_LENGTH], INITIAL_SEQUENCE_NUMBER, 5000,
+                new boolean[]{true, false}).toBytes();
+        final AZRPCodec codec = new AZRPCodec().wrap(ByteBuffer.wrap(syn));
+        assertTrue(codec.isValidSyn());
+
+        final ConnectionOptions options = ConnectionOptions.fromSyn(codec, MAXIMUM_SEGMENT_SIZE);
+        assertFalse(options.isNegotiated());
+        assertEquals(ChecksumAlgorithm.CRC32, options.getChecksumAlgorithm());
+        assertNull(options.getDigestAlgorithm());
+        assertEquals(5000, options.getMessageLength(5000));
+        assertEquals(AZRP.MAXIMUM_PACKET_SIZE_IN_BYTES, options.getSegmentSize(MAXIMUM_SEGMENT_SIZE));
+        assertFalse(options.isFlowControl());
+        assertEquals(0, options.getFecGroupSize());
+        assertFalse(options.isStream());
+    }
+
+    @Test
+    void supportedOptionsAreAccepted() {
+        final byte[] digest = new byte[DigestAlgorithm.SHA_256.getLength()];
+        digest[0] = 42;
+        final ConnectionOptions options = parse(100_000, packet -> {
+            putOption(packet, AZRP.OPTION_CHECKSUM, new byte[]{(byte) ChecksumAlgorithm.CRC32C.getId()});
+            putOption(packet, AZRP.OPTION_DIGEST, concat(new byte[]{(byte) DigestAlgorithm.SHA_256.getId()}, digest));
+            putOption(packet, AZRP.OPTION_LENGTH, ByteBuffer.allocate(Long.BYTES).putLong(5_000_000_000L).array());
+            putOption(packet, AZRP.OPTION_SEGMENT_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(4000).array());
+            putOption(packet, AZRP.OPTION_WINDOW, new byte[0]);
+            putOption(packet, AZRP.OPTION_FEC, ByteBuffer.allocate(2 + Integer.BYTES)
+                    .put((byte) AZRP.FEC_XOR).put((byte) 8).putInt(1000).array());
+        });
+
+        assertTrue(options.isNegotiated());
+        assertEquals(ChecksumAlgorithm.CRC32C, options.getChecksumAlgorithm());
+        assertEquals(DigestAlgorithm.SHA_256, options.getDigestAlgorithm());
+        assertArrayEquals(digest, options.getExpectedDigest());
+        assertEquals(5_000_000_000L, options.getMessageLength(100_000));
+        assertEquals(4000, options.getSegmentSize(MAXIMUM_SEGMENT_SIZE));
+        assertTrue(options.isFlowControl());
+        assertEquals(8, options.getFecGroupSize());
+        assertEquals(1000, options.getFecPayloadLength());
+    }
+
+    @Test
+    void segmentSizeIsLimitedByTheReceiver() {
+        final ConnectionOptions options = parse(100_000, packet ->
+                putOption(packet, AZRP.OPTION_SEGMENT_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(60_000).array()));
+        assertEquals(MAXIMUM_SEGMENT_SIZE, options.getSegmentSize(MAXIMUM_SEGMENT_SIZE));
+    }
+
+    @Test
+    void unknownAndMalformedOptionsAreIgnored() {
+        final ConnectionOptions options = parse(100_000, packet -> {
+            putOption(packet, 200, new byte[]{1, 2, 3});
+            putOption(packet, AZRP.OPTION_CHECKSUM, new byte[]{(byte) 99});
+            putOption(packet, AZRP.OPTION_LENGTH, new byte[]{1, 2});
+            // A parity packet longer than a data packet can be
+            putOption(packet, AZRP.OPTION_FEC, ByteBuffer.allocate(2 + Integer.BYTES)
+                    .put((byte) AZRP.FEC_XOR).put((byte) 8).putInt(2000).array());
+        });
+        assertTrue(options.isNegotiated());
+        assertEquals(ChecksumAlgorithm.CRC32, options.getChecksumAlgorithm());
+        assertEquals(100_000, options.getMessageLength(100_000));
+        assertEquals(0, options.getFecGroupSize());
+    }
+
+    @Test
+    void streamIgnoresTheOptionsOfAWholeMessage() {
+        final ConnectionOptions options = parse(0, packet -> {
+            putOption(packet, AZRP.OPTION_STREAM, new byte[0]);
+            putOption(packet, AZRP.OPTION_LENGTH, ByteBuffer.allocate(Long.BYTES).putLong(1000).array());
+            putOption(packet, AZRP.OPTION_RESUME, new byte[]{1, 2, 3, 4});
+        });
+        assertTrue(options.isStream());
+        assertEquals(0, options.getMessageLength(0));
+        assertNull(options.getTransferId());
+    }
+
+    @Test
+    void manifestReplacesTheDigestAndIsRefusedWithCompression() {
+        final byte[] root = new byte[DigestAlgorithm.SHA_256.getLength()];
+        final byte[] manifest = ByteBuffer.allocate(1 + Integer.BYTES + root.length)
+                .put((byte) DigestAlgorithm.SHA_256.getId()).putInt(ManifestReassemblyTarget.MINIMUM_CHUNK_SIZE).put(root).array();
+        final byte[] digest = concat(new byte[]{(byte) DigestAlgorithm.SHA_256.getId()}, root);
+
+        final ConnectionOptions withManifest = parse(100_000, packet -> {
+            putOption(packet, AZRP.OPTION_DIGEST, digest);
+            putOption(packet, AZRP.OPTION_MANIFEST, manifest);
+        });
+        assertEquals(DigestAlgorithm.SHA_256, withManifest.getManifestAlgorithm());
+        assertEquals(ManifestReassemblyTarget.MINIMUM_CHUNK_SIZE, withManifest.getChunkSize());
+        assertNull(withManifest.getDigestAlgorithm());
+
+        final ConnectionOptions compressed = parse(100_000, packet -> {
+            putOption(packet, AZRP.OPTION_COMPRESSION, ByteBuffer.allocate(1 + Long.BYTES)
+                    .put((byte) CompressionAlgorithm.DEFLATE.getId()).putLong(300_000).array());
+            putOption(packet, AZRP.OPTION_MANIFEST, manifest);
+        });
+        assertEquals(CompressionAlgorithm.DEFLATE, compressed.getCompressionAlgorithm());
+        assertEquals(300_000, compressed.getDecompressedLength());
+        assertNull(compressed.getManifestAlgorithm());
+    }
+
+    @Test
+    void acceptedOptionsAreConfirmedInTheSynAck() {
+        final ConnectionOptions options = parse(100_000, packet -> {
+            putOption(packet, AZRP.OPTION_CHECKSUM, new byte[]{(byte) ChecksumAlgorithm.CRC32C.getId()});
+            putOption(packet, AZRP.OPTION_SEGMENT_SIZE, ByteBuffer.allocate(Integer.BYTES).putInt(4000).array());
+        });
+        final ByteBuffer synAck = AZRPCodec.allocateControlBuffer();
+        final AZRPCodec codec = new AZRPCodec();
+        AZRPCodec.beginControlPacket(synAck, AZRP.SYN_FLAG | AZRP.ACK_FLAG, INITIAL_SEQUENCE_NUMBER, 100_000);
+        options.writeSynAckOptions(synAck);
+        codec.wrap(codec.finishControlPacket(synAck));
+
+        assertTrue(codec.isChecksumValid());
+        assertEquals(ChecksumAlgorithm.CRC32C.getId(), codec.getOption(AZRP.OPTION_CHECKSUM).get(0));
+        assertEquals(4000, codec.getOption(AZRP.OPTION_SEGMENT_SIZE).getInt(0));
+        assertNull(codec.getOption(AZRP.OPTION_DIGEST));
+    }
+
+    /**
+     * Encodes a SYN packet with the options written by the consumer and parses it.
+     */
+    private static ConnectionOptions parse(int length, Consumer<ByteBuffer> optionWriter) {
+        final ByteBuffer packet = AZRPCodec.allocateControlBuffer();
+        final AZRPCodec codec = new AZRPCodec();
+        AZRPCodec.beginControlPacket(packet, AZRP.SYN_FLAG, INITIAL_SEQUENCE_NUMBER, length);
+        packet.put(AZRP.PAYLOAD_OFFSET, "text/plain".getBytes());
+        optionWriter.accept(packet);
+        codec.wrap(codec.finishControlPacket(packet));
+        assertTrue(codec.isValidSyn());
+        return ConnectionOptions.fromSyn(codec, MAXIMUM_SEGMENT_SIZE);
+    }
+
+    private static void putOption(ByteBuffer packet, int type, byte[] value) {
+        final int lengthPosition = AZRPCodec.beginOption(packet, type);
+        packet.put(value);
+        AZRPCodec.endOption(packet, lengthPosition);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        return ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+    }
+}
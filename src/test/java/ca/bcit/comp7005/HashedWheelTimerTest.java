@@ -0,0 +1,81 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedWheelTimerTest {
+
+    private static final long TICK_MILLIS = 10;
+
+    private HashedWheelTimer timer;
+
+    @BeforeEach
+    void startTimer() {
+        // A small wheel, so the longer timeouts take several rounds
+        this.timer = HashedWheelTimer.start("test-timer", TICK_MILLIS, 4);
+    }
+
+    @AfterEach
+    void stopTimer() {
+        this.timer.stop();
+    }
+
+    @Test
+    void timeoutExpiresAfterItsDelay() throws InterruptedException {
+        final CountDownLatch expired = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+        this.timer.newTimeout(expired::countDown, 30);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    void timeoutLongerThanTheWheelWaitsForItsRound() throws InterruptedException {
+        final CountDownLatch expired = new CountDownLatch(1);
+        final long startNanos = System.nanoTime();
+        this.timer.newTimeout(expired::countDown, 10 * 4 * TICK_MILLIS);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(10 * 4 * TICK_MILLIS));
+    }
+
+    @Test
+    void cancelledTimeoutNeverRuns() throws InterruptedException {
+        final AtomicBoolean ran = new AtomicBoolean();
+        final HashedWheelTimer.Timeout timeout = this.timer.newTimeout(() -> ran.set(true), 30);
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+
+        // A later timeout expires after the cancelled one would have
+        final CountDownLatch later = new CountDownLatch(1);
+        this.timer.newTimeout(later::countDown, 60);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheTimer() throws InterruptedException {
+        this.timer.newTimeout(() -> {
+            throw new IllegalStateException("test");
+        }, 0);
+        final CountDownLatch expired = new CountDownLatch(1);
+        this.timer.newTimeout(expired::countDown, 2 * TICK_MILLIS);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stoppedTimerRejectsNewTimeouts() {
+        this.timer.stop();
+        assertThrows(RejectedExecutionException.class, () -> this.timer.newTimeout(() -> { }, 10));
+    }
+}
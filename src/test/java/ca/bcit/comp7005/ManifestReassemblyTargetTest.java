@@ -0,0 +1,158 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ManifestReassemblyTargetTest {
+
+    private static final DigestAlgorithm ALGORITHM = DigestAlgorithm.SHA_256;
+    private static final int CHUNK_SIZE = ManifestReassemblyTarget.MINIMUM_CHUNK_SIZE;
+
+    @Test
+    void rootOfOneLeafIsTheLeaf() {
+        final byte[] leaf = leaf(1);
+        assertArrayEquals(leaf, ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{leaf.clone()}));
+    }
+
+    @Test
+    void rootOfTwoLeavesIsTheirParent() {
+        final byte[] a = leaf(1);
+        final byte[] b = leaf(2);
+        assertArrayEquals(parent(a, b), ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{a, b}));
+    }
+
+    @Test
+    void lastNodeOfAnOddLevelIsPromoted() {
+        final byte[] a = leaf(1);
+        final byte[] b = leaf(2);
+        final byte[] c = leaf(3);
+        final byte[] expected = parent(parent(a, b), c);
+        assertArrayEquals(expected, ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{a, b, c}));
+
+        final byte[] d = leaf(4);
+        final byte[] e = leaf(5);
+        final byte[] fiveLeaves = parent(parent(parent(a, b), parent(c, d)), e);
+        assertArrayEquals(fiveLeaves, ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{a, b, c, d, e}));
+    }
+
+    @Test
+    void orderOfTheLeavesChangesTheRoot() {
+        final byte[] forward = ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{leaf(1), leaf(2)});
+        final byte[] backward = ManifestReassemblyTarget.computeRoot(ALGORITHM, new byte[][]{leaf(2), leaf(1)});
+        assertFalse(MessageDigest.isEqual(forward, backward));
+    }
+
+    @Test
+    void receivedManifestAndChunksAreVerified() throws IOException {
+        final byte[] message = randomMessage(3 * CHUNK_SIZE + 100);
+        final byte[] manifest = manifestOf(message);
+        final HeapReassemblyTarget output = new HeapReassemblyTarget(message.length);
+        final ManifestReassemblyTarget target = new ManifestReassemblyTarget(output, ALGORITHM, CHUNK_SIZE, message.length,
+                rootOf(manifest));
+        assertEquals(manifest.length, target.getManifestLength());
+        assertEquals(4, target.getChunkCount());
+
+        // One packet spans the end of the manifest and the start of the message
+        final byte[] data = ByteBuffer.allocate(manifest.length + message.length).put(manifest).put(message).array();
+        target.write(0, ByteBuffer.wrap(data, 0, manifest.length + 10));
+        target.write(manifest.length + 10, ByteBuffer.wrap(data, manifest.length + 10, message.length - 10));
+
+        assertTrue(target.verifyManifest());
+        for (int i = 0; i < target.getChunkCount(); i++) {
+            assertTrue(target.verifyChunk(i));
+        }
+        assertArrayEquals(message, output.getData());
+        assertEquals(target.getChunkStart(3), target.getManifestLength() + 3L * CHUNK_SIZE);
+        assertEquals(target.getChunkEnd(3), target.getManifestLength() + (long) message.length);
+    }
+
+    @Test
+    void corruptedChunkFailsAndSealedChunkKeepsItsData() throws IOException {
+        final byte[] message = randomMessage(2 * CHUNK_SIZE);
+        final byte[] manifest = manifestOf(message);
+        final HeapReassemblyTarget output = new HeapReassemblyTarget(message.length);
+        final ManifestReassemblyTarget target = new ManifestReassemblyTarget(output, ALGORITHM, CHUNK_SIZE, message.length,
+                rootOf(manifest));
+        target.write(0, ByteBuffer.wrap(manifest));
+        target.write(manifest.length, ByteBuffer.wrap(message));
+
+        // A corrupted copy of the first byte of the second chunk
+        final long secondChunk = target.getChunkStart(1);
+        target.write(secondChunk, ByteBuffer.wrap(new byte[]{(byte) (message[CHUNK_SIZE] + 1)}));
+        assertTrue(target.verifyChunk(0));
+        assertFalse(target.verifyChunk(1));
+
+        // The chunk received again and sealed is not changed by a late corrupted duplicate
+        target.write(secondChunk, ByteBuffer.wrap(message, CHUNK_SIZE, CHUNK_SIZE));
+        target.sealChunk(1);
+        assertTrue(target.isSealed(secondChunk, secondChunk + 1));
+        assertFalse(target.isSealed(target.getChunkStart(0), target.getChunkEnd(0)));
+        target.write(secondChunk, ByteBuffer.wrap(new byte[]{(byte) (message[CHUNK_SIZE] + 1)}));
+        assertTrue(target.verifyChunk(1));
+
+        target.unsealChunk(1);
+        assertFalse(target.isSealed(secondChunk, secondChunk + 1));
+    }
+
+    @Test
+    void manifestThatDoesNotMatchItsRootFails() throws IOException {
+        final byte[] message = randomMessage(2 * CHUNK_SIZE);
+        final byte[] manifest = manifestOf(message);
+        final ManifestReassemblyTarget target = new ManifestReassemblyTarget(new HeapReassemblyTarget(message.length),
+                ALGORITHM, CHUNK_SIZE, message.length, rootOf(manifest));
+        manifest[0] ^= 1;
+        target.write(0, ByteBuffer.wrap(manifest));
+        assertFalse(target.verifyManifest());
+    }
+
+    private static byte[] leaf(int value) {
+        final byte[] data = {(byte) value};
+        return ManifestReassemblyTarget.hashChunk(ALGORITHM, data, 0, data.length);
+    }
+
+    private static byte[] parent(byte[] left, byte[] right) {
+        final MessageDigest messageDigest = ALGORITHM.newMessageDigest();
+        messageDigest.update((byte) 1);
+        messageDigest.update(left);
+        messageDigest.update(right);
+        return messageDigest.digest();
+    }
+
+    private static byte[] randomMessage(int length) {
+        final byte[] message = new byte[length];
+        new Random(length).nextBytes(message);
+        return message;
+    }
+
+    private static byte[] manifestOf(byte[] message) {
+        final int hashLength = ALGORITHM.getLength();
+        final int chunks = (message.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final byte[] manifest = new byte[chunks * hashLength];
+        for (int i = 0; i < chunks; i++) {
+            final int offset = i * CHUNK_SIZE;
+            final byte[] hash = ManifestReassemblyTarget.hashChunk(ALGORITHM, message, offset,
+                    Math.min(CHUNK_SIZE, message.length - offset));
+            System.arraycopy(hash, 0, manifest, i * hashLength, hashLength);
+        }
+        return manifest;
+    }
+
+    private static byte[] rootOf(byte[] manifest) {
+        final int hashLength = ALGORITHM.getLength();
+        final byte[][] leaves = new byte[manifest.length / hashLength][];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = new byte[hashLength];
+            System.arraycopy(manifest, i * hashLength, leaves[i], 0, hashLength);
+        }
+        return ManifestReassemblyTarget.computeRoot(ALGORITHM, leaves);
+    }
+}
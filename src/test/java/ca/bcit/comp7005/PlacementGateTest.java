@@ -0,0 +1,56 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlacementGateTest {
+
+    @Test
+    void awaitWritersReturnsAtOnceWithoutWriters() {
+        final PlacementGate gate = new PlacementGate();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            gate.awaitWriters();
+            gate.awaitWriters();
+        });
+        assertEquals(2, gate.enter());
+    }
+
+    @Test
+    void writerThatLeftDoesNotHoldTheSession() {
+        final PlacementGate gate = new PlacementGate();
+        final int epoch = gate.enter();
+        gate.leave(epoch);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), gate::awaitWriters);
+    }
+
+    @Test
+    void sessionWaitsOnlyForTheWritersOfThePreviousEpoch() throws InterruptedException {
+        final PlacementGate gate = new PlacementGate();
+        final int earlyEpoch = gate.enter();
+        assertEquals(0, earlyEpoch);
+
+        final Thread session = Thread.ofPlatform().start(gate::awaitWriters);
+
+        // A writer that enters once the session has started the new epoch is counted by the other parity
+        int lateEpoch;
+        while ((lateEpoch = gate.enter()) == earlyEpoch) {
+            gate.leave(lateEpoch);
+            Thread.onSpinWait();
+        }
+        assertEquals(1, lateEpoch);
+
+        session.join(100);
+        assertTrue(session.isAlive(), "The session must wait for the writer of the previous epoch");
+
+        gate.leave(earlyEpoch);
+        session.join(5000);
+        assertFalse(session.isAlive(), "The session must not wait for the writer of the new epoch");
+        gate.leave(lateEpoch);
+    }
+}
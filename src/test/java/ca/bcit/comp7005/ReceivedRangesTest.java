@@ -0,0 +1,89 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReceivedRangesTest {
+
+    @Test
+    void inOrderDataExtendsTheContiguousEnd() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        assertEquals(100, ranges.add(0, 100));
+        assertEquals(100, ranges.add(100, 200));
+        assertEquals(1, ranges.getRangeCount());
+        assertEquals(200, ranges.getContiguousEnd());
+    }
+
+    @Test
+    void outOfOrderDataLeavesAGapUntilItIsFilled() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        ranges.add(0, 100);
+        ranges.add(200, 300);
+        assertEquals(2, ranges.getRangeCount());
+        assertEquals(100, ranges.getContiguousEnd());
+        assertFalse(ranges.contains(50, 250));
+
+        assertEquals(100, ranges.add(100, 200));
+        assertEquals(1, ranges.getRangeCount());
+        assertEquals(300, ranges.getContiguousEnd());
+        assertTrue(ranges.contains(50, 250));
+    }
+
+    @Test
+    void duplicatesAndOverlapsCountOnlyTheNewBytes() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        ranges.add(100, 200);
+        ranges.add(300, 400);
+        assertEquals(0, ranges.add(120, 180));
+        assertEquals(150, ranges.add(50, 350));
+        assertEquals(1, ranges.getRangeCount());
+        assertEquals(50, ranges.getStart(0));
+        assertEquals(400, ranges.getEnd(0));
+        assertEquals(0, ranges.getContiguousEnd());
+    }
+
+    @Test
+    void rangesAreKeptSortedBeyondTheInitialCapacity() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        // Every other range in reverse order, so each one is inserted at the front
+        for (int i = 99; i >= 0; i--) {
+            ranges.add(i * 20L, i * 20L + 10);
+        }
+        assertEquals(100, ranges.getRangeCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i * 20L, ranges.getStart(i));
+            assertEquals(i, ranges.indexOf(i * 20L + 5));
+            assertEquals(-1, ranges.indexOf(i * 20L + 15));
+        }
+    }
+
+    @Test
+    void removeCutsAndSplitsTheRanges() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        ranges.add(0, 100);
+        ranges.add(200, 300);
+
+        assertEquals(20, ranges.remove(40, 60));
+        assertEquals(3, ranges.getRangeCount());
+        assertEquals(40, ranges.getContiguousEnd());
+        assertFalse(ranges.contains(40, 60));
+        assertTrue(ranges.contains(60, 100));
+
+        assertEquals(90, ranges.remove(50, 250));
+        assertEquals(2, ranges.getRangeCount());
+        assertEquals(250, ranges.getStart(1));
+        assertEquals(0, ranges.remove(100, 200));
+    }
+
+    @Test
+    void emptyRangesAreIgnored() {
+        final ReceivedRanges ranges = new ReceivedRanges();
+        assertEquals(0, ranges.add(10, 10));
+        assertEquals(0, ranges.getRangeCount());
+        assertTrue(ranges.contains(10, 10));
+        assertEquals(0, ranges.remove(10, 10));
+    }
+}
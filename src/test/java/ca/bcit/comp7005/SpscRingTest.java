@@ -0,0 +1,80 @@
+package ca.bcit.comp7005;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpscRingTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1, new SpscRing<Integer>(0).capacity());
+        assertEquals(1, new SpscRing<Integer>(1).capacity());
+        assertEquals(8, new SpscRing<Integer>(5).capacity());
+        assertEquals(8, new SpscRing<Integer>(8).capacity());
+    }
+
+    @Test
+    void fullRingRefusesAndEmptyRingReturnsNull() {
+        final SpscRing<Integer> ring = new SpscRing<>(4);
+        assertNull(ring.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, ring.poll());
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void elementsStayInOrderAcrossManyWraparounds() {
+        final SpscRing<Integer> ring = new SpscRing<>(4);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 1000; round++) {
+            // A varying number of elements per round, so the head and the tail wrap at different indexes
+            final int count = round % 4 + 1;
+            for (int i = 0; i < count; i++) {
+                assertTrue(ring.offer(next++));
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected++, ring.poll());
+            }
+            assertNull(ring.poll());
+        }
+    }
+
+    @Test
+    void producerAndConsumerThreadsHandOverEveryElement() throws InterruptedException {
+        final SpscRing<Integer> ring = new SpscRing<>(16);
+        final int elements = 10_000;
+        final Thread producer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < elements; i++) {
+                while (!ring.offer(i)) {
+                    Thread.yield();
+                }
+            }
+        });
+        // The threads yield rather than spin, so the test also runs on a single processor
+        for (int i = 0; i < elements; i++) {
+            Integer element;
+            while ((element = ring.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(i, element);
+        }
+        producer.join();
+        assertNull(ring.poll());
+    }
+}